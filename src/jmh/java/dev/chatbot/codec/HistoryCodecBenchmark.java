@@ -0,0 +1,166 @@
+package dev.chatbot.codec;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.aiservice.properties.MemoryProperties.Codec;
+
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * HistoryCodecBenchmark compares the size and the encode/decode time of the
+ * history codecs. The JSON codec is the format the TEXT columns used to hold.
+ * <p>
+ * Run it with {@code mvn -Pjmh test-compile exec:exec -Djmh.benchmarks=HistoryCodecBenchmark};
+ * the bytes each codec stores are printed before the measurements of a trial.
+ *
+ * @author zhoumo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryCodecBenchmark {
+
+    private static final String[] WORDS = {
+        "the",
+        "weather",
+        "in",
+        "paris",
+        "is",
+        "sunny",
+        "with",
+        "a",
+        "high",
+        "of",
+        "degrees",
+        "search",
+        "result",
+        "according",
+        "to",
+        "news",
+        "report",
+        "published",
+        "today",
+        "city",
+        "population",
+        "million",
+        "people"
+    };
+
+    @Param({"JSON", "DEFLATE", "SMILE"})
+    public Codec codec;
+
+    /**
+     * TEXT: plain question/answer turns; TOOLS: turns with web search results;
+     * IMAGE: tool turns plus a base64 image attachment.
+     */
+    @Param({"TEXT", "TOOLS", "IMAGE"})
+    public String shape;
+
+    private HistoryCodecs codecs;
+    private List<ChatMessage> history;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        MemoryProperties properties = new MemoryProperties();
+        properties.setCodec(codec);
+        properties.setCompressThreshold(0);
+        codecs = new HistoryCodecs(properties);
+        history = history(shape, new Random(42));
+        String json = messagesToJson(history);
+        payload = codecs.encode(json);
+        System.out.printf(
+                "%n%s/%s: %d bytes as TEXT, %d bytes encoded (%.1f%%)%n",
+                codec,
+                shape,
+                json.getBytes(UTF_8).length,
+                payload.length,
+                100.0 * payload.length / json.getBytes(UTF_8).length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codecs.encode(messagesToJson(history));
+    }
+
+    @Benchmark
+    public List<ChatMessage> decode() {
+        return messagesFromJson(codecs.decode(payload));
+    }
+
+    static List<ChatMessage> history(String shape, Random random) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from("You are Mo, a helpful assistant. Answer concisely."));
+        for (int turn = 0; turn < 10; turn++) {
+            if (shape.equals("IMAGE") && turn == 0) {
+                byte[] image = new byte[64 * 1024];
+                random.nextBytes(image);
+                messages.add(UserMessage.from(
+                        TextContent.from("What is in this picture?"),
+                        ImageContent.from(Base64.getEncoder().encodeToString(image), "image/png")));
+            } else {
+                messages.add(UserMessage.from(sentence(random, 20)));
+            }
+            if (!shape.equals("TEXT")) {
+                ToolExecutionRequest request = ToolExecutionRequest.builder()
+                        .id("call_" + turn)
+                        .name("webSearch")
+                        .arguments("{\"query\":\"" + sentence(random, 5) + "\"}")
+                        .build();
+                messages.add(AiMessage.from(request));
+                StringBuilder results = new StringBuilder();
+                for (int i = 0; i < 5; i++) {
+                    results.append("Title: ")
+                            .append(sentence(random, 8))
+                            .append("\nURL: https://example.com/")
+                            .append(random.nextInt(100_000))
+                            .append("\nContent: ")
+                            .append(sentence(random, 120))
+                            .append("\n\n");
+                }
+                messages.add(ToolExecutionResultMessage.from(request, results.toString()));
+            }
+            messages.add(AiMessage.from(sentence(random, 80)));
+        }
+        return messages;
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.append('.').toString();
+    }
+}
@@ -0,0 +1,81 @@
+package dev.chatbot.controller;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.chatbot.dto.ChatMessage;
+import dev.chatbot.utils.Json;
+
+/**
+ * ChunkEncoderBenchmark encodes the AIMessageChunk event of a streamed token,
+ * once by building a {@link ChatMessage} and serializing it with
+ * {@link Json#toJson(Object)} and once with {@link ChunkEncoder}.
+ * <p>
+ * Run it with {@code mvn -Pjmh test-compile exec:exec -Djmh.benchmarks=ChunkEncoderBenchmark};
+ * gc.alloc.rate.norm is the bytes allocated per token. Tokens are a few
+ * characters long, as streamed by the model, or a coalesced chunk of a few
+ * hundred characters.
+ *
+ * @author zhoumo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkEncoderBenchmark {
+
+    private static final String RUN_ID = "5b0e7a4c-2f1d-4d3b-9b1e-0c6f4e8a2d71";
+
+    private static final String PARENT_ID = "e1c2a3b4-5d6e-4f70-8a9b-0c1d2e3f4a5b";
+
+    @Param({"4", "400"})
+    private int tokenLength;
+
+    private String token;
+
+    private ChunkEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(tokenLength);
+        while (text.length() < tokenLength) {
+            int next = random.nextInt(40);
+            text.append(next == 0 ? '\n' : next == 1 ? '"' : next < 8 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        token = text.toString();
+        encoder = new ChunkEncoder(RUN_ID, PARENT_ID);
+    }
+
+    @Benchmark
+    public String objectMapper() {
+        return Json.toJson(ChatMessage.builder()
+                .id(RUN_ID)
+                .parentId(PARENT_ID)
+                .type("AIMessageChunk")
+                .from("ai")
+                .sentAt(Instant.now())
+                .content(token)
+                .build());
+    }
+
+    @Benchmark
+    public String chunkEncoder() {
+        return encoder.encode(ChunkCoalescer.Kind.CONTENT, token, Instant.now());
+    }
+}
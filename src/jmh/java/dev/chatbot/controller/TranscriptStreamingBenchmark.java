@@ -0,0 +1,156 @@
+package dev.chatbot.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.codec.HistoryCodecs;
+import dev.chatbot.dto.ChatMessage;
+import dev.chatbot.utils.Json;
+import dev.chatbot.vo.Chat;
+
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * TranscriptStreamingBenchmark writes a 5 MB transcript as a conversation
+ * response, once by building the whole Chat before serializing it and once
+ * with {@link StreamingChatResponse}.
+ * <p>
+ * Run it with {@code mvn -Pjmh test-compile exec:exec -Djmh.benchmarks=TranscriptStreamingBenchmark};
+ * gc.alloc.rate.norm is the bytes allocated per response. The buffered path
+ * keeps the decoded JSON, every message and every DTO reachable until the
+ * response is written, while everything the streaming path allocates for a
+ * message is garbage once the message is written, which shows in gc.time.
+ *
+ * @author zhoumo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranscriptStreamingBenchmark {
+
+    private static final int TRANSCRIPT_BYTES = 5 * 1024 * 1024;
+
+    private static final Set<ChatMessageType> TYPES = EnumSet.of(ChatMessageType.USER, ChatMessageType.AI);
+
+    private HistoryCodecs codecs;
+    private byte[] payload;
+    private Chat chat;
+
+    @Setup
+    public void setUp() {
+        codecs = new HistoryCodecs(new MemoryProperties());
+        String json = messagesToJson(transcript(new Random(42)));
+        payload = codecs.encode(json);
+        chat = Chat.builder()
+                .id("3f1c7a52-4f0e-4c1a-9a56-8e1f3e2b9d10")
+                .title("Weather in Paris")
+                .owner("dev")
+                .updatedAt(Instant.now())
+                .build();
+        System.out.printf(
+                "%nTranscript: %d bytes of JSON, %d bytes stored%n", json.getBytes(UTF_8).length, payload.length);
+    }
+
+    @Benchmark
+    public void buffered() throws IOException {
+        List<ChatMessage> messages = messagesFromJson(codecs.decode(payload)).stream()
+                .filter(message -> TYPES.contains(message.type()))
+                .map(ChatMessage::fromLC)
+                .filter(Objects::nonNull)
+                .filter(TranscriptStreamingBenchmark::displayed)
+                .toList();
+        Chat full = Chat.builder()
+                .id(chat.getId())
+                .title(chat.getTitle())
+                .owner(chat.getOwner())
+                .updatedAt(chat.getUpdatedAt())
+                .messages(messages)
+                .build();
+        try (JsonGenerator generator = Json.createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeObject(full);
+        }
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        StreamingChatResponse.of(
+                        chat,
+                        TranscriptStreamingBenchmark::displayed,
+                        action -> codecs.forEachElement(null, payload, json -> {
+                            var message = messageFromJson(json);
+                            if (TYPES.contains(message.type())) {
+                                action.accept(message);
+                            }
+                        }))
+                .writeTo(OutputStream.nullOutputStream());
+    }
+
+    private static boolean displayed(ChatMessage message) {
+        return message.getContent() != null && List.of("human", "ai").contains(message.getType());
+    }
+
+    private static List<dev.langchain4j.data.message.ChatMessage> transcript(Random random) {
+        List<dev.langchain4j.data.message.ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from("You are Mo, a helpful assistant. Answer concisely."));
+        int bytes = 0;
+        for (int turn = 0; bytes < TRANSCRIPT_BYTES; turn++) {
+            String question = text(random, 200);
+            ToolExecutionRequest request = ToolExecutionRequest.builder()
+                    .id("call_" + turn)
+                    .name("webSearch")
+                    .arguments("{\"query\":\"" + text(random, 40) + "\"}")
+                    .build();
+            String result = text(random, 2000);
+            String answer = text(random, 1500);
+            messages.add(UserMessage.from(question));
+            messages.add(AiMessage.from(request));
+            messages.add(ToolExecutionResultMessage.from(request, result));
+            messages.add(AiMessage.from(answer));
+            bytes += question.length() + result.length() + answer.length() + 400;
+        }
+        return messages;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(random.nextInt(3) == 0 ? " " : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
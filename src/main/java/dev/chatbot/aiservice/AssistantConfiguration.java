@@ -1,25 +1,52 @@
 package dev.chatbot.aiservice;
 
+import java.net.http.HttpClient;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.jdk.JdkHttpClient;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.memory.chat.TokenWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import lombok.RequiredArgsConstructor;
+import reactor.core.scheduler.Schedulers;
 
+import dev.chatbot.aiservice.cache.CachingChatModel;
+import dev.chatbot.aiservice.cache.CachingStreamingChatModel;
+import dev.chatbot.aiservice.cache.ExactResponseCache;
+import dev.chatbot.aiservice.embeddings.HuggingfaceEmbeddingModel;
+import dev.chatbot.aiservice.execution.TurnExecutor;
+import dev.chatbot.aiservice.memory.CachingTokenCountEstimator;
+import dev.chatbot.aiservice.memory.CompactingChatMemory;
+import dev.chatbot.aiservice.memory.ConversationSummaryStore;
+import dev.chatbot.aiservice.memory.WriteBehindChatMemoryStore;
+import dev.chatbot.aiservice.properties.EmbedProperties;
 import dev.chatbot.aiservice.properties.LLMProperties;
+import dev.chatbot.aiservice.properties.MemoryProperties;
 import dev.chatbot.aiservice.properties.TavilyProperties;
+import dev.chatbot.aiservice.resilience.GuardedChatModel;
+import dev.chatbot.aiservice.resilience.GuardedStreamingChatModel;
+import dev.chatbot.aiservice.resilience.HedgingStreamingChatModel;
+import dev.chatbot.aiservice.resilience.ModelGuard;
+import dev.chatbot.aiservice.resilience.RoutingStreamingChatModel;
 import dev.chatbot.aiservice.tools.DatetimeTool;
 import dev.chatbot.aiservice.tools.WeatherTool;
 import dev.chatbot.aiservice.tools.WebSearchTool;
@@ -32,8 +59,14 @@ public class AssistantConfiguration {
 
     private final LLMProperties llmProperties;
     private final TavilyProperties tavilyProperties;
-    private final PersistentChatMemoryStore chatMemoryStore;
+    private final EmbedProperties embedProperties;
+    private final MemoryProperties memoryProperties;
+    private final ChatMemoryStore chatMemoryStore;
+    private final CachingTokenCountEstimator tokenCountEstimator;
     private final List<ChatModelListener> listeners;
+    private final TurnExecutor turnExecutor;
+    private final MeterRegistry meterRegistry;
+    private final ExactResponseCache responseCache;
 
     @Bean
     WebSearchEngine webSearchEngine() {
@@ -49,42 +82,134 @@ public class AssistantConfiguration {
         return builder.build();
     }
 
+    @Bean
+    EmbeddingModel embeddingModel() {
+        return HuggingfaceEmbeddingModel.builder()
+                .baseUrl(embedProperties.getBaseUrl())
+                .timeout(embedProperties.getTimeout())
+                .httpClientBuilder(httpClientBuilder())
+                .build();
+    }
+
     @Bean
     StreamingChatModel model() {
-        return OpenAiStreamingChatModel.builder()
-                .baseUrl(llmProperties.getBaseUrl())
-                .apiKey(llmProperties.getApiKey())
+        List<RoutingStreamingChatModel.Replica> replicas = new ArrayList<>();
+        for (LLMProperties.Endpoint endpoint : llmProperties.resolveEndpoints()) {
+            ModelGuard guard = guard(endpoint, "streaming");
+            replicas.add(new RoutingStreamingChatModel.Replica(
+                    endpoint.getName(), streamingChatModel(endpoint, guard), guard));
+        }
+        LLMProperties.Hedging hedging = llmProperties.getHedging();
+        StreamingChatModel model;
+        if (replicas.size() == 1 && !hedging.isEnabled()) {
+            model = replicas.getFirst().getModel();
+        } else {
+            RoutingStreamingChatModel router =
+                    new RoutingStreamingChatModel(replicas, tokenCountEstimator, llmProperties, meterRegistry);
+            model = hedging.isEnabled()
+                    ? new HedgingStreamingChatModel(router, hedging, Schedulers.boundedElastic(), meterRegistry)
+                    : router;
+        }
+        if (llmProperties.getResponseCache().isEnabled()) {
+            model = new CachingStreamingChatModel(model, responseCache);
+        }
+        return model;
+    }
+
+    private StreamingChatModel streamingChatModel(LLMProperties.Endpoint endpoint, ModelGuard guard) {
+        StreamingChatModel model = OpenAiStreamingChatModel.builder()
+                .baseUrl(endpoint.getBaseUrl())
+                .apiKey(endpoint.getApiKey())
                 .modelName(llmProperties.getModelName())
                 .temperature(llmProperties.getTemperature())
                 .topP(llmProperties.getTopP())
                 .maxTokens(llmProperties.getMaxTokens())
                 .returnThinking(true)
                 .listeners(listeners)
+                .httpClientBuilder(httpClientBuilder())
                 .build();
+        return new GuardedStreamingChatModel(model, guard);
     }
 
     @Bean
     ChatModel chatModel(StreamingChatModel streamingChatModel) {
-        return OpenAiChatModel.builder()
-                .baseUrl(llmProperties.getBaseUrl())
-                .apiKey(llmProperties.getApiKey())
-                .modelName(llmProperties.getModelName())
+        return chatModel(llmProperties.getModelName());
+    }
+
+    /**
+     * A chat model for background work; it uses the first endpoint only.
+     */
+    private ChatModel chatModel(String modelName) {
+        LLMProperties.Endpoint endpoint = llmProperties.resolveEndpoints().getFirst();
+        ChatModel model = OpenAiChatModel.builder()
+                .baseUrl(endpoint.getBaseUrl())
+                .apiKey(endpoint.getApiKey())
+                .modelName(modelName)
                 .temperature(llmProperties.getTemperature())
                 .topP(llmProperties.getTopP())
                 .maxTokens(llmProperties.getMaxTokens())
                 .returnThinking(true)
                 .listeners(listeners)
+                .httpClientBuilder(httpClientBuilder())
                 .build();
+        ChatModel guarded = new GuardedChatModel(
+                model,
+                new ModelGuard(
+                        modelName,
+                        Tags.of("model", modelName, "api", "chat", "endpoint", endpoint.getName()),
+                        llmProperties,
+                        meterRegistry));
+        if (llmProperties.getResponseCache().isEnabled()) {
+            return new CachingChatModel(guarded, responseCache);
+        }
+        return guarded;
+    }
+
+    private ModelGuard guard(LLMProperties.Endpoint endpoint, String api) {
+        return new ModelGuard(
+                llmProperties.getModelName() + "@" + endpoint.getName(),
+                Tags.of("model", llmProperties.getModelName(), "api", api, "endpoint", endpoint.getName()),
+                llmProperties,
+                meterRegistry);
+    }
+
+    /**
+     * An HTTP client that runs on the turn executor, so streaming callbacks,
+     * tool calls and memory writes happen on virtual threads if enabled.
+     */
+    private HttpClientBuilder httpClientBuilder() {
+        HttpClient.Builder builder = HttpClient.newBuilder();
+        if (turnExecutor.executor() != null) {
+            builder.executor(turnExecutor.executor());
+        }
+        return JdkHttpClient.builder().httpClientBuilder(builder);
     }
 
     @Bean
     @Scope(SCOPE_PROTOTYPE)
-    ChatMemoryProvider chatMemoryProvider() {
-        return memoryId -> MessageWindowChatMemory.builder()
-                .id(memoryId)
-                .maxMessages(10)
-                .chatMemoryStore(chatMemoryStore)
-                .build();
+    ChatMemoryProvider chatMemoryProvider(
+            ConversationSummaryStore conversationSummaryStore, WriteBehindChatMemoryStore writeBehindChatMemoryStore) {
+        ChatMemoryProvider window = windowChatMemoryProvider();
+        if (!memoryProperties.getCompaction().isEnabled()) {
+            return window;
+        }
+        return memoryId ->
+                new CompactingChatMemory(window.get(memoryId), conversationSummaryStore, writeBehindChatMemoryStore);
+    }
+
+    private ChatMemoryProvider windowChatMemoryProvider() {
+        return switch (memoryProperties.getWindow()) {
+            case MESSAGES -> memoryId -> MessageWindowChatMemory.builder()
+                    .id(memoryId)
+                    .maxMessages(memoryProperties.getMaxMessages())
+                    .chatMemoryStore(chatMemoryStore)
+                    .build();
+            case TOKENS -> memoryId -> TokenWindowChatMemory.builder()
+                    .id(memoryId)
+                    .maxTokens(llmProperties.getContextBudget(), tokenCountEstimator)
+                    .chatMemoryStore(chatMemoryStore)
+                    .build();
+        };
     }
 
     @Bean
@@ -96,11 +221,15 @@ public class AssistantConfiguration {
     @Scope(SCOPE_PROTOTYPE)
     StreamingAssistant assistant(
             StreamingChatModel model, ChatMemoryProvider chatMemoryProvider, List<Object> toolkit) {
-        return AiServices.builder(StreamingAssistant.class)
+        AiServices<StreamingAssistant> builder = AiServices.builder(StreamingAssistant.class)
                 .streamingChatModel(model)
                 .tools(toolkit)
-                .chatMemoryProvider(chatMemoryProvider)
-                .build();
+                .chatMemoryProvider(chatMemoryProvider);
+        if (turnExecutor.executor() != null) {
+            // Tool calls requested together block one virtual thread each
+            builder.executeToolsConcurrently(turnExecutor.executor());
+        }
+        return builder.build();
     }
 
     @Bean
@@ -108,4 +237,12 @@ public class AssistantConfiguration {
     SummaryAssistant summaryAssistant(ChatModel chatModel, ChatMemoryProvider chatMemoryProvider) {
         return AiServices.builder(SummaryAssistant.class).chatModel(chatModel).build();
     }
+
+    @Bean
+    TitleAssistant titleAssistant(ChatModel chatModel) {
+        ChatModel titleModel = Objects.equals(llmProperties.getTitleModelName(), llmProperties.getModelName())
+                ? chatModel
+                : chatModel(llmProperties.getTitleModelName());
+        return AiServices.builder(TitleAssistant.class).chatModel(titleModel).build();
+    }
 }
@@ -1,19 +1,47 @@
 package dev.chatbot.aiservice;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import lombok.extern.slf4j.Slf4j;
 
+import dev.chatbot.aiservice.memory.CachingTokenCountEstimator;
+import dev.chatbot.aiservice.memory.ChatTranscriptStore;
+import dev.chatbot.aiservice.memory.TranscriptPage;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.aiservice.properties.MemoryProperties.StorageMode;
+import dev.chatbot.aiservice.properties.MemoryProperties.Window;
+import dev.chatbot.attachment.MessageAttachments;
+import dev.chatbot.codec.HistoryCodecs;
 import dev.chatbot.domain.ChatHistory;
+import dev.chatbot.domain.ChatHistoryEntry;
+import dev.chatbot.repository.ChatHistoryEntryRepository;
 import dev.chatbot.repository.ChatHistoryRepository;
 
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
 import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messageToJson;
 import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
 
 /**
@@ -22,45 +50,457 @@ import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
  * This class implements the ChatMemoryStore interface.
  * <p>
  * The class provides methods to get, update, and delete chat messages.
- * It uses the ChatHistoryRepository to interact with the database.
+ * Depending on {@link MemoryProperties#getStorage()} the messages are either
+ * kept as a single JSON blob in the ChatHistoryRepository, or as append-only
+ * rows in the ChatHistoryEntryRepository. In the append-only layout an update
+ * only inserts the messages that are not stored yet, and messages that drop
+ * out of the context window are flagged as evicted instead of being deleted.
+ * {@link #getMessages(Object)} then only reads the window, while
+ * {@link #getTranscript(Object)} reads the whole conversation. The blob layout
+ * only keeps the window, so both return the same messages there.
+ * {@link #getTranscriptPage(Object, Set, Long, int)} seeks on the entries'
+ * sequence, which is also the position handed out to read the next page.
+ * {@link #forEachTranscriptMessage(Object, Set, Consumer)} streams the
+ * transcript in batches of entries, or element by element from a blob.
+ * <p>
+ * Messages are stored encoded by {@link HistoryCodecs}. Rows still holding
+ * legacy JSON are read as they are and re-encoded the next time they are
+ * written.
+ * <p>
+ * In the append-only layout the store remembers the sequences of the window
+ * it last read or wrote for a conversation, so the single write of a turn
+ * compares the new messages with the window in memory and doesn't read the
+ * entries again. A write forgets the window until it has committed. If
+ * another node appended in the meantime, the insert collides with its
+ * sequences; the write is then retried once in a new transaction, reading
+ * the window and the next sequence from the database.
  * <p>
+ * When the context window is measured in tokens, appended entries also store
+ * their token count, which is handed to the {@link CachingTokenCountEstimator}
+ * when they are loaded, so messages are tokenized only once.
+ * <p>
+ * Media are never stored inline: {@link MessageAttachments} moves them to the
+ * attachment store before messages are written, and inlines them again when
+ * the context window is read for the model. Transcripts keep the references.
  *
  * @author zhoumo
  */
 @Slf4j
 @Component
-public class PersistentChatMemoryStore implements ChatMemoryStore {
+public class PersistentChatMemoryStore implements ChatMemoryStore, ChatTranscriptStore {
+
+    /**
+     * The JSON field holding the data of inline media.
+     */
+    private static final String INLINE_MEDIA = "\"base64Data\"";
+
+    /**
+     * The number of entries read at a time when streaming a transcript.
+     */
+    private static final int STREAM_BATCH_SIZE = 100;
 
     private final ChatHistoryRepository chatHistoryRepository;
 
-    public PersistentChatMemoryStore(ChatHistoryRepository chatHistoryRepository) {
+    private final ChatHistoryEntryRepository chatHistoryEntryRepository;
+
+    private final MemoryProperties memoryProperties;
+
+    private final HistoryCodecs historyCodecs;
+
+    private final CachingTokenCountEstimator tokenCountEstimator;
+
+    private final MessageAttachments messageAttachments;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Cache<UUID, StoredWindow> windows;
+
+    public PersistentChatMemoryStore(
+            ChatHistoryRepository chatHistoryRepository,
+            ChatHistoryEntryRepository chatHistoryEntryRepository,
+            MemoryProperties memoryProperties,
+            HistoryCodecs historyCodecs,
+            CachingTokenCountEstimator tokenCountEstimator,
+            MessageAttachments messageAttachments,
+            PlatformTransactionManager transactionManager) {
         this.chatHistoryRepository = chatHistoryRepository;
+        this.chatHistoryEntryRepository = chatHistoryEntryRepository;
+        this.memoryProperties = memoryProperties;
+        this.historyCodecs = historyCodecs;
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.messageAttachments = messageAttachments;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.windows = memoryProperties.getStorage() == StorageMode.APPEND
+                        && memoryProperties.getCache().isEnabled()
+                ? Caffeine.newBuilder()
+                        .maximumSize(memoryProperties.getCache().getMaximumSize())
+                        .build()
+                : null;
     }
 
     @Override
     public List<ChatMessage> getMessages(Object memoryId) {
-        Optional<ChatHistory> chatHistory = chatHistoryRepository.findById((UUID) memoryId);
+        return readMessages((UUID) memoryId, true);
+    }
+
+    @Override
+    public List<ChatMessage> getTranscript(Object memoryId) {
+        return readMessages((UUID) memoryId, false);
+    }
+
+    @Override
+    public void forEachTranscriptMessage(Object memoryId, Set<ChatMessageType> types, Consumer<ChatMessage> action) {
+        UUID conversationId = (UUID) memoryId;
+        if (memoryProperties.getStorage() == StorageMode.APPEND) {
+            long after = -1;
+            boolean found = false;
+            List<ChatHistoryEntryRepository.EntryPayload> batch;
+            do {
+                batch = chatHistoryEntryRepository.findByConversationIdAndTypeInAndSeqGreaterThanOrderBySeqAsc(
+                        conversationId, types, after, Limit.of(STREAM_BATCH_SIZE));
+                for (ChatHistoryEntryRepository.EntryPayload entry : batch) {
+                    action.accept(messageFromJson(historyCodecs.read(entry.getMessage(), entry.getPayload())));
+                    after = entry.getSeq();
+                    found = true;
+                }
+            } while (batch.size() == STREAM_BATCH_SIZE);
+            if (found || chatHistoryEntryRepository.findMaxSeq(conversationId) != null) {
+                return;
+            }
+        }
+        chatHistoryRepository
+                .findById(conversationId)
+                .ifPresent(chatHistory ->
+                        historyCodecs.forEachElement(chatHistory.getMessage(), chatHistory.getPayload(), json -> {
+                            ChatMessage message = messageFromJson(json);
+                            if (types.contains(message.type())) {
+                                action.accept(message);
+                            }
+                        }));
+    }
+
+    @Override
+    public TranscriptPage getTranscriptPage(Object memoryId, Set<ChatMessageType> types, Long before, int limit) {
+        UUID conversationId = (UUID) memoryId;
+        long end = before != null ? before : Long.MAX_VALUE;
+        if (memoryProperties.getStorage() == StorageMode.APPEND) {
+            List<ChatHistoryEntry> entries =
+                    chatHistoryEntryRepository.findByConversationIdAndTypeInAndSeqLessThanOrderBySeqDesc(
+                            conversationId, types, end, Limit.of(limit + 1));
+            if (!entries.isEmpty() || chatHistoryEntryRepository.findMaxSeq(conversationId) != null) {
+                List<ChatHistoryEntry> page = entries.subList(0, Math.min(limit, entries.size()));
+                return new TranscriptPage(
+                        page.reversed().stream()
+                                .map(entry -> readEntry(entry, false))
+                                .toList(),
+                        entries.size() > limit ? page.getLast().getSeq() : null);
+            }
+        }
+        // The blob holds the whole list, positions are its indexes
+        List<ChatMessage> transcript = readMessages(conversationId, false);
+        List<Integer> positions = IntStream.range(0, (int) Math.min(end, transcript.size()))
+                .filter(i -> types.contains(transcript.get(i).type()))
+                .boxed()
+                .toList();
+        int from = Math.max(positions.size() - limit, 0);
+        return new TranscriptPage(
+                positions.subList(from, positions.size()).stream()
+                        .map(transcript::get)
+                        .toList(),
+                from > 0 ? (long) positions.get(from) : null);
+    }
+
+    private List<ChatMessage> readMessages(UUID memoryId, boolean window) {
+        if (memoryProperties.getStorage() == StorageMode.APPEND) {
+            List<ChatHistoryEntry> entries = window
+                    ? chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(memoryId)
+                    : chatHistoryEntryRepository.findByConversationIdOrderBySeqAsc(memoryId);
+            if (!entries.isEmpty()) {
+                List<ChatMessage> messages = new ArrayList<>(entries.size());
+                boolean current = true;
+                for (ChatHistoryEntry entry : entries) {
+                    String json = historyCodecs.read(entry.getMessage(), entry.getPayload());
+                    current &= entry.getPayload() != null && !json.contains(INLINE_MEDIA);
+                    messages.add(readEntry(entry, json, window));
+                }
+                if (window && current) {
+                    // Outdated entries are rewritten by the next write, which reads them again
+                    rememberRead(
+                            memoryId,
+                            new StoredWindow(
+                                    entries.stream()
+                                            .map(ChatHistoryEntry::getSeq)
+                                            .toList(),
+                                    List.copyOf(messages),
+                                    entries.getLast().getSeq() + 1));
+                }
+                return messages;
+            }
+            // Conversations written before the append-only layout was enabled are
+            // still read from their blob; the first update moves them over.
+        }
+        Optional<ChatHistory> chatHistory = chatHistoryRepository.findById(memoryId);
         if (chatHistory.isEmpty()) {
+            if (window && windows != null) {
+                rememberRead(memoryId, new StoredWindow(List.of(), List.of(), nextSeq(memoryId)));
+            }
             return List.of();
         }
-        return messagesFromJson(chatHistory.get().getMessage());
+        List<ChatMessage> messages = messagesFromJson(historyCodecs.read(
+                chatHistory.get().getMessage(), chatHistory.get().getPayload()));
+        return window ? messages.stream().map(messageAttachments::rehydrate).toList() : messages;
     }
 
     @Override
     public void updateMessages(Object memoryId, List<ChatMessage> messages) {
-        String chatMessages = messagesToJson(messages);
+        if (memoryProperties.getStorage() == StorageMode.APPEND) {
+            UUID conversationId = (UUID) memoryId;
+            try {
+                transactionTemplate.executeWithoutResult(status -> appendMessages(conversationId, messages));
+            } catch (DataIntegrityViolationException e) {
+                // Another node appended since the window was read; the failed
+                // write forgot it, so this attempt reads it from the database.
+                log.debug("Sequence of conversation {} taken by another writer, retrying", conversationId);
+                transactionTemplate.executeWithoutResult(status -> appendMessages(conversationId, messages));
+            }
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> updateHistory((UUID) memoryId, messages));
+    }
+
+    /**
+     * Persist the message list in the blob layout, rewriting the single row.
+     *
+     * @param conversationId the conversation id
+     * @param messages the current messages of the memory
+     */
+    private void updateHistory(UUID conversationId, List<ChatMessage> messages) {
+        List<ChatMessage> externalized =
+                messages.stream().map(messageAttachments::externalize).toList();
+        externalized.forEach(message -> messageAttachments.link(conversationId, message));
+        String chatMessages = messagesToJson(externalized);
         ChatHistory chatHistory = chatHistoryRepository
-                .findById((UUID) memoryId)
-                .orElseGet(() -> ChatHistory.builder()
-                        .id((UUID) memoryId)
-                        .archived(false)
-                        .build());
-        chatHistory.setMessage(chatMessages);
+                .findById(conversationId)
+                .orElseGet(() ->
+                        ChatHistory.builder().id(conversationId).archived(false).build());
+        chatHistory.setMessage(null);
+        chatHistory.setPayload(historyCodecs.encode(chatMessages));
         chatHistoryRepository.save(chatHistory);
     }
 
     @Override
+    @Transactional
     public void deleteMessages(Object memoryId) {
+        if (memoryProperties.getStorage() == StorageMode.APPEND) {
+            forget((UUID) memoryId);
+            chatHistoryEntryRepository.deleteByConversationId((UUID) memoryId);
+        }
         chatHistoryRepository.deleteById((UUID) memoryId);
     }
+
+    private ChatMessage readEntry(ChatHistoryEntry entry, boolean window) {
+        return readEntry(entry, historyCodecs.read(entry.getMessage(), entry.getPayload()), window);
+    }
+
+    private ChatMessage readEntry(ChatHistoryEntry entry, String json, boolean window) {
+        ChatMessage message = messageFromJson(json);
+        if (window) {
+            message = messageAttachments.rehydrate(message);
+        }
+        if (entry.getTokenCount() != null) {
+            tokenCountEstimator.remember(message, entry.getTokenCount());
+        }
+        return message;
+    }
+
+    /**
+     * Persist the message list in the append-only layout.
+     * The message list is compared with the stored context window only: window
+     * entries the memory no longer holds are evicted, and only the messages
+     * after the last stored one are inserted. The window remembered from the
+     * last read or write is compared without reading the entries; otherwise
+     * they are read, and kept entries that still hold legacy JSON or inline
+     * media are rewritten along the way.
+     *
+     * @param conversationId the conversation id
+     * @param messages the current messages of the memory
+     */
+    private void appendMessages(UUID conversationId, List<ChatMessage> messages) {
+        StoredWindow window = windows == null ? null : windows.getIfPresent(conversationId);
+        forget(conversationId);
+        List<Long> seqs;
+        Tail tail;
+        long seq;
+        if (window != null) {
+            seqs = window.seqs();
+            tail = tail(window.messages(), messages);
+            seq = window.nextSeq();
+        } else {
+            List<ChatHistoryEntry> entries =
+                    chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId);
+            seqs = entries.stream().map(ChatHistoryEntry::getSeq).toList();
+            tail = readTail(entries, messages);
+            seq = entries.isEmpty()
+                    ? nextSeq(conversationId)
+                    : entries.getLast().getSeq() + 1;
+        }
+
+        if (!tail.removed().isEmpty()) {
+            chatHistoryEntryRepository.evictEntries(
+                    conversationId, tail.removed().stream().map(seqs::get).toList());
+        }
+
+        boolean countTokens = memoryProperties.getWindow() == Window.TOKENS;
+        List<Long> windowSeqs = new ArrayList<>(messages.size());
+        for (int i = 0; i < seqs.size(); i++) {
+            if (!tail.removed().contains(i)) {
+                windowSeqs.add(seqs.get(i));
+            }
+        }
+        List<ChatHistoryEntry> appended = new ArrayList<>();
+        for (int i = tail.from(); i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            ChatMessage externalized = messageAttachments.externalize(message);
+            messageAttachments.link(conversationId, externalized);
+            windowSeqs.add(seq);
+            appended.add(ChatHistoryEntry.builder()
+                    .conversationId(conversationId)
+                    .seq(seq++)
+                    .type(message.type())
+                    .payload(historyCodecs.encode(messageToJson(externalized)))
+                    .tokenCount(countTokens ? tokenCountEstimator.estimateTokenCountInMessage(message) : null)
+                    .build());
+        }
+        if (!appended.isEmpty()) {
+            chatHistoryEntryRepository.saveAll(appended);
+        }
+        rememberWrite(conversationId, new StoredWindow(windowSeqs, List.copyOf(messages), seq));
+        log.debug(
+                "Appended {} and evicted {} chat history entries of {}",
+                appended.size(),
+                tail.removed().size(),
+                conversationId);
+    }
+
+    /**
+     * Compare the stored window entries with the current messages, and
+     * rewrite the kept entries that hold legacy JSON or inline media.
+     *
+     * @param entries the stored window entries, in order
+     * @param messages the current messages of the memory
+     * @return the stored indexes to remove and the first current index to append
+     */
+    private Tail readTail(List<ChatHistoryEntry> entries, List<ChatMessage> messages) {
+        List<String> stored = new ArrayList<>();
+        Set<Integer> outdated = new HashSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ChatHistoryEntry entry = entries.get(i);
+            String json = historyCodecs.read(entry.getMessage(), entry.getPayload());
+            if (json.contains(INLINE_MEDIA)) {
+                // stored before media were moved to the attachment store
+                ChatMessage externalized = messageAttachments.externalize(messageFromJson(json));
+                messageAttachments.link(entry.getConversationId(), externalized);
+                json = messageToJson(externalized);
+                outdated.add(i);
+            } else if (entry.getPayload() == null) {
+                outdated.add(i);
+            }
+            stored.add(json);
+        }
+        List<String> current = messages.stream()
+                .map(messageAttachments::externalize)
+                .map(m -> messageToJson(m))
+                .toList();
+
+        Tail tail = tail(stored, current);
+        for (int i : outdated) {
+            if (!tail.removed().contains(i)) {
+                // managed entity, rewritten on flush
+                ChatHistoryEntry entry = entries.get(i);
+                entry.setPayload(historyCodecs.encode(stored.get(i)));
+                entry.setMessage(null);
+            }
+        }
+        return tail;
+    }
+
+    private void rememberRead(UUID conversationId, StoredWindow window) {
+        if (windows != null) {
+            // A write that committed meanwhile remembered a newer window
+            windows.asMap().putIfAbsent(conversationId, window);
+        }
+    }
+
+    private void rememberWrite(UUID conversationId, StoredWindow window) {
+        if (windows == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    windows.put(conversationId, window);
+                }
+            });
+        } else {
+            windows.put(conversationId, window);
+        }
+    }
+
+    private void forget(UUID conversationId) {
+        if (windows != null) {
+            windows.invalidate(conversationId);
+        }
+    }
+
+    /**
+     * The sequence of the next entry of a conversation whose context window is
+     * empty. Evicted entries keep their sequence, so numbering continues after
+     * them.
+     *
+     * @param conversationId the conversation id
+     * @return the next sequence
+     */
+    private long nextSeq(UUID conversationId) {
+        Long max = chatHistoryEntryRepository.findMaxSeq(conversationId);
+        return max == null ? 0 : max + 1;
+    }
+
+    /**
+     * Compare the stored messages with the current ones.
+     * The memory only ever drops messages from the front (eviction) and adds
+     * messages at the end, so the current list is a subsequence of the stored
+     * one followed by the new tail.
+     *
+     * @param stored the stored messages, in order
+     * @param current the current messages, in order
+     * @return the stored indexes to remove and the first current index to append
+     */
+    static <T> Tail tail(List<T> stored, List<T> current) {
+        List<Integer> removed = new ArrayList<>();
+        int s = 0;
+        int c = 0;
+        for (; c < current.size(); c++) {
+            int match = stored.subList(s, stored.size()).indexOf(current.get(c));
+            if (match < 0) {
+                break;
+            }
+            for (int i = s; i < s + match; i++) {
+                removed.add(i);
+            }
+            s += match + 1;
+        }
+        for (int i = s; i < stored.size(); i++) {
+            removed.add(i);
+        }
+        return new Tail(removed, c);
+    }
+
+    record Tail(List<Integer> removed, int from) {}
+
+    /**
+     * The context window of a conversation as it is stored: the sequences of
+     * its entries, their messages, and the sequence of the next entry.
+     */
+    private record StoredWindow(List<Long> seqs, List<ChatMessage> messages, long nextSeq) {}
 }
@@ -2,9 +2,18 @@ package dev.chatbot.aiservice;
 
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.V;
 
 public interface SummaryAssistant {
 
-    @SystemMessage(fromResource = "prompts/summarize_assistant_prompt.txt")
-    String summarize(@UserMessage String conversation);
+    @SystemMessage(fromResource = "prompts/compact_assistant_prompt.txt")
+    @UserMessage(
+            """
+            Current summary:
+            {{summary}}
+
+            Turns being removed:
+            {{turns}}
+            """)
+    String compact(@V("summary") String summary, @V("turns") String turns);
 }
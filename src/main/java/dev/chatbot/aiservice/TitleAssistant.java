@@ -0,0 +1,10 @@
+package dev.chatbot.aiservice;
+
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+
+public interface TitleAssistant {
+
+    @SystemMessage(fromResource = "prompts/summarize_assistant_prompt.txt")
+    String summarize(@UserMessage String conversation);
+}
@@ -0,0 +1,62 @@
+package dev.chatbot.aiservice.cache;
+
+import java.util.Optional;
+import java.util.Set;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+/**
+ * CachingChatModel answers requests from an {@link ExactResponseCache} and
+ * caches the responses of the model.
+ *
+ * @author zhoumo
+ */
+public class CachingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final ExactResponseCache cache;
+
+    public CachingChatModel(ChatModel delegate, ExactResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest chatRequest) {
+        return chat(chatRequest, null);
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest chatRequest, ChatRequestOptions options) {
+        String key = cache.key(chatRequest, delegate.defaultRequestParameters());
+        Optional<ChatResponse> cached = cache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        ChatResponse response = options == null ? delegate.chat(chatRequest) : delegate.chat(chatRequest, options);
+        cache.put(key, response);
+        return response;
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
@@ -0,0 +1,135 @@
+package dev.chatbot.aiservice.cache;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialThinkingContext;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+
+import dev.chatbot.aiservice.resilience.ForwardingHandler;
+
+/**
+ * CachingStreamingChatModel answers requests from an
+ * {@link ExactResponseCache} and caches the responses the model streamed to
+ * completion. A cached response is streamed at once: its thinking, its text
+ * and its tool calls, each as one event.
+ *
+ * @author zhoumo
+ */
+public class CachingStreamingChatModel implements StreamingChatModel {
+
+    private final StreamingChatModel delegate;
+
+    private final ExactResponseCache cache;
+
+    public CachingStreamingChatModel(StreamingChatModel delegate, ExactResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        chat(chatRequest, null, handler);
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, ChatRequestOptions options, StreamingChatResponseHandler handler) {
+        String key = cache.key(chatRequest, delegate.defaultRequestParameters());
+        Optional<ChatResponse> cached = cache.get(key);
+        if (cached.isPresent()) {
+            replay(cached.get(), handler);
+            return;
+        }
+        StreamingChatResponseHandler cachingHandler = key == null ? handler : new CachingHandler(handler, key);
+        if (options == null) {
+            delegate.chat(chatRequest, cachingHandler);
+        } else {
+            delegate.chat(chatRequest, options, cachingHandler);
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+
+    private static void replay(ChatResponse response, StreamingChatResponseHandler handler) {
+        ReplayHandle handle = new ReplayHandle();
+        AiMessage aiMessage = response.aiMessage();
+        if (aiMessage.thinking() != null && !aiMessage.thinking().isEmpty()) {
+            handler.onPartialThinking(new PartialThinking(aiMessage.thinking()), new PartialThinkingContext(handle));
+        }
+        if (aiMessage.text() != null && !aiMessage.text().isEmpty() && !handle.isCancelled()) {
+            handler.onPartialResponse(new PartialResponse(aiMessage.text()), new PartialResponseContext(handle));
+        }
+        if (handle.isCancelled()) {
+            return;
+        }
+        List<ToolExecutionRequest> requests = aiMessage.toolExecutionRequests();
+        for (int index = 0; index < requests.size(); index++) {
+            handler.onCompleteToolCall(new CompleteToolCall(index, requests.get(index)));
+        }
+        handler.onCompleteResponse(response);
+    }
+
+    /**
+     * A handle that stops the replay of a cached response.
+     */
+    private static final class ReplayHandle implements StreamingHandle {
+
+        private volatile boolean cancelled;
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Caches the response once it is complete.
+     */
+    private final class CachingHandler extends ForwardingHandler {
+
+        private final String key;
+
+        CachingHandler(StreamingChatResponseHandler handler, String key) {
+            super(handler);
+            this.key = key;
+        }
+
+        @Override
+        protected void onComplete(ChatResponse completeResponse) {
+            cache.put(key, completeResponse);
+        }
+    }
+}
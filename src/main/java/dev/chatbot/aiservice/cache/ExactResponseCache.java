@@ -0,0 +1,335 @@
+package dev.chatbot.aiservice.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messageToJson;
+
+/**
+ * ExactResponseCache keeps the responses of the model, so a request that is
+ * identical to an earlier one is answered without the model.
+ * <p>
+ * Requests are identified by a hash of the model name, the sampling
+ * parameters, the tool specifications and the messages. Texts are compared
+ * without surrounding whitespace, and tool calls without their ids, which
+ * differ on every call. Only requests sampled at up to
+ * {@link LLMProperties.ResponseCache#getMaxTemperature()} are cached.
+ * <p>
+ * The cache is bounded by the estimated size of the responses, and responses
+ * expire {@link LLMProperties.ResponseCache#getTtl()} after they were
+ * generated. They are saved to {@link LLMProperties.ResponseCache#getFile()}
+ * periodically and on shutdown, and loaded on startup. Hit, miss and eviction
+ * counts are published as "llm.responses" cache metrics.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class ExactResponseCache {
+
+    private static final String CACHE_NAME = "llm.responses";
+
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Rough fixed cost of an entry besides its response.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final LLMProperties.ResponseCache properties;
+
+    private final Cache<String, Entry> cache;
+
+    private final Path file;
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    private final ScheduledExecutorService scheduler;
+
+    public ExactResponseCache(LLMProperties llmProperties, MeterRegistry meterRegistry) {
+        this.properties = llmProperties.getResponseCache();
+        if (!properties.isEnabled()) {
+            this.cache = null;
+            this.file = null;
+            this.scheduler = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxSize().toBytes())
+                .weigher((String key, Entry entry) -> entry.weight())
+                .expireAfter(Expiry.creating((String key, Entry entry) -> remaining(entry)))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        if (properties.getFile() == null || properties.getFile().isBlank()) {
+            this.file = null;
+            this.scheduler = null;
+            return;
+        }
+        this.file = Path.of(properties.getFile());
+        load();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("response-cache-save").daemon().factory());
+        long period = properties.getSaveInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::save, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The key of a request.
+     *
+     * @param chatRequest the request
+     * @param defaults the default parameters of the model, which the request
+     *     overrides
+     * @return the key, or null if the request is not cached
+     */
+    public String key(ChatRequest chatRequest, ChatRequestParameters defaults) {
+        if (cache == null) {
+            return null;
+        }
+        ChatRequestParameters parameters =
+                defaults == null ? chatRequest.parameters() : defaults.overrideWith(chatRequest.parameters());
+        if (parameters.temperature() == null || parameters.temperature() > properties.getMaxTemperature()) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        update(digest, parameters.modelName());
+        update(digest, parameters.temperature());
+        update(digest, parameters.topP());
+        update(digest, parameters.topK());
+        update(digest, parameters.frequencyPenalty());
+        update(digest, parameters.presencePenalty());
+        update(digest, parameters.maxOutputTokens());
+        update(digest, parameters.stopSequences());
+        update(digest, parameters.toolChoice());
+        update(digest, parameters.responseFormat());
+        List<ToolSpecification> toolSpecifications = parameters.toolSpecifications();
+        if (toolSpecifications != null) {
+            for (ToolSpecification toolSpecification : toolSpecifications) {
+                update(digest, toolSpecification);
+            }
+        }
+        for (ChatMessage message : chatRequest.messages()) {
+            update(digest, normalize(message));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public Optional<ChatResponse> get(String key) {
+        if (cache == null || key == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(key)).map(Entry::response);
+    }
+
+    public void put(String key, ChatResponse response) {
+        if (cache == null || key == null || response.aiMessage() == null) {
+            return;
+        }
+        FinishReason finishReason = response.finishReason();
+        cache.put(
+                key,
+                new Entry(
+                        messageToJson(response.aiMessage()),
+                        finishReason == null ? null : finishReason.name(),
+                        System.currentTimeMillis()));
+        dirty.set(true);
+    }
+
+    /**
+     * Save the responses to the file, if they changed.
+     */
+    void save() {
+        if (file == null || !dirty.getAndSet(false)) {
+            return;
+        }
+        saveLock.lock();
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            int saved = 0;
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(FILE_VERSION);
+                for (Map.Entry<String, Entry> entry : cache.asMap().entrySet()) {
+                    out.writeBoolean(true);
+                    write(out, entry.getKey());
+                    write(out, entry.getValue().aiMessage());
+                    write(out, Objects.requireNonNullElse(entry.getValue().finishReason(), ""));
+                    out.writeLong(entry.getValue().createdAt());
+                    saved++;
+                }
+                out.writeBoolean(false);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} cached responses to {}", saved, file);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("Failed to save cached responses to {}", file, e);
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int loaded = 0;
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FILE_VERSION) {
+                log.info("Ignoring cached responses of an older version in {}", file);
+                return;
+            }
+            while (in.readBoolean()) {
+                String key = read(in);
+                String aiMessage = read(in);
+                String finishReason = read(in);
+                Entry entry = new Entry(aiMessage, finishReason.isEmpty() ? null : finishReason, in.readLong());
+                if (remaining(entry).isPositive()) {
+                    cache.put(key, entry);
+                    loaded++;
+                }
+            }
+            log.info("Loaded {} cached responses from {}", loaded, file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to load cached responses from {}, kept {}", file, loaded, e);
+        }
+    }
+
+    private Duration remaining(Entry entry) {
+        return properties.getTtl().minusMillis(System.currentTimeMillis() - entry.createdAt());
+    }
+
+    /**
+     * The parts of a message that determine the response.
+     */
+    private static String normalize(ChatMessage message) {
+        return switch (message) {
+            case SystemMessage systemMessage -> "system:" + normalize(systemMessage.text());
+            case UserMessage userMessage -> userMessage.hasSingleText()
+                    ? "user:" + userMessage.name() + ":" + normalize(userMessage.singleText())
+                    : messageToJson(userMessage);
+            case AiMessage aiMessage -> {
+                StringBuilder builder = new StringBuilder("ai:").append(normalize(aiMessage.text()));
+                for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                    builder.append(":tool:").append(request.name()).append(":").append(request.arguments());
+                }
+                yield builder.toString();
+            }
+            case ToolExecutionResultMessage result -> "tool:" + result.toolName() + ":" + normalize(result.text());
+            default -> messageToJson(message);
+        };
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.strip().replace("\r\n", "\n");
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        // Prefix the length, so values can't run into each other
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String read(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Entry is a cached response.
+     *
+     * @param aiMessage the message of the response as JSON
+     * @param finishReason the finish reason of the response, or null
+     * @param createdAt when the response was generated, in epoch millis
+     */
+    private record Entry(String aiMessage, String finishReason, long createdAt) {
+
+        ChatResponse response() {
+            return ChatResponse.builder()
+                    .aiMessage((AiMessage) messageFromJson(aiMessage))
+                    .finishReason(finishReason == null ? null : FinishReason.valueOf(finishReason))
+                    .build();
+        }
+
+        int weight() {
+            return ENTRY_OVERHEAD + 2 * aiMessage.length();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package dev.chatbot.aiservice.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+
+/**
+ * SemanticResponseCache answers a question with the answer to a similar
+ * recent question, so common first questions don't reach the model.
+ * <p>
+ * Only turns without context are cached: the conversation may hold no more
+ * than {@link AssistantProperties.SemanticCache#getPrefixMessages()} earlier
+ * messages, which are embedded with the question. A cached answer is used if
+ * its question is at least
+ * {@link AssistantProperties.SemanticCache#getSimilarityThreshold()} similar
+ * and it is younger than {@link AssistantProperties.SemanticCache#getTtl()}.
+ * Answers that called tools are not cached, as they depend on more than the
+ * question.
+ * <p>
+ * Lookups are counted in "assistant.semantic.cache.requests", tagged with the
+ * result: "hit", "miss", "skipped" for turns that can't be cached, or
+ * "error" if the question couldn't be embedded. The generation time a hit
+ * saves is recorded in "assistant.semantic.cache.saved", and the number of
+ * cached answers is published as "assistant.semantic.cache.size".
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class SemanticResponseCache {
+
+    /**
+     * Hash tables and bits per table of the index, which find questions within
+     * about 20 degrees, i.e. a similarity above 0.94, almost always.
+     */
+    private static final int INDEX_TABLES = 8;
+
+    private static final int INDEX_BITS = 12;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final AssistantProperties.SemanticCache properties;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final VectorIndex<Entry> index = new VectorIndex<>(INDEX_TABLES, INDEX_BITS, 42);
+
+    /**
+     * The cached answers, oldest first.
+     */
+    private final ArrayDeque<VectorIndex.Item<Entry>> entries = new ArrayDeque<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer saved;
+
+    public SemanticResponseCache(
+            EmbeddingModel embeddingModel, AssistantProperties assistantProperties, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.properties = assistantProperties.getSemanticCache();
+        this.meterRegistry = meterRegistry;
+        this.saved = Timer.builder("assistant.semantic.cache.saved")
+                .description("Generation time saved by answers from the semantic cache")
+                .register(meterRegistry);
+        Gauge.builder("assistant.semantic.cache.size", this, SemanticResponseCache::size)
+                .description("Answers in the semantic cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Look up the answer to a question. Blocks while the question is embedded.
+     *
+     * @param owner the owner of the conversation
+     * @param memory reads the earlier messages of the conversation, if needed
+     * @param question the question
+     * @return the lookup, which holds the cached answer or stores the new one
+     */
+    public Lookup lookup(String owner, Supplier<List<ChatMessage>> memory, String question) {
+        if (!properties.isEnabled() || properties.getOptOutOwners().contains(owner)) {
+            return Lookup.NONE;
+        }
+        String text = text(memory.get(), question);
+        if (text == null) {
+            count("skipped");
+            return Lookup.NONE;
+        }
+        long startedAt = System.nanoTime();
+        float[] vector;
+        try {
+            vector = embeddingModel.embed(text).content().vector();
+        } catch (RuntimeException e) {
+            log.warn("Failed to embed a question for the semantic cache", e);
+            count("error");
+            return Lookup.NONE;
+        }
+        Entry hit = nearest(vector.clone());
+        if (hit == null) {
+            count("miss");
+            return new Lookup(this, vector, null, startedAt);
+        }
+        count("hit");
+        saved.record(Math.max(hit.generationNanos - (System.nanoTime() - startedAt), 0), TimeUnit.NANOSECONDS);
+        return new Lookup(this, null, hit.answer, startedAt);
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry nearest(float[] vector) {
+        lock.lock();
+        try {
+            VectorIndex.Match<Entry> match = index.nearest(vector);
+            if (match == null
+                    || match.similarity() < properties.getSimilarityThreshold()
+                    || isExpired(match.item().value(), System.nanoTime())) {
+                return null;
+            }
+            return match.item().value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(float[] vector, String answer, long generationNanos) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            while (!entries.isEmpty()
+                    && (entries.size() >= properties.getMaxEntries()
+                            || isExpired(entries.peekFirst().value(), now))) {
+                index.remove(entries.pollFirst());
+            }
+            if (properties.getMaxEntries() <= 0) {
+                return;
+            }
+            VectorIndex.Match<Entry> match = index.nearest(vector.clone());
+            if (match != null && match.similarity() >= properties.getSimilarityThreshold()) {
+                // A concurrent turn cached the same question
+                return;
+            }
+            entries.addLast(index.add(vector, new Entry(answer, now, generationNanos)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdAt >= properties.getTtl().toNanos();
+    }
+
+    private void count(String result) {
+        Counter.builder("assistant.semantic.cache.requests")
+                .description("Lookups in the semantic cache")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * The text that is embedded for a question: the question alone, or
+     * preceded by the earlier messages of the conversation.
+     *
+     * @return the text, or null if the turn can't be cached
+     */
+    private String text(List<ChatMessage> messages, String question) {
+        List<String> lines = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage) {
+                continue;
+            }
+            if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+                lines.add("User: " + userMessage.singleText());
+            } else if (message instanceof AiMessage aiMessage
+                    && !aiMessage.hasToolExecutionRequests()
+                    && aiMessage.text() != null) {
+                lines.add("Assistant: " + aiMessage.text());
+            } else {
+                return null;
+            }
+        }
+        if (lines.size() > properties.getPrefixMessages()) {
+            return null;
+        }
+        if (lines.isEmpty()) {
+            return question.strip();
+        }
+        lines.add("User: " + question.strip());
+        return String.join("\n", lines);
+    }
+
+    private record Entry(String answer, long createdAt, long generationNanos) {}
+
+    /**
+     * Lookup is the result of looking up a question.
+     */
+    public static final class Lookup {
+
+        static final Lookup NONE = new Lookup(null, null, null, 0);
+
+        private final SemanticResponseCache cache;
+
+        private final float[] vector;
+
+        private final String answer;
+
+        private final long startedAt;
+
+        private Lookup(SemanticResponseCache cache, float[] vector, String answer, long startedAt) {
+            this.cache = cache;
+            this.vector = vector;
+            this.answer = answer;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * @return the cached answer, if any
+         */
+        public Optional<String> answer() {
+            return Optional.ofNullable(answer);
+        }
+
+        /**
+         * Cache the answer the model generated after a miss; does nothing
+         * otherwise.
+         *
+         * @param answer the answer
+         */
+        public void store(String answer) {
+            if (vector != null && answer != null && !answer.isBlank()) {
+                cache.store(vector, answer, System.nanoTime() - startedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package dev.chatbot.aiservice.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * VectorIndex finds the stored vector most similar to a query, by cosine
+ * similarity, without comparing the query to every stored vector.
+ * <p>
+ * It is a locality-sensitive hash: every table hashes a vector to the side of
+ * {@code bits} random hyperplanes it lies on, so similar vectors mostly share a
+ * bucket. A query is compared to the vectors in its bucket of every table and
+ * in the buckets one bit away, which finds vectors within about 20 degrees of
+ * the query almost always.
+ * <p>
+ * The index is not thread-safe.
+ *
+ * @param <V> the values stored with the vectors
+ * @author zhoumo
+ */
+final class VectorIndex<V> {
+
+    record Item<V>(float[] vector, V value) {}
+
+    record Match<V>(Item<V> item, double similarity) {}
+
+    private final int tables;
+
+    private final int bits;
+
+    private final long seed;
+
+    private final List<Map<Integer, List<Item<V>>>> buckets = new ArrayList<>();
+
+    private float[][][] planes;
+
+    private int size;
+
+    VectorIndex(int tables, int bits, long seed) {
+        if (bits < 1 || bits > 31) {
+            throw new IllegalArgumentException("bits must be between 1 and 31");
+        }
+        this.tables = tables;
+        this.bits = bits;
+        this.seed = seed;
+        for (int table = 0; table < tables; table++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Add a vector, which is normalized in place.
+     */
+    Item<V> add(float[] vector, V value) {
+        normalize(vector);
+        Item<V> item = new Item<>(vector, value);
+        for (int table = 0; table < tables; table++) {
+            buckets.get(table)
+                    .computeIfAbsent(hash(table, vector), key -> new ArrayList<>(1))
+                    .add(item);
+        }
+        size++;
+        return item;
+    }
+
+    void remove(Item<V> item) {
+        boolean removed = false;
+        for (int table = 0; table < tables; table++) {
+            int key = hash(table, item.vector());
+            List<Item<V>> bucket = buckets.get(table).get(key);
+            if (bucket != null && bucket.remove(item)) {
+                removed = true;
+                if (bucket.isEmpty()) {
+                    buckets.get(table).remove(key);
+                }
+            }
+        }
+        if (removed) {
+            size--;
+        }
+    }
+
+    /**
+     * Find the most similar vector, normalizing the query in place.
+     *
+     * @return the match, or null if no vector shares a bucket with the query
+     */
+    Match<V> nearest(float[] query) {
+        if (size == 0) {
+            return null;
+        }
+        normalize(query);
+        Item<V> best = null;
+        double bestSimilarity = Double.NEGATIVE_INFINITY;
+        for (int table = 0; table < tables; table++) {
+            int key = hash(table, query);
+            for (int flip = -1; flip < bits; flip++) {
+                List<Item<V>> bucket = buckets.get(table).get(flip < 0 ? key : key ^ (1 << flip));
+                if (bucket == null) {
+                    continue;
+                }
+                for (Item<V> item : bucket) {
+                    if (item == best) {
+                        continue;
+                    }
+                    double similarity = dot(query, item.vector());
+                    if (similarity > bestSimilarity) {
+                        best = item;
+                        bestSimilarity = similarity;
+                    }
+                }
+            }
+        }
+        return best == null ? null : new Match<>(best, bestSimilarity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int hash(int table, float[] vector) {
+        if (planes == null) {
+            planes = planes(vector.length);
+        } else if (planes[0][0].length != vector.length) {
+            throw new IllegalArgumentException(
+                    "Expected vectors of dimension " + planes[0][0].length + " but got " + vector.length);
+        }
+        int hash = 0;
+        for (int bit = 0; bit < bits; bit++) {
+            if (dot(planes[table][bit], vector) >= 0) {
+                hash |= 1 << bit;
+            }
+        }
+        return hash;
+    }
+
+    private float[][][] planes(int dimension) {
+        Random random = new Random(seed);
+        float[][][] planes = new float[tables][bits][dimension];
+        for (float[][] table : planes) {
+            for (float[] plane : table) {
+                for (int i = 0; i < dimension; i++) {
+                    plane[i] = (float) random.nextGaussian();
+                }
+            }
+        }
+        return planes;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= (float) norm;
+            }
+        }
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+}
@@ -52,8 +52,10 @@ public class HuggingfaceEmbeddingModel implements EmbeddingModel {
                         getOrDefault(getOrDefault(builder.timeout, httpClientBuilder.readTimeout()), ofSeconds(60)))
                 .build();
 
-        if (builder.logRequests || builder.logResponses) {
-            this.httpClient = new LoggingHttpClient(httpClient, builder.logRequests, builder.logResponses);
+        boolean logRequests = getOrDefault(builder.logRequests, false);
+        boolean logResponses = getOrDefault(builder.logResponses, false);
+        if (logRequests || logResponses) {
+            this.httpClient = new LoggingHttpClient(httpClient, logRequests, logResponses);
         } else {
             this.httpClient = httpClient;
         }
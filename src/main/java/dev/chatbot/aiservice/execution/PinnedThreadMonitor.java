@@ -0,0 +1,90 @@
+package dev.chatbot.aiservice.execution;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+
+/**
+ * PinnedThreadMonitor records virtual threads that block while pinned to
+ * their carrier thread, e.g. inside a synchronized block or a native frame.
+ * <p>
+ * A pinned virtual thread occupies one of the few carrier threads for as long
+ * as it blocks, so a library that does I/O while holding a monitor can stall
+ * every turn. The JFR event jdk.VirtualThreadPinned is streamed in process and
+ * every pinned section longer than
+ * {@link AssistantProperties#getPinnedThreshold()} is recorded in the
+ * "assistant.virtual.threads.pinned" timer and logged with its stack trace.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class PinnedThreadMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final AssistantProperties properties;
+
+    private final Timer pinned;
+
+    private RecordingStream recording;
+
+    public PinnedThreadMonitor(AssistantProperties assistantProperties, MeterRegistry meterRegistry) {
+        this.properties = assistantProperties;
+        this.pinned = Timer.builder("assistant.virtual.threads.pinned")
+                .description("Virtual threads blocked while pinned to their carrier")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (properties.getThreads() != AssistantProperties.Threads.VIRTUAL || !properties.isMonitorPinning()) {
+            return;
+        }
+        try {
+            recording = new RecordingStream();
+            recording
+                    .enable(PINNED_EVENT)
+                    .withThreshold(properties.getPinnedThreshold())
+                    .withStackTrace();
+            recording.onEvent(PINNED_EVENT, event -> {
+                pinned.record(event.getDuration().toNanos(), TimeUnit.NANOSECONDS);
+                if (log.isDebugEnabled()) {
+                    log.debug(
+                            "Virtual thread {} pinned for {} ms at {}",
+                            event.getThread() == null ? "?" : event.getThread().getJavaName(),
+                            event.getDuration().toMillis(),
+                            event.getStackTrace() == null
+                                    ? "?"
+                                    : event.getStackTrace().getFrames().stream()
+                                            .limit(8)
+                                            .map(frame ->
+                                                    frame.getMethod().getType().getName() + "."
+                                                            + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                                            .toList());
+                }
+            });
+            recording.startAsync();
+        } catch (RuntimeException e) {
+            // JFR may be unavailable, e.g. in a native image or a restricted JVM
+            log.warn("Could not monitor pinned virtual threads: {}", e.getMessage());
+            recording = null;
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package dev.chatbot.aiservice.execution;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+import dev.chatbot.exception.GoneException;
+
+/**
+ * RunBuffer keeps the latest events streamed by an assistant run, so a client
+ * whose connection dropped can attach again and continue where it left off.
+ * <p>
+ * Every event gets the next id of the run, starting with 0. Subscribers are
+ * sent the kept events after the last one they have seen, and then the
+ * events of the run as they are published. The oldest events are dropped
+ * once the run has more than its maximum, and all of them once the buffer is
+ * {@link #evict() evicted}; subscribers still get the new events. A client
+ * resuming after events that are no longer kept is told so rather than sent
+ * the stream with a gap.
+ * <p>
+ * When the last subscriber of a running run goes away, the abandon action is
+ * called after the grace period unless a subscriber attached in the meantime.
+ *
+ * @author zhoumo
+ */
+public final class RunBuffer {
+
+    /**
+     * Rough fixed cost of an event besides its data.
+     */
+    static final int EVENT_OVERHEAD = 64;
+
+    /**
+     * An event of a run.
+     *
+     * @param id the id of the event, increasing within the run
+     * @param data the data of the event
+     */
+    public record Event(long id, String data) {}
+
+    private final String runId;
+
+    private final String owner;
+
+    private final int maxEvents;
+
+    private final LongConsumer sizeListener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Deque<Event> events = new ArrayDeque<>();
+
+    private final List<FluxSink<Event>> subscribers = new CopyOnWriteArrayList<>();
+
+    private long nextId;
+
+    private long size;
+
+    private boolean completed;
+
+    private boolean evicted;
+
+    private boolean abandoned;
+
+    private volatile long lastWrite = System.nanoTime();
+
+    private Duration disconnectGrace;
+
+    private Runnable onAbandoned;
+
+    private Disposable abandonTimer;
+
+    /**
+     * @param runId the run id
+     * @param owner the owner of the run
+     * @param maxEvents the maximum number of kept events
+     * @param sizeListener called with the change of the kept size, in bytes
+     */
+    RunBuffer(String runId, String owner, int maxEvents, LongConsumer sizeListener) {
+        this.runId = runId;
+        this.owner = owner;
+        this.maxEvents = maxEvents;
+        this.sizeListener = sizeListener;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Call an action once no subscriber has been attached to the running run
+     * for the grace period.
+     *
+     * @param grace the grace period
+     * @param action the action
+     */
+    public void onAbandoned(Duration grace, Runnable action) {
+        lock.lock();
+        try {
+            this.disconnectGrace = grace;
+            this.onAbandoned = action;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publish an event. Has no effect once the run completed.
+     *
+     * @param data the data of the event
+     */
+    public void next(String data) {
+        long delta = 0;
+        lock.lock();
+        try {
+            if (completed) {
+                return;
+            }
+            Event event = new Event(nextId++, data);
+            lastWrite = System.nanoTime();
+            if (!evicted) {
+                events.addLast(event);
+                delta += weigh(event);
+                while (events.size() > maxEvents) {
+                    delta -= weigh(events.removeFirst());
+                }
+                size += delta;
+            }
+            for (FluxSink<Event> subscriber : subscribers) {
+                subscriber.next(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (delta != 0) {
+            sizeListener.accept(delta);
+        }
+    }
+
+    /**
+     * Complete the run and its subscribers.
+     */
+    public void complete() {
+        lock.lock();
+        try {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            lastWrite = System.nanoTime();
+            cancelAbandonTimer();
+            subscribers.forEach(FluxSink::complete);
+            subscribers.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether some of the events after the given one are no longer kept,
+     * because the run published more than the kept events or the buffer was
+     * evicted.
+     *
+     * @param lastEventId the id of the last event the client has seen, or -1
+     * @return true if the events after it can't be streamed again
+     */
+    public boolean hasDropped(long lastEventId) {
+        lock.lock();
+        try {
+            return lastEventId + 1 < firstKeptId();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stream the events after the given one, then the events published later,
+     * until the run completes. Fails with a {@link GoneException} if some of
+     * the events after the given one are no longer kept.
+     *
+     * @param lastEventId the id of the last event the client has seen, or -1
+     * @return the events
+     */
+    public Flux<Event> subscribe(long lastEventId) {
+        return Flux.create(sink -> {
+            lock.lock();
+            try {
+                if (lastEventId + 1 < firstKeptId()) {
+                    sink.error(new GoneException(
+                            "Events of run " + runId + " after " + lastEventId + " are no longer kept"));
+                    return;
+                }
+                for (Event event : events) {
+                    if (event.id() > lastEventId) {
+                        sink.next(event);
+                    }
+                }
+                if (completed) {
+                    sink.complete();
+                    return;
+                }
+                subscribers.add(sink);
+                cancelAbandonTimer();
+            } finally {
+                lock.unlock();
+            }
+            sink.onDispose(() -> unsubscribe(sink));
+        });
+    }
+
+    /**
+     * Drop the kept events and keep no further ones.
+     */
+    void evict() {
+        long delta;
+        lock.lock();
+        try {
+            evicted = true;
+            events.clear();
+            delta = -size;
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+        if (delta != 0) {
+            sizeListener.accept(delta);
+        }
+    }
+
+    /**
+     * @return true if the run was abandoned by its clients
+     */
+    public boolean isAbandoned() {
+        lock.lock();
+        try {
+            return abandoned;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isCompleted() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long lastWrite() {
+        return lastWrite;
+    }
+
+    private long firstKeptId() {
+        return events.isEmpty() ? nextId : events.getFirst().id();
+    }
+
+    private void unsubscribe(FluxSink<Event> sink) {
+        lock.lock();
+        try {
+            if (!subscribers.remove(sink) || !subscribers.isEmpty() || completed || onAbandoned == null) {
+                return;
+            }
+            cancelAbandonTimer();
+            if (disconnectGrace.isZero()) {
+                Schedulers.parallel().schedule(this::abandonIfUnattended);
+            } else {
+                abandonTimer = Schedulers.parallel()
+                        .schedule(this::abandonIfUnattended, disconnectGrace.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void abandonIfUnattended() {
+        Runnable action;
+        lock.lock();
+        try {
+            abandonTimer = null;
+            if (!subscribers.isEmpty() || completed) {
+                return;
+            }
+            abandoned = true;
+            action = onAbandoned;
+        } finally {
+            lock.unlock();
+        }
+        action.run();
+    }
+
+    private void cancelAbandonTimer() {
+        if (abandonTimer != null) {
+            abandonTimer.dispose();
+            abandonTimer = null;
+        }
+    }
+
+    private static long weigh(Event event) {
+        return EVENT_OVERHEAD + 2L * event.data().length();
+    }
+}
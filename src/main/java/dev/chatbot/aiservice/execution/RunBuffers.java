@@ -0,0 +1,143 @@
+package dev.chatbot.aiservice.execution;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+
+/**
+ * RunBuffers holds the {@link RunBuffer} of every recent assistant run, so
+ * its response can be streamed again.
+ * <p>
+ * A buffer is dropped once {@link AssistantProperties.Replay#getTtl()} has
+ * passed since its last event. While the events of all buffers are larger
+ * than {@link AssistantProperties.Replay#getMaxSize()}, completed buffers are
+ * evicted, least recently written first, and then running ones; a running
+ * run still streams to the clients that are attached. The size of all
+ * buffers is published as the "assistant.replay.size" gauge.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class RunBuffers {
+
+    private final AssistantProperties.Replay properties;
+
+    private final Map<String, RunBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final AtomicLong size = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final ScheduledExecutorService scheduler;
+
+    public RunBuffers(AssistantProperties assistantProperties, MeterRegistry meterRegistry) {
+        this.properties = assistantProperties.getReplay();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("run-buffer-expiry").daemon().factory());
+        long period = Math.max(properties.getTtl().toMillis() / 10, 1000);
+        scheduler.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+        Gauge.builder("assistant.replay.size", size, AtomicLong::get)
+                .description("Estimated size of the events kept to resume responses")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Create the buffer of a run.
+     *
+     * @param runId the run id
+     * @param owner the owner of the run
+     * @return the buffer
+     */
+    public RunBuffer create(String runId, String owner) {
+        RunBuffer buffer = new RunBuffer(runId, owner, properties.getMaxEventsPerRun(), this::resized);
+        buffers.put(runId, buffer);
+        return buffer;
+    }
+
+    /**
+     * Find the buffer of a recent run.
+     *
+     * @param runId the run id
+     * @return the buffer, or empty if the run is unknown or was dropped
+     */
+    public Optional<RunBuffer> find(String runId) {
+        return Optional.ofNullable(buffers.get(runId));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    long size() {
+        return size.get();
+    }
+
+    /**
+     * Drop the buffers whose last event is older than the TTL.
+     */
+    void expire() {
+        long cutoff = System.nanoTime() - properties.getTtl().toNanos();
+        buffers.values().removeIf(buffer -> {
+            if (buffer.lastWrite() - cutoff > 0) {
+                return false;
+            }
+            buffer.evict();
+            return true;
+        });
+    }
+
+    private void resized(long delta) {
+        if (size.addAndGet(delta) > properties.getMaxSize().toBytes() && delta > 0) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // One thread evicts at a time; others just keep writing
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            // Buffers keep completing and being written while they are sorted,
+            // so sort a snapshot of their state
+            List<Candidate> candidates = buffers.values().stream()
+                    .map(buffer -> new Candidate(buffer, buffer.isCompleted(), buffer.lastWrite()))
+                    .sorted(Comparator.comparing((Candidate candidate) -> !candidate.completed())
+                            .thenComparingLong(Candidate::lastWrite))
+                    .toList();
+            long maxSize = properties.getMaxSize().toBytes();
+            for (Candidate candidate : candidates) {
+                if (size.get() <= maxSize) {
+                    break;
+                }
+                RunBuffer buffer = candidate.buffer();
+                buffers.remove(buffer.getRunId(), buffer);
+                buffer.evict();
+                log.debug("Evicted events of run {} to stay within {} bytes", buffer.getRunId(), maxSize);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private record Candidate(RunBuffer buffer, boolean completed, long lastWrite) {}
+}
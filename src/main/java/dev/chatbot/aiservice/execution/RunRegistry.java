@@ -0,0 +1,228 @@
+package dev.chatbot.aiservice.execution;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.stereotype.Component;
+
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * RunRegistry keeps track of the assistant runs that are streaming, so they
+ * can be cancelled when their client goes away or asks to stop.
+ * <p>
+ * Cancelling a run aborts the model request that is streaming, interrupts
+ * the tools it is running on virtual threads, keeps it from starting more
+ * tools and calls the run's cancel action, which ends the response. A model
+ * request that is started before the cancel is noticed, e.g. the follow-up
+ * request with tool results, is aborted on its first token.
+ * <p>
+ * A run ends exactly once: completing and cancelling it claim it with the
+ * same compare-and-set, and only the winner ends the response.
+ * <p>
+ * Cancelled runs are counted in "assistant.runs.cancelled", tagged with the
+ * reason, and "assistant.runs.cancelled.tokens.saved" records the output
+ * tokens the aborted model request could still have generated, estimated as
+ * the configured maximum minus the tokens it had streamed.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class RunRegistry {
+
+    public enum Reason {
+        /**
+         * The client closed the response.
+         */
+        CLIENT_DISCONNECT,
+
+        /**
+         * The client asked to stop the run.
+         */
+        REQUEST
+    }
+
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final DistributionSummary tokensSaved;
+
+    private final int maxTokens;
+
+    public RunRegistry(MeterRegistry meterRegistry, LLMProperties llmProperties) {
+        this.meterRegistry = meterRegistry;
+        this.maxTokens = llmProperties.getMaxTokens();
+        this.tokensSaved = DistributionSummary.builder("assistant.runs.cancelled.tokens.saved")
+                .description("Output tokens cancelled model requests could still have generated")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Register a run that starts streaming.
+     *
+     * @param runId the run id
+     * @param conversationId the conversation the run answers in
+     * @param owner the owner of the conversation
+     * @param onCancel called once if the run is cancelled
+     * @return the run
+     */
+    public Run register(String runId, UUID conversationId, String owner, Runnable onCancel) {
+        Run run = new Run(runId, conversationId, owner, onCancel);
+        runs.put(runId, run);
+        return run;
+    }
+
+    /**
+     * Find a streaming run.
+     *
+     * @param runId the run id
+     * @return the run, or empty if it isn't streaming
+     */
+    public Optional<Run> find(String runId) {
+        return Optional.ofNullable(runs.get(runId));
+    }
+
+    /**
+     * Cancel a run. Has no effect if it already completed or was cancelled.
+     *
+     * @param run the run
+     * @param reason why the run is cancelled
+     * @return true if this call cancelled the run
+     */
+    public boolean cancel(Run run, Reason reason) {
+        if (!run.ended.compareAndSet(false, true)) {
+            return false;
+        }
+        run.cancelled.set(true);
+        runs.remove(run.runId, run);
+        StreamingHandle handle = run.handle.get();
+        if (handle != null) {
+            abort(handle);
+            tokensSaved.record(Math.max(maxTokens - run.streamedTokens.get(), 0));
+        }
+        run.toolThreads.forEach(Thread::interrupt);
+        Counter.builder("assistant.runs.cancelled")
+                .description("Assistant runs cancelled before they completed")
+                .tag("reason", reason.name().toLowerCase())
+                .register(meterRegistry)
+                .increment();
+        log.debug("Cancelled run {} of conversation {} ({})", run.runId, run.conversationId, reason);
+        run.onCancel.run();
+        return true;
+    }
+
+    /**
+     * Remove a run that completed or failed. Has no effect if it was
+     * cancelled or completed already.
+     *
+     * @param run the run
+     * @return true if this call completed the run, and the caller ends its response
+     */
+    public boolean complete(Run run) {
+        if (!run.ended.compareAndSet(false, true)) {
+            return false;
+        }
+        runs.remove(run.runId, run);
+        return true;
+    }
+
+    private static void abort(StreamingHandle handle) {
+        try {
+            handle.cancel();
+        } catch (RuntimeException e) {
+            log.debug("Could not cancel model request: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Run is an assistant run that is streaming.
+     */
+    public static final class Run {
+
+        private final String runId;
+
+        private final UUID conversationId;
+
+        private final String owner;
+
+        private final Runnable onCancel;
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private final AtomicReference<StreamingHandle> handle = new AtomicReference<>();
+
+        private final AtomicInteger streamedTokens = new AtomicInteger();
+
+        private final Set<Thread> toolThreads = ConcurrentHashMap.newKeySet();
+
+        private Run(String runId, UUID conversationId, String owner, Runnable onCancel) {
+            this.runId = runId;
+            this.conversationId = conversationId;
+            this.owner = owner;
+            this.onCancel = onCancel;
+        }
+
+        public String getRunId() {
+            return runId;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Record a token streamed by a model request of the run.
+         *
+         * @param streamingHandle the handle of the model request
+         * @return false if the run was cancelled and the token must be dropped
+         */
+        public boolean onToken(StreamingHandle streamingHandle) {
+            if (handle.getAndSet(streamingHandle) != streamingHandle) {
+                streamedTokens.set(0);
+            }
+            streamedTokens.incrementAndGet();
+            if (cancelled.get()) {
+                abort(streamingHandle);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Called on the thread that is about to run a tool of the run.
+         *
+         * @throws CancellationException if the run was cancelled
+         */
+        public void beforeTool() {
+            if (cancelled.get()) {
+                throw new CancellationException("Run " + runId + " was cancelled");
+            }
+            // Platform threads are pooled and may run other work later
+            if (Thread.currentThread().isVirtual()) {
+                toolThreads.add(Thread.currentThread());
+            }
+        }
+    }
+}
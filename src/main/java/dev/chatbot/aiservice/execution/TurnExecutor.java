@@ -0,0 +1,285 @@
+package dev.chatbot.aiservice.execution;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+import dev.chatbot.exception.TooManyRequestsException;
+import dev.chatbot.jdbc.DatabaseUsage;
+
+/**
+ * TurnExecutor runs assistant turns, from loading the chat memory to the last
+ * streamed token, and bounds how many of them stream at the same time.
+ * <p>
+ * With {@link AssistantProperties.Threads#VIRTUAL} every turn starts on its own
+ * virtual thread, and {@link #executor()} is handed to the model's HTTP client
+ * and to the tool executor, so the streaming callbacks, the tool calls and the
+ * memory writes they trigger block virtual threads only. With
+ * {@link AssistantProperties.Threads#PLATFORM} turns start on the request
+ * thread and the HTTP client uses its own pool, as before.
+ * <p>
+ * A turn holds one of {@link AssistantProperties#getMaxConcurrentTurns()}
+ * slots until it reports that it is done. Slots are {@link #admit(String)
+ * admitted} on the request thread before the response starts, so a turn that
+ * can't get one is answered with 429: when its owner already has
+ * {@link AssistantProperties.Admission#getMaxTurnsPerOwner()} turns queued or
+ * running, when {@link AssistantProperties.Admission#getMaxQueuedTurns()}
+ * turns are already waiting, or when none was freed within
+ * {@link AssistantProperties.Admission#getQueueTimeout()}. This also bounds
+ * the turns using the database pool at the same time.
+ * <p>
+ * Turns waiting for a slot are published as the "assistant.turns.queued"
+ * gauge, running ones as "assistant.turns.active", the wait as the
+ * "assistant.turns.wait" histogram and rejected turns as
+ * "assistant.turns.rejected", tagged with the reason.
+ * <p>
+ * Every turn is measured by a {@link DatabaseUsage}, which is bound while the
+ * turn starts; callbacks of the turn on other threads bind
+ * {@link DatabaseUsage#current()} themselves. Once the turn gives back its
+ * slot, its round trips are published as the "assistant.turns.db.round.trips"
+ * histogram and the time it held connections as
+ * "assistant.turns.db.connection.held".
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class TurnExecutor {
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final int maxConcurrentTurns;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Map<String, Integer> turnsByOwner = new ConcurrentHashMap<>();
+
+    private final AssistantProperties.Admission admission;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer waitTime;
+
+    private final DistributionSummary databaseRoundTrips;
+
+    private final Timer connectionHeld;
+
+    public TurnExecutor(AssistantProperties assistantProperties, MeterRegistry meterRegistry) {
+        this.maxConcurrentTurns = assistantProperties.getMaxConcurrentTurns();
+        this.admission = assistantProperties.getAdmission();
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(maxConcurrentTurns, true);
+        this.executor = assistantProperties.getThreads() == AssistantProperties.Threads.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(
+                        Thread.ofVirtual().name("assistant-turn-", 0).factory())
+                : null;
+        Gauge.builder("assistant.turns.queued", queued, AtomicInteger::get)
+                .description("Assistant turns waiting for a free slot")
+                .register(meterRegistry);
+        Gauge.builder("assistant.turns.active", this, TurnExecutor::active)
+                .description("Assistant turns streaming")
+                .register(meterRegistry);
+        this.waitTime = Timer.builder("assistant.turns.wait")
+                .description("Time assistant turns waited for a free slot")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.databaseRoundTrips = DistributionSummary.builder("assistant.turns.db.round.trips")
+                .description("Database round trips of assistant turns")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.connectionHeld = Timer.builder("assistant.turns.db.connection.held")
+                .description("Time assistant turns held database connections")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        log.info(
+                "Assistant turns run on {} threads, at most {} at a time",
+                assistantProperties.getThreads(),
+                maxConcurrentTurns);
+    }
+
+    /**
+     * The executor the model's HTTP client and the tools should run on.
+     *
+     * @return the virtual thread executor, or null to use their defaults
+     */
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Wait for a slot to run a turn of an owner. Returns at once if a slot is
+     * free, otherwise waits at most the queue timeout. An owner can't hold
+     * more than its limit of slots, queued or running.
+     *
+     * @param owner the owner the turn answers
+     * @return the slot, to be passed to {@link #submit(Slot, Consumer, Consumer)}
+     * @throws TooManyRequestsException if the owner is at its limit, the queue
+     *     is full or no slot was freed in time
+     */
+    public Slot admit(String owner) {
+        if (turnsByOwner.merge(owner, 1, Integer::sum) > admission.getMaxTurnsPerOwner()) {
+            releaseOwner(owner);
+            throw reject("owner", "Too many turns of " + owner + " in progress");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire() || awaitPermit(owner);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseOwner(owner);
+            throw new IllegalStateException("Interrupted while waiting for a turn slot", e);
+        }
+        waitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            releaseOwner(owner);
+            throw reject("timeout", "No turn slot freed in time");
+        }
+        return new Slot(owner);
+    }
+
+    /**
+     * Run a turn in a slot. The turn is passed a callback that gives the slot
+     * back, which it must call once it completed or failed; calling it more
+     * than once has no effect. If the turn can't be started, or throws, the
+     * slot is given back and the error passed to onError. The database usage
+     * of the turn is recorded when the slot is given back.
+     *
+     * @param slot the slot admitted for the turn
+     * @param turn the turn
+     * @param onError called if the turn didn't start
+     */
+    public void submit(Slot slot, Consumer<Runnable> turn, Consumer<Throwable> onError) {
+        DatabaseUsage usage = new DatabaseUsage();
+        Runnable done = () -> {
+            if (slot.release()) {
+                record(usage);
+            }
+        };
+        Runnable task = () -> usage.run(() -> {
+            try {
+                turn.accept(done);
+            } catch (RuntimeException e) {
+                done.run();
+                onError.accept(e);
+            }
+        });
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            done.run();
+            onError.accept(e);
+        }
+    }
+
+    /**
+     * Give back the slot of a turn that won't be submitted. Releasing a slot
+     * more than once has no effect.
+     *
+     * @param slot the slot admitted for the turn
+     */
+    public void release(Slot slot) {
+        slot.release();
+    }
+
+    private void record(DatabaseUsage usage) {
+        databaseRoundTrips.record(usage.roundTrips());
+        connectionHeld.record(usage.connectionHeld());
+        log.debug(
+                "Turn made {} database round trips and held connections for {}ms",
+                usage.roundTrips(),
+                usage.connectionHeld().toMillis());
+    }
+
+    private boolean awaitPermit(String owner) throws InterruptedException {
+        if (queued.incrementAndGet() > admission.getMaxQueuedTurns()) {
+            queued.decrementAndGet();
+            releaseOwner(owner);
+            throw reject("queue_full", "Too many turns waiting");
+        }
+        try {
+            return permits.tryAcquire(admission.getQueueTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private TooManyRequestsException reject(String reason, String message) {
+        Counter.builder("assistant.turns.rejected")
+                .description("Assistant turns rejected by admission control")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        return new TooManyRequestsException(message, admission.getRetryAfter());
+    }
+
+    private void releaseOwner(String owner) {
+        turnsByOwner.computeIfPresent(owner, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    int active() {
+        return maxConcurrentTurns - permits.availablePermits();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    int turnsOf(String owner) {
+        return turnsByOwner.getOrDefault(owner, 0);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Slot is the right of an admitted turn to run.
+     */
+    public final class Slot {
+
+        private final String owner;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(String owner) {
+            this.owner = owner;
+        }
+
+        private boolean release() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            permits.release();
+            releaseOwner(owner);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package dev.chatbot.aiservice.listeners;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * MetricsChatModelListener records every request to a chat model, streaming
+ * or not.
+ * <p>
+ * The duration of requests is published as the "llm.requests" histogram,
+ * tagged with the outcome and, for failed requests, the error, so error
+ * rates can be derived from its counts. The prompt and completion tokens the
+ * model reported are published as the "llm.tokens" histogram, tagged with the
+ * type. Both are tagged with the model name and with whether the model asked
+ * for tools.
+ *
+ * @author zhoumo
+ */
+@Component
+public class MetricsChatModelListener implements ChatModelListener {
+
+    private static final Object STARTED_AT = new Object();
+
+    private final MeterRegistry meterRegistry;
+
+    public MetricsChatModelListener(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void onRequest(ChatModelRequestContext requestContext) {
+        requestContext.attributes().put(STARTED_AT, System.nanoTime());
+    }
+
+    @Override
+    public void onResponse(ChatModelResponseContext responseContext) {
+        ChatResponse response = responseContext.chatResponse();
+        String model = modelName(responseContext.chatRequest(), response);
+        boolean tools = response.aiMessage() != null && response.aiMessage().hasToolExecutionRequests();
+        Tags tags = Tags.of("model", model, "tools", Boolean.toString(tools));
+        record(responseContext.attributes().get(STARTED_AT), tags.and("outcome", "success", "error", "none"));
+        TokenUsage tokenUsage = response.tokenUsage();
+        if (tokenUsage != null) {
+            recordTokens(tags.and("type", "prompt"), tokenUsage.inputTokenCount());
+            recordTokens(tags.and("type", "completion"), tokenUsage.outputTokenCount());
+        }
+    }
+
+    @Override
+    public void onError(ChatModelErrorContext errorContext) {
+        Tags tags = Tags.of(
+                "model",
+                modelName(errorContext.chatRequest(), null),
+                "tools",
+                "false",
+                "outcome",
+                "error",
+                "error",
+                errorContext.error().getClass().getSimpleName());
+        record(errorContext.attributes().get(STARTED_AT), tags);
+    }
+
+    private void record(Object startedAt, Tags tags) {
+        if (!(startedAt instanceof Long start)) {
+            return;
+        }
+        Timer.builder("llm.requests")
+                .description("Requests to chat models, from sending to the last token")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordTokens(Tags tags, Integer count) {
+        if (count == null) {
+            return;
+        }
+        DistributionSummary.builder("llm.tokens")
+                .description("Tokens of chat model requests, as reported by the model")
+                .baseUnit("tokens")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(count);
+    }
+
+    private static String modelName(ChatRequest request, ChatResponse response) {
+        if (request != null
+                && request.parameters() != null
+                && request.parameters().modelName() != null) {
+            return request.parameters().modelName();
+        }
+        if (response != null && response.modelName() != null) {
+            return response.modelName();
+        }
+        return "unknown";
+    }
+}
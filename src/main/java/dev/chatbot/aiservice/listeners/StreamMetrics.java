@@ -0,0 +1,201 @@
+package dev.chatbot.aiservice.listeners;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * StreamMetrics records how the answer of an assistant turn streams to the
+ * user, which the {@link MetricsChatModelListener} can't see.
+ * <p>
+ * The time from the start of a turn to its first token is published as the
+ * "assistant.stream.first.token" histogram, the time between consecutive
+ * tokens as "assistant.stream.token.gap", the time of the whole turn as
+ * "assistant.stream.duration", tagged with the outcome, and the rate tokens
+ * were streamed at as "assistant.stream.tokens.per.second". The rate counts
+ * the tokens of each response of the model after its first one, over the
+ * time between its first and last token, so the time spent calling tools
+ * between responses is left out, as are gaps spanning a tool call. Turns
+ * answered from a cache only record their duration. All are tagged with the model
+ * name and with whether a tool was called before; the first token of a turn
+ * that called tools usually came after them.
+ * <p>
+ * Recording a token only increments a bucket of a fixed histogram without
+ * locking, so every token of every turn is measured.
+ *
+ * @author zhoumo
+ */
+@Component
+public class StreamMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final String model;
+
+    private final Meters withoutTools;
+
+    private final Meters withTools;
+
+    public StreamMetrics(LLMProperties llmProperties, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.model = llmProperties.getModelName();
+        this.withoutTools = meters(false);
+        this.withTools = meters(true);
+    }
+
+    /**
+     * Start measuring the stream of a turn.
+     *
+     * @return the stream, to be told about its tokens, tool calls and end
+     */
+    public Stream start() {
+        return new Stream(System.nanoTime());
+    }
+
+    private Meters meters(boolean tools) {
+        String tagged = Boolean.toString(tools);
+        return new Meters(
+                Timer.builder("assistant.stream.first.token")
+                        .description("Time from the start of assistant turns to their first token")
+                        .tags("model", model, "tools", tagged)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry),
+                Timer.builder("assistant.stream.token.gap")
+                        .description("Time between consecutive tokens of assistant turns")
+                        .tags("model", model, "tools", tagged)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry),
+                DistributionSummary.builder("assistant.stream.tokens.per.second")
+                        .description("Tokens streamed per second within model responses, after their first one")
+                        .tags("model", model, "tools", tagged)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
+    private record Meters(Timer firstToken, Timer tokenGap, DistributionSummary tokensPerSecond) {}
+
+    /**
+     * Stream measures the tokens of one turn. Tokens are reported one at a
+     * time; the end of the stream is recorded once, whichever way it ends.
+     */
+    public final class Stream {
+
+        private final long startedAt;
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private volatile boolean toolsCalled;
+
+        private int tokens;
+
+        private long lastTokenAt;
+
+        private boolean afterToken;
+
+        private int responseTokens;
+
+        private long responseStartedAt;
+
+        private long generatedTokens;
+
+        private long generatingNanos;
+
+        private Stream(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Record a streamed token, of the answer or of the reasoning.
+         */
+        public void onToken() {
+            long now = System.nanoTime();
+            Meters meters = toolsCalled ? withTools : withoutTools;
+            if (tokens == 0) {
+                meters.firstToken().record(now - startedAt, TimeUnit.NANOSECONDS);
+            } else if (afterToken) {
+                meters.tokenGap().record(now - lastTokenAt, TimeUnit.NANOSECONDS);
+            }
+            if (responseTokens == 0) {
+                responseStartedAt = now;
+            }
+            tokens++;
+            responseTokens++;
+            lastTokenAt = now;
+            afterToken = true;
+        }
+
+        /**
+         * Record that the model called a tool. The next token starts a new
+         * response of the model, so its gap isn't counted.
+         */
+        public void onToolCall() {
+            endResponse();
+            toolsCalled = true;
+            afterToken = false;
+        }
+
+        /**
+         * Record that the turn completed.
+         */
+        public void onComplete() {
+            if (!end("complete")) {
+                return;
+            }
+            endResponse();
+            if (generatingNanos > 0) {
+                (toolsCalled ? withTools : withoutTools)
+                        .tokensPerSecond()
+                        .record(generatedTokens * 1e9 / generatingNanos);
+            }
+        }
+
+        /**
+         * Record that the turn was answered from a cache instead of the model.
+         */
+        public void onCached() {
+            end("cached");
+        }
+
+        /**
+         * Record that the turn failed.
+         */
+        public void onError() {
+            end("error");
+        }
+
+        /**
+         * Record that the turn was cancelled.
+         */
+        public void onCancel() {
+            end("cancelled");
+        }
+
+        private void endResponse() {
+            if (responseTokens > 1) {
+                generatedTokens += responseTokens - 1;
+                generatingNanos += lastTokenAt - responseStartedAt;
+            }
+            responseTokens = 0;
+        }
+
+        private boolean end(String outcome) {
+            if (!ended.compareAndSet(false, true)) {
+                return false;
+            }
+            Timer.builder("assistant.stream.duration")
+                    .description("Time of assistant turns, from the start to the last token")
+                    .tags("model", model, "tools", Boolean.toString(toolsCalled), "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            return true;
+        }
+    }
+}
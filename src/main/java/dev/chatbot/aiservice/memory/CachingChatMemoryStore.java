@@ -0,0 +1,180 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.AudioContent;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.PdfFileContent;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.message.VideoContent;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.PersistentChatMemoryStore;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+
+/**
+ * CachingChatMemoryStore keeps already deserialized message lists of recently
+ * used conversations, so the memory reads of a turn (and the title
+ * summarization) don't load and parse the whole transcript every time.
+ * <p>
+ * The cache is bounded by entry count and by the estimated size of the cached
+ * messages, which is capped at a share of the maximum heap. Updates replace
+ * the cached list once the delegate has stored it, deletes evict it. Hit, miss
+ * and eviction counts are published as "chat.memory" cache metrics.
+ * Transcripts are read rarely and can be long, so they are not cached.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class CachingChatMemoryStore implements ChatMemoryStore, ChatTranscriptStore {
+
+    private static final String CACHE_NAME = "chat.memory";
+
+    /**
+     * Rough fixed cost of a message object besides its text.
+     */
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private final PersistentChatMemoryStore delegate;
+
+    private final Cache<Object, List<ChatMessage>> cache;
+
+    public CachingChatMemoryStore(
+            PersistentChatMemoryStore delegate, MemoryProperties memoryProperties, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        MemoryProperties.Cache properties = memoryProperties.getCache();
+        if (!properties.isEnabled()) {
+            this.cache = null;
+            return;
+        }
+
+        long heapLimit = (long) (Runtime.getRuntime().maxMemory() * properties.getMaximumHeapFraction());
+        long maximumWeight = Math.min(properties.getMaximumWeight(), heapLimit);
+        // Caffeine can't bound both size and weight, so the entry count is bounded
+        // by giving every entry at least its share of the total weight.
+        int minimumWeight = (int) Math.min(maximumWeight / Math.max(properties.getMaximumSize(), 1), Integer.MAX_VALUE);
+        Caffeine<Object, List<ChatMessage>> builder = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Object id, List<ChatMessage> messages) -> Math.max(weigh(messages), minimumWeight))
+                .recordStats();
+        if (properties.isSoftValues()) {
+            builder.softValues();
+        }
+        this.cache = builder.build();
+        log.info(
+                "Chat memory cache limited to {} bytes and {} conversations",
+                maximumWeight,
+                properties.getMaximumSize());
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        if (cache == null) {
+            return delegate.getMessages(memoryId);
+        }
+        return cache.get(memoryId, id -> List.copyOf(delegate.getMessages(id)));
+    }
+
+    @Override
+    public List<ChatMessage> getTranscript(Object memoryId) {
+        return delegate.getTranscript(memoryId);
+    }
+
+    @Override
+    public void forEachTranscriptMessage(Object memoryId, Set<ChatMessageType> types, Consumer<ChatMessage> action) {
+        delegate.forEachTranscriptMessage(memoryId, types, action);
+    }
+
+    @Override
+    public TranscriptPage getTranscriptPage(Object memoryId, Set<ChatMessageType> types, Long before, int limit) {
+        return delegate.getTranscriptPage(memoryId, types, before, limit);
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        if (cache == null) {
+            delegate.updateMessages(memoryId, messages);
+            return;
+        }
+        try {
+            delegate.updateMessages(memoryId, messages);
+            cache.put(memoryId, List.copyOf(messages));
+        } catch (RuntimeException e) {
+            cache.invalidate(memoryId);
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        if (cache != null) {
+            cache.invalidate(memoryId);
+        }
+        delegate.deleteMessages(memoryId);
+    }
+
+    /**
+     * Estimate the heap size of a message list in bytes.
+     *
+     * @param messages the messages
+     * @return the estimated size
+     */
+    static int weigh(List<ChatMessage> messages) {
+        long weight = 0;
+        for (ChatMessage message : messages) {
+            weight += MESSAGE_OVERHEAD + 2L * textLength(message);
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static long textLength(ChatMessage message) {
+        return switch (message) {
+            case SystemMessage systemMessage -> length(systemMessage.text());
+            case UserMessage userMessage -> userMessage.contents().stream()
+                    .mapToLong(CachingChatMemoryStore::contentLength)
+                    .sum();
+            case AiMessage aiMessage -> length(aiMessage.text())
+                    + length(aiMessage.thinking())
+                    + aiMessage.toolExecutionRequests().stream()
+                            .mapToLong(request -> length(request.arguments()))
+                            .sum();
+            case ToolExecutionResultMessage toolMessage -> length(toolMessage.text());
+            default -> 0;
+        };
+    }
+
+    private static long contentLength(Content content) {
+        return switch (content) {
+            case TextContent textContent -> length(textContent.text());
+            case ImageContent imageContent -> length(imageContent.image().base64Data());
+            case AudioContent audioContent -> length(audioContent.audio().base64Data());
+            case VideoContent videoContent -> length(videoContent.video().base64Data());
+            case PdfFileContent pdfFileContent -> length(
+                    pdfFileContent.pdfFile().base64Data());
+            default -> 0;
+        };
+    }
+
+    private static long length(String text) {
+        return text == null ? 0 : text.length();
+    }
+}
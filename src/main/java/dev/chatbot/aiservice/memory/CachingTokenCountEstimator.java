@@ -0,0 +1,114 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiChatModelName;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * CachingTokenCountEstimator estimates token counts with the tokenizer of the
+ * configured model and remembers the count of every message it has seen.
+ * <p>
+ * Counts are keyed by message identity and weakly referenced, so they live
+ * exactly as long as the message objects held by the chat memory cache. A
+ * token window then only sums cached counts on every turn instead of
+ * tokenizing the whole history again. Counts persisted with the messages are
+ * handed in with {@link #remember(ChatMessage, int)} when they are loaded.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class CachingTokenCountEstimator implements TokenCountEstimator {
+
+    /**
+     * Tokens every request spends on priming the reply.
+     */
+    private static final int REPLY_PRIMING_TOKENS = 3;
+
+    /**
+     * Tokens assumed for each image, audio, video or PDF content, which the
+     * tokenizer can't count. This is what OpenAI charges for a high detail
+     * 512x512 image.
+     */
+    static final int MEDIA_CONTENT_TOKENS = 765;
+
+    private final TokenCountEstimator delegate;
+
+    private final Cache<ChatMessage, Integer> counts =
+            Caffeine.newBuilder().weakKeys().build();
+
+    public CachingTokenCountEstimator(LLMProperties llmProperties) {
+        this(estimatorFor(llmProperties.getModelName()));
+    }
+
+    CachingTokenCountEstimator(TokenCountEstimator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int estimateTokenCountInText(String text) {
+        return delegate.estimateTokenCountInText(text);
+    }
+
+    @Override
+    public int estimateTokenCountInMessage(ChatMessage message) {
+        return counts.get(message, this::count);
+    }
+
+    @Override
+    public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+        int tokens = REPLY_PRIMING_TOKENS;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokenCountInMessage(message);
+        }
+        return tokens;
+    }
+
+    /**
+     * Remember a token count computed earlier, e.g. one persisted with the
+     * message.
+     *
+     * @param message the message
+     * @param tokenCount its token count
+     */
+    public void remember(ChatMessage message, int tokenCount) {
+        counts.put(message, tokenCount);
+    }
+
+    private int count(ChatMessage message) {
+        if (message instanceof UserMessage userMessage && !userMessage.hasSingleText()) {
+            List<Content> text = userMessage.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .toList();
+            int media = userMessage.contents().size() - text.size();
+            int tokens = text.isEmpty() ? 0 : delegate.estimateTokenCountInMessage(UserMessage.from(text));
+            return tokens + media * MEDIA_CONTENT_TOKENS;
+        }
+        return delegate.estimateTokenCountInMessage(message);
+    }
+
+    private static TokenCountEstimator estimatorFor(String modelName) {
+        try {
+            return new OpenAiTokenCountEstimator(modelName);
+        } catch (IllegalArgumentException e) {
+            // Models served through OpenAI compatible APIs have their own
+            // tokenizers; the GPT-4o one is a close enough approximation.
+            log.warn("No tokenizer known for model {}, estimating with the GPT-4o tokenizer", modelName);
+            return new OpenAiTokenCountEstimator(OpenAiChatModelName.GPT_4_O);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Component;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.SummaryAssistant;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.domain.ConversationSummary;
+
+/**
+ * ChatMemoryCompactor folds the oldest turns of a long conversation into its
+ * running summary, which {@link CompactingChatMemory} adds to every prompt.
+ * <p>
+ * Once the context window holds
+ * {@link MemoryProperties.Compaction#getTriggerMessages()} messages, every
+ * message except the latest {@link MemoryProperties.Compaction#getKeepMessages()}
+ * is summarized together with the previous summary, so each message is
+ * summarized only once. The cut is moved back to the start of a turn, so a
+ * tool call is never separated from its result. The folded messages are then
+ * removed from the window; they remain in the transcript. The window is
+ * checked and rewritten holding the write lock of the conversation, which
+ * the turns' {@link CompactingChatMemory} takes for their updates too.
+ * <p>
+ * Compactions run on a small bounded executor and never on the request path.
+ * At most one compaction per conversation runs at a time, and compactions that
+ * find no free slot are skipped; the next turn triggers them again.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class ChatMemoryCompactor {
+
+    /**
+     * Tool results are cut to this many characters before being summarized.
+     */
+    private static final int TOOL_RESULT_LIMIT = 2000;
+
+    private final WriteBehindChatMemoryStore chatMemoryStore;
+
+    private final SummaryAssistant summaryAssistant;
+
+    private final ConversationSummaryStore conversationSummaryStore;
+
+    private final MemoryProperties.Compaction properties;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+
+    public ChatMemoryCompactor(
+            WriteBehindChatMemoryStore chatMemoryStore,
+            SummaryAssistant summaryAssistant,
+            ConversationSummaryStore conversationSummaryStore,
+            MemoryProperties memoryProperties) {
+        this.chatMemoryStore = chatMemoryStore;
+        this.summaryAssistant = summaryAssistant;
+        this.conversationSummaryStore = conversationSummaryStore;
+        this.properties = memoryProperties.getCompaction();
+        this.executor = new ThreadPoolExecutor(
+                properties.getThreads(),
+                properties.getThreads(),
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                Thread.ofPlatform().name("chat-memory-compact-", 0).daemon().factory());
+    }
+
+    /**
+     * Compact a conversation in the background if its window has grown long
+     * enough. Returns immediately.
+     *
+     * @param conversationId the conversation id
+     */
+    public void compactAsync(UUID conversationId) {
+        if (!properties.isEnabled() || !running.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compact(conversationId);
+                } catch (Exception e) {
+                    log.error("Failed to compact conversation {}: {}", conversationId, e.getMessage());
+                } finally {
+                    running.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(conversationId);
+            log.debug("Compaction queue full, skipped conversation {}", conversationId);
+        }
+    }
+
+    /**
+     * Compact a conversation if its window has grown long enough.
+     *
+     * @param conversationId the conversation id
+     * @return true if messages were folded into the summary
+     */
+    boolean compact(UUID conversationId) {
+        List<ChatMessage> folded = foldable(
+                chatMemoryStore.getMessages(conversationId),
+                properties.getTriggerMessages(),
+                properties.getKeepMessages());
+        if (folded.isEmpty()) {
+            return false;
+        }
+
+        Optional<ConversationSummary> previous = conversationSummaryStore.get(conversationId);
+        String summary = summaryAssistant.compact(
+                previous.map(ConversationSummary::getSummary).orElse(""), format(folded));
+
+        // A turn may have updated the window while the model was summarizing;
+        // only commit if the folded messages are still where they were, and
+        // keep turns from writing until the window is rewritten.
+        return chatMemoryStore.withLock(conversationId, () -> {
+            List<ChatMessage> remaining = without(chatMemoryStore.getMessages(conversationId), folded);
+            if (remaining == null) {
+                log.debug("Window of conversation {} changed during compaction, discarded summary", conversationId);
+                return false;
+            }
+            conversationSummaryStore.save(ConversationSummary.builder()
+                    .conversationId(conversationId)
+                    .summary(summary)
+                    .foldedMessages(
+                            previous.map(ConversationSummary::getFoldedMessages).orElse(0) + folded.size())
+                    .build());
+            chatMemoryStore.updateMessages(conversationId, remaining);
+            log.debug("Folded {} messages of conversation {} into its summary", folded.size(), conversationId);
+            return true;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Select the oldest messages of a window to fold into the summary.
+     *
+     * @param messages the window
+     * @param triggerMessages the number of non-system messages that triggers a compaction
+     * @param keepMessages the number of latest messages to keep
+     * @return the messages to fold, in order, or an empty list
+     */
+    static List<ChatMessage> foldable(List<ChatMessage> messages, int triggerMessages, int keepMessages) {
+        List<ChatMessage> turns = messages.stream()
+                .filter(message -> !(message instanceof SystemMessage))
+                .toList();
+        if (turns.size() < triggerMessages) {
+            return List.of();
+        }
+        int cut = Math.max(turns.size() - keepMessages, 0);
+        while (cut > 0 && !(turns.get(cut) instanceof UserMessage)) {
+            cut--;
+        }
+        return turns.subList(0, cut);
+    }
+
+    /**
+     * Remove the folded messages from the front of a window.
+     *
+     * @param messages the current window
+     * @param folded the folded messages
+     * @return the remaining window, or null if it doesn't start with the folded messages
+     */
+    static List<ChatMessage> without(List<ChatMessage> messages, List<ChatMessage> folded) {
+        List<ChatMessage> remaining = new ArrayList<>();
+        int matched = 0;
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage || matched == folded.size()) {
+                remaining.add(message);
+            } else if (message.equals(folded.get(matched))) {
+                matched++;
+            } else {
+                return null;
+            }
+        }
+        return matched == folded.size() ? remaining : null;
+    }
+
+    private static String format(List<ChatMessage> messages) {
+        return messages.stream()
+                .map(ChatMemoryCompactor::format)
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String format(ChatMessage message) {
+        return switch (message) {
+            case UserMessage userMessage -> "Human: "
+                    + userMessage.contents().stream()
+                            .map(content ->
+                                    content instanceof TextContent textContent ? textContent.text() : "[attachment]")
+                            .collect(Collectors.joining(" "));
+            case AiMessage aiMessage -> format(aiMessage);
+            case ToolExecutionResultMessage toolMessage -> "Tool " + toolMessage.toolName() + " returned: "
+                    + abbreviate(toolMessage.text());
+            default -> "";
+        };
+    }
+
+    private static String format(AiMessage message) {
+        List<String> lines = new ArrayList<>();
+        if (message.text() != null) {
+            lines.add("AI: " + message.text());
+        }
+        message.toolExecutionRequests()
+                .forEach(request -> lines.add("AI called " + request.name() + " with " + request.arguments()));
+        return String.join("\n", lines);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() <= TOOL_RESULT_LIMIT ? text : text.substring(0, TOOL_RESULT_LIMIT) + "...";
+    }
+}
@@ -0,0 +1,51 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+
+/**
+ * ChatTranscriptStore gives access to the full transcript of a conversation.
+ * <p>
+ * A ChatMemoryStore only holds the messages of the model's context window,
+ * which loses the oldest messages as the conversation grows. The transcript
+ * keeps every message and is what users see when they open or share a
+ * conversation.
+ *
+ * @author zhoumo
+ */
+public interface ChatTranscriptStore {
+
+    /**
+     * Get every message of a conversation, in order.
+     *
+     * @param memoryId the memory id
+     * @return the transcript, empty if there is none
+     */
+    List<ChatMessage> getTranscript(Object memoryId);
+
+    /**
+     * Hand every message of the given types of a conversation to an action, in
+     * order, holding only a bounded part of the transcript in memory.
+     *
+     * @param memoryId the memory id
+     * @param types the message types to read
+     * @param action receives the messages
+     */
+    void forEachTranscriptMessage(Object memoryId, Set<ChatMessageType> types, Consumer<ChatMessage> action);
+
+    /**
+     * Get the latest messages of the given types before a position of a
+     * conversation's transcript, without reading the messages before them.
+     *
+     * @param memoryId the memory id
+     * @param types the message types to return
+     * @param before the position to read before, or null to read the latest messages
+     * @param limit the maximum number of messages
+     * @return the page
+     */
+    TranscriptPage getTranscriptPage(Object memoryId, Set<ChatMessageType> types, Long before, int limit);
+}
@@ -0,0 +1,86 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.memory.ChatMemory;
+
+/**
+ * CompactingChatMemory adds the running summary of a conversation's compacted
+ * turns to the messages of a window chat memory.
+ * <p>
+ * The summary is appended to the system message only when the messages are
+ * read for a prompt. The stored system message stays the assistant's own, so
+ * langchain4j doesn't see it change and rewrite it on every turn.
+ * <p>
+ * Every update reads the window and writes it back. Updates hold the write
+ * lock of the conversation, so they never interleave with a compaction
+ * removing the folded turns from the window.
+ *
+ * @author zhoumo
+ */
+public class CompactingChatMemory implements ChatMemory {
+
+    static final String SUMMARY_HEADER = "Summary of the earlier conversation:\n";
+
+    private final ChatMemory delegate;
+
+    private final ConversationSummaryStore conversationSummaryStore;
+
+    private final WriteBehindChatMemoryStore chatMemoryStore;
+
+    public CompactingChatMemory(
+            ChatMemory delegate,
+            ConversationSummaryStore conversationSummaryStore,
+            WriteBehindChatMemoryStore chatMemoryStore) {
+        this.delegate = delegate;
+        this.conversationSummaryStore = conversationSummaryStore;
+        this.chatMemoryStore = chatMemoryStore;
+    }
+
+    @Override
+    public Object id() {
+        return delegate.id();
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        chatMemoryStore.withLock(id(), () -> delegate.add(message));
+    }
+
+    @Override
+    public void set(Iterable<ChatMessage> messages) {
+        chatMemoryStore.withLock(id(), () -> delegate.set(messages));
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> messages = delegate.messages();
+        return conversationSummaryStore
+                .get((UUID) id())
+                .map(summary -> withSummary(messages, summary.getSummary()))
+                .orElse(messages);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        conversationSummaryStore.delete((UUID) id());
+    }
+
+    static List<ChatMessage> withSummary(List<ChatMessage> messages, String summary) {
+        List<ChatMessage> merged = new ArrayList<>(messages);
+        String text = SUMMARY_HEADER + summary;
+        for (int i = 0; i < merged.size(); i++) {
+            if (merged.get(i) instanceof SystemMessage systemMessage) {
+                merged.set(i, SystemMessage.from(systemMessage.text() + "\n\n" + text));
+                return merged;
+            }
+        }
+        merged.addFirst(SystemMessage.from(text));
+        return merged;
+    }
+}
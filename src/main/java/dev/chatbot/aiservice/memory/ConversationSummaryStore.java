@@ -0,0 +1,67 @@
+package dev.chatbot.aiservice.memory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dev.chatbot.domain.ConversationSummary;
+import dev.chatbot.repository.ConversationSummaryRepository;
+
+/**
+ * ConversationSummaryStore reads and writes the running summaries of compacted
+ * conversations.
+ * <p>
+ * The summary is merged into every prompt of a conversation, which may mean
+ * several model calls per turn, so lookups (including the absence of a
+ * summary) are cached.
+ *
+ * @author zhoumo
+ */
+@Component
+public class ConversationSummaryStore {
+
+    private final ConversationSummaryRepository conversationSummaryRepository;
+
+    private final Cache<UUID, Optional<ConversationSummary>> cache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofHours(1))
+            .build();
+
+    public ConversationSummaryStore(ConversationSummaryRepository conversationSummaryRepository) {
+        this.conversationSummaryRepository = conversationSummaryRepository;
+    }
+
+    /**
+     * Get the summary of a conversation.
+     *
+     * @param conversationId the conversation id
+     * @return the summary, if the conversation has been compacted
+     */
+    public Optional<ConversationSummary> get(UUID conversationId) {
+        return cache.get(conversationId, conversationSummaryRepository::findById);
+    }
+
+    /**
+     * Replace the summary of a conversation.
+     *
+     * @param summary the new summary
+     */
+    public void save(ConversationSummary summary) {
+        cache.put(summary.getConversationId(), Optional.of(conversationSummaryRepository.save(summary)));
+    }
+
+    /**
+     * Delete the summary of a conversation.
+     *
+     * @param conversationId the conversation id
+     */
+    public void delete(UUID conversationId) {
+        cache.put(conversationId, Optional.empty());
+        conversationSummaryRepository.deleteById(conversationId);
+    }
+}
@@ -0,0 +1,16 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+/**
+ * TranscriptPage is a page of the latest messages of a conversation before a
+ * given position of its transcript.
+ *
+ * @param messages the messages of the page, oldest first
+ * @param before the position to read the previous page from, or null if there
+ *               are no older messages
+ * @author zhoumo
+ */
+public record TranscriptPage(List<ChatMessage> messages, Long before) {}
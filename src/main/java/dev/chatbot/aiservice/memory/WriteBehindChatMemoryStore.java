@@ -0,0 +1,250 @@
+package dev.chatbot.aiservice.memory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+
+/**
+ * WriteBehindChatMemoryStore keeps the latest message list of a conversation in
+ * memory and writes it to the {@link CachingChatMemoryStore} (and from there to
+ * the database) later.
+ * <p>
+ * langchain4j updates the memory several times per turn (user message, every
+ * tool request and result, final answer). Consecutive updates of the same
+ * conversation replace each other, so a turn is persisted with a single write,
+ * either when {@link #flush(Object)} is called at the end of the turn or when
+ * the configured flush delay has passed. Reads see the pending messages until
+ * they are written. Transcript reads flush the conversation first, since the
+ * transcript is assembled from the persisted rows. A failed background flush
+ * keeps the messages pending and is retried with a growing delay.
+ * <p>
+ * When write-behind is disabled every call goes straight to the delegate.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Primary
+@Component
+public class WriteBehindChatMemoryStore implements ChatMemoryStore, ChatTranscriptStore {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final CachingChatMemoryStore delegate;
+
+    private final MemoryProperties.WriteBehind properties;
+
+    private final Map<Object, Pending> pending = new ConcurrentHashMap<>();
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private final ScheduledExecutorService scheduler;
+
+    public WriteBehindChatMemoryStore(CachingChatMemoryStore delegate, MemoryProperties memoryProperties) {
+        this.delegate = delegate;
+        this.properties = memoryProperties.getWriteBehind();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chat-memory-flush").daemon().factory());
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        Pending current = pending.get(memoryId);
+        if (current != null) {
+            return current.messages();
+        }
+        return delegate.getMessages(memoryId);
+    }
+
+    @Override
+    public List<ChatMessage> getTranscript(Object memoryId) {
+        flush(memoryId);
+        return delegate.getTranscript(memoryId);
+    }
+
+    @Override
+    public void forEachTranscriptMessage(Object memoryId, Set<ChatMessageType> types, Consumer<ChatMessage> action) {
+        flush(memoryId);
+        delegate.forEachTranscriptMessage(memoryId, types, action);
+    }
+
+    @Override
+    public TranscriptPage getTranscriptPage(Object memoryId, Set<ChatMessageType> types, Long before, int limit) {
+        flush(memoryId);
+        return delegate.getTranscriptPage(memoryId, types, before, limit);
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        if (!properties.isEnabled()) {
+            delegate.updateMessages(memoryId, messages);
+            return;
+        }
+        List<ChatMessage> snapshot = List.copyOf(messages);
+        pending.compute(memoryId, (id, previous) -> {
+            // Only the first pending update of a conversation schedules a flush,
+            // later ones are merged into it.
+            if (previous != null && !previous.flush().isDone()) {
+                return new Pending(snapshot, previous.flush(), previous.failures());
+            }
+            return new Pending(snapshot, schedule(id, properties.getFlushDelay()), 0);
+        });
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        ReentrantLock lock = lockFor(memoryId);
+        lock.lock();
+        try {
+            Pending removed = pending.remove(memoryId);
+            if (removed != null) {
+                removed.flush().cancel(false);
+            }
+            delegate.deleteMessages(memoryId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending messages of a conversation, if there are any.
+     * Writes of the same conversation are serialized, so an older list can
+     * never overwrite a newer one.
+     *
+     * @param memoryId the memory id
+     */
+    public void flush(Object memoryId) {
+        ReentrantLock lock = lockFor(memoryId);
+        lock.lock();
+        try {
+            Pending current = pending.get(memoryId);
+            if (current == null) {
+                return;
+            }
+            delegate.updateMessages(memoryId, current.messages());
+            // Keep serving the pending list until it is written, and keep it if it
+            // was replaced in the meantime so its own flush still happens.
+            if (pending.remove(memoryId, current)) {
+                current.flush().cancel(false);
+            } else {
+                pending.computeIfPresent(
+                        memoryId,
+                        (id, newer) -> newer.flush() == current.flush()
+                                ? new Pending(newer.messages(), schedule(id, properties.getFlushDelay()), 0)
+                                : newer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run an action holding the write lock of a conversation, so it can read,
+     * change and write back its messages without another locked writer in
+     * between. Flushes and deletes of the conversation wait for it as well.
+     *
+     * @param memoryId the memory id
+     * @param action the action
+     */
+    public void withLock(Object memoryId, Runnable action) {
+        withLock(memoryId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run an action holding the write lock of a conversation.
+     *
+     * @param memoryId the memory id
+     * @param action the action
+     * @return the result of the action
+     * @see #withLock(Object, Runnable)
+     */
+    public <T> T withLock(Object memoryId, Supplier<T> action) {
+        ReentrantLock lock = lockFor(memoryId);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the assistant should flush synchronously when a response completes.
+     *
+     * @return true to flush on completion
+     */
+    public boolean isFlushOnComplete() {
+        return properties.isEnabled() && properties.isFlushOnComplete();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        for (Object memoryId : pending.keySet()) {
+            try {
+                flush(memoryId);
+            } catch (Exception e) {
+                log.error("Failed to flush chat memory {} on shutdown: {}", memoryId, e.getMessage());
+            }
+        }
+    }
+
+    private void flushQuietly(Object memoryId) {
+        try {
+            flush(memoryId);
+        } catch (Exception e) {
+            // The messages stay pending; try again later, backing off while the
+            // delegate keeps failing.
+            Pending retry = pending.computeIfPresent(memoryId, (id, current) -> {
+                current.flush().cancel(false);
+                int failures = current.failures() + 1;
+                return new Pending(current.messages(), schedule(id, retryDelay(failures)), failures);
+            });
+            log.error(
+                    "Failed to flush chat memory {}, retrying in {}: {}",
+                    memoryId,
+                    retry != null ? retryDelay(retry.failures()) : Duration.ZERO,
+                    e.getMessage());
+        }
+    }
+
+    private Duration retryDelay(int failures) {
+        Duration delay = properties.getFlushDelay().multipliedBy(1L << Math.min(failures, 20));
+        return delay.compareTo(properties.getMaxRetryDelay()) < 0 ? delay : properties.getMaxRetryDelay();
+    }
+
+    private ScheduledFuture<?> schedule(Object memoryId, Duration delay) {
+        return scheduler.schedule(() -> flushQuietly(memoryId), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private ReentrantLock lockFor(Object memoryId) {
+        return locks[Math.floorMod(memoryId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private record Pending(List<ChatMessage> messages, ScheduledFuture<?> flush, int failures) {}
+}
@@ -0,0 +1,204 @@
+package dev.chatbot.aiservice.properties;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import lombok.Data;
+
+/**
+ * AssistantProperties is a configuration class that holds properties related
+ * to how assistant turns are executed.
+ * The prefix "chatbot.assistant" indicates that these properties are under the
+ * "chatbot.assistant" section in the configuration file.
+ *
+ * @author zhoumo
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatbot.assistant")
+public class AssistantProperties {
+
+    /**
+     * The threads assistant turns run on.
+     */
+    private Threads threads = Threads.VIRTUAL;
+
+    /**
+     * The maximum number of turns streaming at the same time. Further turns
+     * wait for a running one to complete.
+     */
+    private int maxConcurrentTurns = 1000;
+
+    /**
+     * Whether virtual threads pinning their carrier are recorded as metrics.
+     */
+    private boolean monitorPinning = true;
+
+    /**
+     * Pinned sections shorter than this are not recorded.
+     */
+    private Duration pinnedThreshold = Duration.ofMillis(20);
+
+    /**
+     * Settings for merging streamed tokens into fewer events.
+     */
+    private Coalescing coalescing = new Coalescing();
+
+    /**
+     * Settings for writing conversation titles.
+     */
+    private Titles titles = new Titles();
+
+    /**
+     * Settings for admitting turns beyond the free slots.
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * Settings for resuming interrupted responses.
+     */
+    private Replay replay = new Replay();
+
+    /**
+     * Settings for answering questions like recent ones from a cache.
+     */
+    private SemanticCache semanticCache = new SemanticCache();
+
+    @Data
+    public static class Coalescing {
+
+        /**
+         * How long consecutive tokens are collected before they are sent as
+         * one event. Zero sends every token on its own.
+         */
+        private Duration window = Duration.ofMillis(30);
+
+        /**
+         * Collected tokens are sent as soon as they reach this many characters.
+         */
+        private int maxChars = 1024;
+    }
+
+    @Data
+    public static class Titles {
+
+        /**
+         * The number of threads writing titles in the background.
+         */
+        private int threads = 2;
+
+        /**
+         * The number of titles that may wait for a thread. Further ones are
+         * skipped.
+         */
+        private int queueCapacity = 100;
+    }
+
+    @Data
+    public static class Admission {
+
+        /**
+         * The maximum number of turns of an owner queued or running at the
+         * same time. Further turns are rejected.
+         */
+        private int maxTurnsPerOwner = 4;
+
+        /**
+         * The maximum number of turns waiting for a slot. Further turns are
+         * rejected.
+         */
+        private int maxQueuedTurns = 200;
+
+        /**
+         * How long a turn waits for a slot before it is rejected.
+         */
+        private Duration queueTimeout = Duration.ofSeconds(10);
+
+        /**
+         * How long rejected clients are asked to wait before retrying.
+         */
+        private Duration retryAfter = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Replay {
+
+        /**
+         * How long the events of a run are kept after its last event.
+         */
+        private Duration ttl = Duration.ofMinutes(5);
+
+        /**
+         * The maximum number of events kept per run. Older events are dropped.
+         */
+        private int maxEventsPerRun = 4096;
+
+        /**
+         * The maximum estimated size of the events kept for all runs.
+         * Completed runs are dropped first, least recently written first.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How long a run keeps streaming without any client attached before it
+         * is cancelled. Zero cancels it as soon as its client disconnects.
+         */
+        private Duration disconnectGrace = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class SemanticCache {
+
+        /**
+         * Whether turns without context are answered from the answers to
+         * similar recent questions.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The cosine similarity of the embedded questions from which a cached
+         * answer is used, from 0 to 1.
+         */
+        private double similarityThreshold = 0.95;
+
+        /**
+         * The number of earlier messages a turn may have, e.g. a greeting, and
+         * still be cached. They are embedded with the question.
+         */
+        private int prefixMessages = 0;
+
+        /**
+         * How long an answer is used after it was generated.
+         */
+        private Duration ttl = Duration.ofHours(1);
+
+        /**
+         * The maximum number of cached answers. The oldest ones are dropped.
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * Owners whose turns are neither answered from nor added to the cache.
+         */
+        private Set<String> optOutOwners = new HashSet<>();
+    }
+
+    public enum Threads {
+        /**
+         * The model's HTTP client, the tools and the chat memory run on the
+         * HTTP client's platform thread pool, one thread per streaming turn.
+         */
+        PLATFORM,
+
+        /**
+         * Every turn, including its tool calls and chat memory reads and
+         * writes, runs on virtual threads.
+         */
+        VIRTUAL
+    }
+}
@@ -1,5 +1,7 @@
 package dev.chatbot.aiservice.properties;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -20,4 +22,9 @@ import lombok.Data;
 @ConfigurationProperties(prefix = "chatbot.embedding")
 public class EmbedProperties {
     private String baseUrl;
+
+    /**
+     * How long an embedding request may take.
+     */
+    private Duration timeout = Duration.ofSeconds(5);
 }
@@ -1,7 +1,14 @@
 package dev.chatbot.aiservice.properties;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 
 import lombok.Data;
 
@@ -30,6 +37,17 @@ public class LLMProperties {
      */
     private String apiKey;
 
+    /**
+     * Replicas serving the same model, e.g. several vLLM instances. Requests
+     * are spread over them. Defaults to {@link #baseUrl} alone.
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * Settings for spreading requests over {@link #endpoints}.
+     */
+    private Routing routing = new Routing();
+
     /**
      * The name of the model to be used.
      */
@@ -55,4 +73,284 @@ public class LLMProperties {
      * A higher value (e.g., 100) allows for longer responses.
      */
     private int maxTokens;
+
+    /**
+     * The name of the model that writes conversation titles, e.g. a smaller
+     * and faster one. Defaults to {@link #modelName}.
+     */
+    private String titleModelName;
+
+    /**
+     * The number of prompt tokens the chat memory may use, per model name.
+     * Only used when the memory window is measured in tokens.
+     */
+    private Map<String, Integer> contextBudgets = new HashMap<>();
+
+    /**
+     * The chat memory token budget of models without an entry in
+     * {@link #contextBudgets}.
+     */
+    private int defaultContextBudget = 8192;
+
+    /**
+     * Settings for hedging slow streaming requests.
+     */
+    private Hedging hedging = new Hedging();
+
+    /**
+     * Settings for reusing the responses to identical requests.
+     */
+    private ResponseCache responseCache = new ResponseCache();
+
+    /**
+     * Settings for the adaptive limit of concurrent model requests.
+     */
+    private Concurrency concurrency = new Concurrency();
+
+    /**
+     * Settings for failing fast while the model keeps failing.
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * The chat memory token budget of the configured model.
+     *
+     * @return the token budget
+     */
+    public int getContextBudget() {
+        return contextBudgets.getOrDefault(modelName, defaultContextBudget);
+    }
+
+    /**
+     * The name of the model that writes conversation titles.
+     *
+     * @return the title model name
+     */
+    public String getTitleModelName() {
+        return titleModelName == null || titleModelName.isBlank() ? modelName : titleModelName;
+    }
+
+    /**
+     * The endpoints to send requests to, with the API key filled in from
+     * {@link #apiKey} where missing.
+     *
+     * @return the configured endpoints, or {@link #baseUrl} alone
+     */
+    public List<Endpoint> resolveEndpoints() {
+        if (endpoints.isEmpty()) {
+            Endpoint endpoint = new Endpoint();
+            endpoint.setBaseUrl(baseUrl);
+            endpoint.setApiKey(apiKey);
+            return List.of(endpoint);
+        }
+        return endpoints.stream()
+                .map(configured -> {
+                    Endpoint endpoint = new Endpoint();
+                    endpoint.setName(configured.getName());
+                    endpoint.setBaseUrl(configured.getBaseUrl());
+                    endpoint.setApiKey(configured.getApiKey() == null ? apiKey : configured.getApiKey());
+                    return endpoint;
+                })
+                .toList();
+    }
+
+    @Data
+    public static class Endpoint {
+
+        /**
+         * The name of the endpoint in metrics and logs. Defaults to its base
+         * URL.
+         */
+        private String name;
+
+        /**
+         * The base URL of the endpoint.
+         */
+        private String baseUrl;
+
+        /**
+         * The API key of the endpoint. Defaults to the shared API key.
+         */
+        private String apiKey;
+
+        public String getName() {
+            return name == null || name.isBlank() ? baseUrl : name;
+        }
+    }
+
+    @Data
+    public static class Routing {
+
+        /**
+         * How many more outstanding tokens the endpoint a conversation sticks
+         * to may have than the least loaded one before the conversation is
+         * sent elsewhere.
+         */
+        private long affinitySlackTokens = 4096;
+    }
+
+    @Data
+    public static class ResponseCache {
+
+        /**
+         * Whether the responses to identical requests are reused.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Only requests sampled at this temperature or lower are cached, as
+         * others aren't meant to get the same response twice.
+         */
+        private double maxTemperature = 0.2;
+
+        /**
+         * The maximum estimated size of the cached responses. The least
+         * recently used ones are dropped.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How long a response is reused after it was generated.
+         */
+        private Duration ttl = Duration.ofDays(1);
+
+        /**
+         * The file the cached responses are saved to, so they survive
+         * restarts. Empty keeps them in memory only.
+         */
+        private String file = "data/response-cache.bin";
+
+        /**
+         * How often changed responses are saved to the file. They are also
+         * saved on shutdown.
+         */
+        private Duration saveInterval = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Hedging {
+
+        /**
+         * Whether a second request is sent when the first token is late.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The percentile of recent times to first token after which a request
+         * is hedged, from 0 to 1.
+         */
+        private double percentile = 0.95;
+
+        /**
+         * The number of recent times to first token the percentile is taken
+         * from.
+         */
+        private int samples = 200;
+
+        /**
+         * The delay until {@link #samples} / 10 times were recorded.
+         */
+        private Duration initialDelay = Duration.ofSeconds(2);
+
+        /**
+         * The delay is never shorter than this.
+         */
+        private Duration minDelay = Duration.ofMillis(100);
+
+        /**
+         * The delay is never longer than this.
+         */
+        private Duration maxDelay = Duration.ofSeconds(10);
+
+        /**
+         * Hedges allowed per request, on average, from 0 to 1. Bounds the
+         * extra requests, and so the extra tokens spent.
+         */
+        private double budgetRatio = 0.1;
+
+        /**
+         * Hedges allowed in a burst, e.g. after a quiet period.
+         */
+        private int budgetBurst = 10;
+    }
+
+    @Data
+    public static class Concurrency {
+
+        /**
+         * Whether the concurrent requests to the model are limited.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The limit before any request completed.
+         */
+        private int initialLimit = 20;
+
+        /**
+         * The limit never goes below this.
+         */
+        private int minLimit = 4;
+
+        /**
+         * The limit never goes above this.
+         */
+        private int maxLimit = 500;
+
+        /**
+         * How much of a new estimate is applied to the limit, from 0 to 1.
+         */
+        private double smoothing = 0.2;
+
+        /**
+         * How much higher than usual the time to first token may get before
+         * the limit is lowered.
+         */
+        private double tolerance = 1.5;
+
+        /**
+         * The limit is multiplied by this when a request fails.
+         */
+        private double backoffRatio = 0.9;
+
+        /**
+         * How long a request waits for the limit before it fails.
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class CircuitBreaker {
+
+        /**
+         * Whether requests fail fast while the model keeps failing.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The number of latest requests the failure rate is computed over.
+         */
+        private int windowSize = 20;
+
+        /**
+         * The number of requests needed before the circuit can open.
+         */
+        private int minimumCalls = 10;
+
+        /**
+         * The failure rate, from 0 to 1, that opens the circuit.
+         */
+        private double failureRateThreshold = 0.5;
+
+        /**
+         * How long the circuit stays open before trial requests are let
+         * through.
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * The number of trial requests that must succeed to close the circuit.
+         */
+        private int halfOpenCalls = 2;
+    }
 }
@@ -0,0 +1,201 @@
+package dev.chatbot.aiservice.properties;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+/**
+ * MemoryProperties is a configuration class that holds properties related to
+ * the chat memory of the assistant.
+ * The prefix "chatbot.memory" indicates that these properties are under the
+ * "chatbot.memory" section in the configuration file.
+ *
+ * @author zhoumo
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatbot.memory")
+public class MemoryProperties {
+
+    /**
+     * How chat messages are laid out in the database.
+     */
+    private StorageMode storage = StorageMode.APPEND;
+
+    /**
+     * How the model's context window is bounded.
+     */
+    private Window window = Window.MESSAGES;
+
+    /**
+     * The maximum number of messages kept in the model's context window.
+     */
+    private int maxMessages = 10;
+
+    /**
+     * The codec used to encode persisted chat histories and share snapshots.
+     */
+    private Codec codec = Codec.DEFLATE;
+
+    /**
+     * Histories whose JSON is shorter than this many characters are stored
+     * uncompressed.
+     */
+    private int compressThreshold = 512;
+
+    /**
+     * The deflate level (1-9) of the compressing codecs.
+     */
+    private int compressLevel = 1;
+
+    /**
+     * Write-behind settings for chat memory updates.
+     */
+    private WriteBehind writeBehind = new WriteBehind();
+
+    /**
+     * Read cache settings for deserialized chat memory.
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Settings for folding old turns into a running summary.
+     */
+    private Compaction compaction = new Compaction();
+
+    @Data
+    public static class WriteBehind {
+
+        /**
+         * Whether memory updates are kept in memory and flushed in the background.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long after the first pending update a conversation is flushed.
+         */
+        private Duration flushDelay = Duration.ofSeconds(2);
+
+        /**
+         * Whether the assistant flushes synchronously when a response completes,
+         * so a crash can only lose the updates of a turn that is still running.
+         */
+        private boolean flushOnComplete = true;
+
+        /**
+         * The longest delay between retries of a failed flush. Retries start
+         * at the flush delay and double after every failure.
+         */
+        private Duration maxRetryDelay = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Cache {
+
+        /**
+         * Whether deserialized message lists are cached in process.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum number of cached conversations.
+         */
+        private long maximumSize = 10_000;
+
+        /**
+         * The maximum estimated size of all cached messages, in bytes.
+         */
+        private long maximumWeight = 256L * 1024 * 1024;
+
+        /**
+         * The maximum share of the heap the cache may use. The effective weight
+         * limit is the smaller of this and {@link #maximumWeight}.
+         */
+        private double maximumHeapFraction = 0.1;
+
+        /**
+         * Whether cached lists are softly referenced, so the garbage collector
+         * can reclaim them under memory pressure.
+         */
+        private boolean softValues = false;
+    }
+
+    @Data
+    public static class Compaction {
+
+        /**
+         * Whether old turns are summarized once the window grows long.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of messages in the window (besides the system message)
+         * from which on a compaction is started.
+         */
+        private int triggerMessages = 8;
+
+        /**
+         * The number of latest messages that are never compacted.
+         */
+        private int keepMessages = 4;
+
+        /**
+         * The number of threads summarizing in the background.
+         */
+        private int threads = 2;
+
+        /**
+         * The number of compactions that may wait for a thread. Further ones
+         * are skipped and retried after the next turn.
+         */
+        private int queueCapacity = 100;
+    }
+
+    public enum StorageMode {
+        /**
+         * The whole message list is serialized into a single chat_history row,
+         * which is rewritten on every update. Only the context window is kept.
+         */
+        BLOB,
+
+        /**
+         * Every message is an individual chat_history_entry row keyed by
+         * (conversation id, sequence); updates only append the new tail.
+         * Messages leaving the context window stay in the transcript.
+         */
+        APPEND
+    }
+
+    public enum Window {
+        /**
+         * Keep the last {@link MemoryProperties#getMaxMessages()} messages.
+         */
+        MESSAGES,
+
+        /**
+         * Keep as many of the latest messages as fit into the model's token
+         * budget, see {@link LLMProperties#getContextBudget()}.
+         */
+        TOKENS
+    }
+
+    public enum Codec {
+        /**
+         * Plain UTF-8 JSON.
+         */
+        JSON,
+
+        /**
+         * Deflate-compressed JSON.
+         */
+        DEFLATE,
+
+        /**
+         * Smile (binary JSON), deflate-compressed.
+         */
+        SMILE
+    }
+}
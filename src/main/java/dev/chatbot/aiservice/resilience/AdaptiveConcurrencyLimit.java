@@ -0,0 +1,152 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * AdaptiveConcurrencyLimit bounds the requests in flight to a model with a
+ * limit that follows how fast the model answers, in the spirit of the
+ * gradient algorithm of Netflix' concurrency-limits.
+ * <p>
+ * Every completed request reports its time to first token. A long-term
+ * average of it stands for the latency of the model when it isn't queuing.
+ * While new samples stay within {@link LLMProperties.Concurrency#getTolerance()}
+ * of it, the limit moves towards itself plus its square root; as they climb
+ * above it the limit moves towards itself shrunk in proportion, at most by
+ * half. Each sample applies {@link LLMProperties.Concurrency#getSmoothing()}
+ * of the move. Failed requests
+ * multiply the limit with {@link LLMProperties.Concurrency#getBackoffRatio()}.
+ * The limit only grows while it is actually used.
+ *
+ * @author zhoumo
+ */
+public class AdaptiveConcurrencyLimit {
+
+    /**
+     * Weight of a sample in the long-term average.
+     */
+    private static final double LONG_TERM_WEIGHT = 0.05;
+
+    private final LLMProperties.Concurrency properties;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+
+    private double longRtt;
+
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimit(LLMProperties.Concurrency properties) {
+        this.properties = properties;
+        this.limit = properties.getInitialLimit();
+    }
+
+    /**
+     * Wait until a request can be sent.
+     *
+     * @param timeout how long to wait at most
+     * @return false if the limit stayed reached for the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a request acquired before.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjust the limit to the time to first token of a request.
+     *
+     * @param rtt the time to first token
+     * @param unit the unit of the time
+     */
+    public void onSample(long rtt, TimeUnit unit) {
+        double sample = Math.max(unit.toNanos(rtt), 1);
+        lock.lock();
+        try {
+            longRtt = longRtt == 0 ? sample : longRtt * (1 - LONG_TERM_WEIGHT) + sample * LONG_TERM_WEIGHT;
+            // Let the average recover quickly once the model got faster
+            if (longRtt / sample > 2) {
+                longRtt *= 0.95;
+            }
+            double gradient = Math.clamp(properties.getTolerance() * longRtt / sample, 0.5, 1.0);
+            double estimate = limit * gradient + Math.sqrt(limit);
+            if (inFlight < limit / 2) {
+                // Don't grow a limit that isn't used
+                estimate = Math.min(estimate, limit);
+            }
+            update(limit * (1 - properties.getSmoothing()) + estimate * properties.getSmoothing());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lower the limit after a request failed.
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            update(limit * properties.getBackoffRatio());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(double newLimit) {
+        double previous = limit;
+        limit = Math.clamp(newLimit, properties.getMinLimit(), properties.getMaxLimit());
+        if ((int) limit > (int) previous) {
+            released.signalAll();
+        }
+    }
+}
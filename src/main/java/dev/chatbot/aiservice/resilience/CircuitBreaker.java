@@ -0,0 +1,195 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * CircuitBreaker stops sending requests to a model that keeps failing.
+ * <p>
+ * The breaker is closed as long as less than
+ * {@link LLMProperties.CircuitBreaker#getFailureRateThreshold()} of the latest
+ * {@link LLMProperties.CircuitBreaker#getWindowSize()} requests failed. Once
+ * the rate is reached it opens and requests fail at once for
+ * {@link LLMProperties.CircuitBreaker#getOpenDuration()}. Then it lets
+ * {@link LLMProperties.CircuitBreaker#getHalfOpenCalls()} trial requests
+ * through: it closes once they all succeeded and opens again as soon as one
+ * fails.
+ *
+ * @author zhoumo
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final LLMProperties.CircuitBreaker properties;
+
+    private final LongSupplier nanoTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final boolean[] outcomes;
+
+    private State state = State.CLOSED;
+
+    private int calls;
+
+    private int failures;
+
+    private int next;
+
+    private long openUntil;
+
+    private int trials;
+
+    private int trialSuccesses;
+
+    public CircuitBreaker(LLMProperties.CircuitBreaker properties) {
+        this(properties, System::nanoTime);
+    }
+
+    CircuitBreaker(LLMProperties.CircuitBreaker properties, LongSupplier nanoTime) {
+        this.properties = properties;
+        this.nanoTime = nanoTime;
+        this.outcomes = new boolean[properties.getWindowSize()];
+    }
+
+    /**
+     * Ask whether a request may be sent. A request that is let through must
+     * report exactly one of success, failure or ignored.
+     *
+     * @return false if the request must fail at once
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (nanoTime.getAsLong() - openUntil < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trials = 0;
+                trialSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trials >= properties.getHalfOpenCalls()) {
+                    return false;
+                }
+                trials++;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tell whether a request would be let through, without asking for it.
+     *
+     * @return false while the circuit is open or all trials are running
+     */
+    public boolean isCallPermitted() {
+        lock.lock();
+        try {
+            return switch (state) {
+                case CLOSED -> true;
+                case OPEN -> nanoTime.getAsLong() - openUntil >= 0;
+                case HALF_OPEN -> trials < properties.getHalfOpenCalls();
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        lock.lock();
+        try {
+            switch (state) {
+                case CLOSED -> record(false);
+                case HALF_OPEN -> {
+                    if (++trialSuccesses >= properties.getHalfOpenCalls()) {
+                        close();
+                    }
+                }
+                case OPEN -> {}
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onFailure() {
+        lock.lock();
+        try {
+            switch (state) {
+                case CLOSED -> {
+                    record(true);
+                    if (calls >= properties.getMinimumCalls()
+                            && failures >= properties.getFailureRateThreshold() * calls) {
+                        open();
+                    }
+                }
+                case HALF_OPEN -> open();
+                case OPEN -> {}
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Report a request that says nothing about the health of the model, e.g.
+     * a cancelled or invalid one.
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN && trials > trialSuccesses) {
+                trials--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = nanoTime.getAsLong() + properties.getOpenDuration().toNanos();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+}
@@ -0,0 +1,145 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialThinkingContext;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.PartialToolCallContext;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+
+/**
+ * ForwardingHandler passes the events of a streaming request on to another
+ * handler and lets subclasses observe them.
+ * <p>
+ * Models don't report requests that are cancelled through their streaming
+ * handle, so the handles passed on are wrapped to report the cancel. The same
+ * handle of the model is always wrapped by the same object, as callers tell
+ * requests apart by their handle.
+ *
+ * @author zhoumo
+ */
+public abstract class ForwardingHandler implements StreamingChatResponseHandler {
+
+    protected final StreamingChatResponseHandler handler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private StreamingHandle handle;
+
+    private StreamingHandle forwardedHandle;
+
+    protected ForwardingHandler(StreamingChatResponseHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Called before a partial response, thinking or tool call is passed on.
+     */
+    protected void onToken() {}
+
+    /**
+     * Called before the complete response is passed on.
+     */
+    protected void onComplete(ChatResponse completeResponse) {}
+
+    /**
+     * Called before the error is passed on.
+     */
+    protected void onFailure(Throwable error) {}
+
+    /**
+     * Called after the request was cancelled through its handle.
+     */
+    protected void onCancel() {}
+
+    @Override
+    public void onPartialResponse(String partialResponse) {
+        onToken();
+        handler.onPartialResponse(partialResponse);
+    }
+
+    @Override
+    public void onPartialResponse(PartialResponse partialResponse, PartialResponseContext context) {
+        onToken();
+        handler.onPartialResponse(partialResponse, new PartialResponseContext(forward(context.streamingHandle())));
+    }
+
+    @Override
+    public void onPartialThinking(PartialThinking partialThinking) {
+        onToken();
+        handler.onPartialThinking(partialThinking);
+    }
+
+    @Override
+    public void onPartialThinking(PartialThinking partialThinking, PartialThinkingContext context) {
+        onToken();
+        handler.onPartialThinking(partialThinking, new PartialThinkingContext(forward(context.streamingHandle())));
+    }
+
+    @Override
+    public void onPartialToolCall(PartialToolCall partialToolCall) {
+        onToken();
+        handler.onPartialToolCall(partialToolCall);
+    }
+
+    @Override
+    public void onPartialToolCall(PartialToolCall partialToolCall, PartialToolCallContext context) {
+        onToken();
+        handler.onPartialToolCall(partialToolCall, new PartialToolCallContext(forward(context.streamingHandle())));
+    }
+
+    @Override
+    public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+        handler.onCompleteToolCall(completeToolCall);
+    }
+
+    @Override
+    public void onUnmappedRawEvent(Object rawEvent) {
+        handler.onUnmappedRawEvent(rawEvent);
+    }
+
+    @Override
+    public void onCompleteResponse(ChatResponse completeResponse) {
+        onComplete(completeResponse);
+        handler.onCompleteResponse(completeResponse);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        onFailure(error);
+        handler.onError(error);
+    }
+
+    /**
+     * Wrap the handle of the model so cancelling it is reported.
+     */
+    private StreamingHandle forward(StreamingHandle streamingHandle) {
+        lock.lock();
+        try {
+            if (streamingHandle != handle) {
+                handle = streamingHandle;
+                forwardedHandle = new StreamingHandle() {
+                    @Override
+                    public void cancel() {
+                        streamingHandle.cancel();
+                        onCancel();
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return streamingHandle.isCancelled();
+                    }
+                };
+            }
+            return forwardedHandle;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.Set;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import dev.chatbot.exception.ModelUnavailableException;
+
+/**
+ * GuardedChatModel sends the requests of a model through a
+ * {@link ModelGuard}. As the response arrives at once, its latency stands for
+ * the time to first token.
+ *
+ * @author zhoumo
+ */
+public class GuardedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final ModelGuard guard;
+
+    public GuardedChatModel(ChatModel delegate, ModelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    /**
+     * @throws ModelUnavailableException if the request fails fast
+     */
+    @Override
+    public ChatResponse chat(ChatRequest chatRequest) {
+        return chat(chatRequest, null);
+    }
+
+    /**
+     * @throws ModelUnavailableException if the request fails fast
+     */
+    @Override
+    public ChatResponse chat(ChatRequest chatRequest, ChatRequestOptions options) {
+        ModelGuard.Call call = guard.acquire();
+        try {
+            ChatResponse response = options == null ? delegate.chat(chatRequest) : delegate.chat(chatRequest, options);
+            call.complete();
+            return response;
+        } catch (RuntimeException e) {
+            call.fail(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
@@ -0,0 +1,112 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.Set;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import dev.chatbot.exception.ModelUnavailableException;
+
+/**
+ * GuardedStreamingChatModel sends the requests of a streaming model through a
+ * {@link ModelGuard}. The time to first token is the time until the first
+ * partial response, thinking or tool call. Requests that fail fast are
+ * reported to the handler as a {@link ModelUnavailableException}.
+ * <p>
+ * The streaming handles passed to the handler end the request when they are
+ * cancelled, as the model doesn't report cancelled requests.
+ *
+ * @author zhoumo
+ */
+public class GuardedStreamingChatModel implements StreamingChatModel {
+
+    private final StreamingChatModel delegate;
+
+    private final ModelGuard guard;
+
+    public GuardedStreamingChatModel(StreamingChatModel delegate, ModelGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        chat(chatRequest, null, handler);
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, ChatRequestOptions options, StreamingChatResponseHandler handler) {
+        ModelGuard.Call call;
+        try {
+            call = guard.acquire();
+        } catch (ModelUnavailableException e) {
+            handler.onError(e);
+            return;
+        }
+        GuardedHandler guardedHandler = new GuardedHandler(handler, call);
+        try {
+            if (options == null) {
+                delegate.chat(chatRequest, guardedHandler);
+            } else {
+                delegate.chat(chatRequest, options, guardedHandler);
+            }
+        } catch (RuntimeException e) {
+            call.fail(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+
+    /**
+     * Reports the events of a request to its call.
+     */
+    private static final class GuardedHandler extends ForwardingHandler {
+
+        private final ModelGuard.Call call;
+
+        GuardedHandler(StreamingChatResponseHandler handler, ModelGuard.Call call) {
+            super(handler);
+            this.call = call;
+        }
+
+        @Override
+        protected void onToken() {
+            call.onToken();
+        }
+
+        @Override
+        protected void onComplete(ChatResponse completeResponse) {
+            call.complete();
+        }
+
+        @Override
+        protected void onFailure(Throwable error) {
+            call.fail(error);
+        }
+
+        @Override
+        protected void onCancel() {
+            call.cancel();
+        }
+    }
+}
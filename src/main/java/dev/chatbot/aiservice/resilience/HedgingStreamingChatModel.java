@@ -0,0 +1,431 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialThinkingContext;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.PartialToolCallContext;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * HedgingStreamingChatModel sends a second request, preferably to another
+ * replica, when the first token of a request is late, and streams whichever
+ * request produces a token first.
+ * <p>
+ * A request is late after the {@link LLMProperties.Hedging#getPercentile()}
+ * of the recent times to first token of first requests. The request that
+ * loses the race is cancelled through its streaming handle as soon as it
+ * produces anything, so it stops generating; all its events are dropped.
+ * <p>
+ * Hedges are paid from a budget that grows by
+ * {@link LLMProperties.Hedging#getBudgetRatio()} with every request, up to
+ * {@link LLMProperties.Hedging#getBudgetBurst()}, and a request is hedged at
+ * most once, so hedging never more than doubles the requests and the tokens
+ * spent on them.
+ * <p>
+ * Hedges are counted in "llm.hedge.requests", tagged with the outcome:
+ * "fired", "won" when the hedge streamed the response, or "skipped" when the
+ * budget was spent. The current delay is published as "llm.hedge.delay".
+ *
+ * @author zhoumo
+ */
+@Slf4j
+public class HedgingStreamingChatModel implements StreamingChatModel {
+
+    private final RoutingStreamingChatModel router;
+
+    private final LLMProperties.Hedging properties;
+
+    private final Scheduler scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long[] samples;
+
+    private int sampleCount;
+
+    private int nextSample;
+
+    private double budget;
+
+    private volatile long delayNanos;
+
+    private final Counter fired;
+
+    private final Counter won;
+
+    private final Counter skipped;
+
+    /**
+     * @param router the replicas to send requests to
+     * @param properties the hedging settings
+     * @param scheduler runs the hedges; must allow blocking, as a request may
+     *     wait for the concurrency limit of its replica
+     * @param meterRegistry the meter registry
+     */
+    public HedgingStreamingChatModel(
+            RoutingStreamingChatModel router,
+            LLMProperties.Hedging properties,
+            Scheduler scheduler,
+            MeterRegistry meterRegistry) {
+        this.router = router;
+        this.properties = properties;
+        this.scheduler = scheduler;
+        this.samples = new long[properties.getSamples()];
+        this.budget = properties.getBudgetBurst();
+        this.delayNanos = properties.getInitialDelay().toNanos();
+        this.fired = counter(meterRegistry, "fired");
+        this.won = counter(meterRegistry, "won");
+        this.skipped = counter(meterRegistry, "skipped");
+        Gauge.builder("llm.hedge.delay", this, model -> model.delayNanos / 1_000_000.0)
+                .description("Time to first token after which streaming requests are hedged")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        chat(chatRequest, null, handler);
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, ChatRequestOptions options, StreamingChatResponseHandler handler) {
+        Race race = new Race(handler);
+        RoutingStreamingChatModel.Replica primary = router.select(chatRequest, null);
+        lock.lock();
+        try {
+            budget = Math.min(budget + properties.getBudgetRatio(), properties.getBudgetBurst());
+        } finally {
+            lock.unlock();
+        }
+        Attempt first = race.start();
+        race.hedge = scheduler.schedule(
+                () -> {
+                    Attempt hedge = race.startHedge();
+                    if (hedge != null) {
+                        log.debug("Hedging a request after {} ms", TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                        send(hedge, router.select(chatRequest, primary), chatRequest, options);
+                    }
+                },
+                delayNanos,
+                TimeUnit.NANOSECONDS);
+        send(first, primary, chatRequest, options);
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return router.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return router.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return router.supportedCapabilities();
+    }
+
+    Duration delay() {
+        return Duration.ofNanos(delayNanos);
+    }
+
+    private void send(
+            Attempt attempt,
+            RoutingStreamingChatModel.Replica replica,
+            ChatRequest chatRequest,
+            ChatRequestOptions options) {
+        try {
+            router.chat(replica, chatRequest, options, attempt);
+        } catch (RuntimeException e) {
+            attempt.onError(e);
+        }
+    }
+
+    private boolean spendBudget() {
+        lock.lock();
+        try {
+            if (budget < 1) {
+                return false;
+            }
+            budget--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the time to first token of a first request and update the delay
+     * every tenth of the window.
+     */
+    private void record(long ttftNanos) {
+        lock.lock();
+        try {
+            samples[nextSample] = ttftNanos;
+            nextSample = (nextSample + 1) % samples.length;
+            sampleCount = Math.min(sampleCount + 1, samples.length);
+            int step = Math.max(samples.length / 10, 1);
+            if (sampleCount < step || nextSample % step != 0) {
+                return;
+            }
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(Math.ceil(properties.getPercentile() * sorted.length), sorted.length) - 1;
+            delayNanos = Math.clamp(
+                    sorted[Math.max(index, 0)],
+                    properties.getMinDelay().toNanos(),
+                    properties.getMaxDelay().toNanos());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("llm.hedge.requests")
+                .description("Hedged streaming requests")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Race is a request and its hedge, racing for the first token.
+     */
+    private final class Race {
+
+        private final StreamingChatResponseHandler handler;
+
+        private final long startedAt = System.nanoTime();
+
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private int running;
+
+        private boolean hedged;
+
+        private boolean ended;
+
+        private volatile Disposable hedge;
+
+        Race(StreamingChatResponseHandler handler) {
+            this.handler = handler;
+        }
+
+        Attempt start() {
+            lock.lock();
+            try {
+                running++;
+                return new Attempt(this, true);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Start the hedge, unless the race is decided or over, or the budget
+         * is spent.
+         *
+         * @return the hedge, or null
+         */
+        Attempt startHedge() {
+            lock.lock();
+            try {
+                if (ended || hedged || winner.get() != null) {
+                    return null;
+                }
+                hedged = true;
+                if (!spendBudget()) {
+                    skipped.increment();
+                    return null;
+                }
+                fired.increment();
+                running++;
+                return new Attempt(this, false);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Let an attempt claim the response.
+         *
+         * @return true if the attempt streams the response
+         */
+        boolean claim(Attempt attempt) {
+            if (winner.get() == attempt) {
+                return true;
+            }
+            if (!winner.compareAndSet(null, attempt)) {
+                return false;
+            }
+            cancelHedge();
+            if (!attempt.first) {
+                won.increment();
+            }
+            return true;
+        }
+
+        /**
+         * An attempt failed before any attempt claimed the response.
+         *
+         * @return true if the error ends the response, as no other attempt
+         *     is running; a hedge that wasn't sent yet is dropped
+         */
+        boolean failed() {
+            lock.lock();
+            try {
+                if (--running > 0) {
+                    return false;
+                }
+                ended = true;
+                cancelHedge();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void cancelHedge() {
+            Disposable pending = hedge;
+            if (pending != null) {
+                pending.dispose();
+            }
+        }
+    }
+
+    /**
+     * Attempt is one of the requests of a race.
+     */
+    private final class Attempt implements StreamingChatResponseHandler {
+
+        private final Race race;
+
+        private final boolean first;
+
+        private final AtomicBoolean tokenSeen = new AtomicBoolean();
+
+        private final AtomicBoolean lost = new AtomicBoolean();
+
+        Attempt(Race race, boolean first) {
+            this.race = race;
+            this.first = first;
+        }
+
+        /**
+         * Called on every event carrying output.
+         *
+         * @return true if the event is passed on
+         */
+        private boolean onOutput(StreamingHandle handle) {
+            if (tokenSeen.compareAndSet(false, true) && first) {
+                record(System.nanoTime() - race.startedAt);
+            }
+            if (race.claim(this)) {
+                return true;
+            }
+            if (lost.compareAndSet(false, true) && handle != null) {
+                handle.cancel();
+            }
+            return false;
+        }
+
+        @Override
+        public void onPartialResponse(String partialResponse) {
+            if (onOutput(null)) {
+                race.handler.onPartialResponse(partialResponse);
+            }
+        }
+
+        @Override
+        public void onPartialResponse(PartialResponse partialResponse, PartialResponseContext context) {
+            if (onOutput(context.streamingHandle())) {
+                race.handler.onPartialResponse(partialResponse, context);
+            }
+        }
+
+        @Override
+        public void onPartialThinking(PartialThinking partialThinking) {
+            if (onOutput(null)) {
+                race.handler.onPartialThinking(partialThinking);
+            }
+        }
+
+        @Override
+        public void onPartialThinking(PartialThinking partialThinking, PartialThinkingContext context) {
+            if (onOutput(context.streamingHandle())) {
+                race.handler.onPartialThinking(partialThinking, context);
+            }
+        }
+
+        @Override
+        public void onPartialToolCall(PartialToolCall partialToolCall) {
+            if (onOutput(null)) {
+                race.handler.onPartialToolCall(partialToolCall);
+            }
+        }
+
+        @Override
+        public void onPartialToolCall(PartialToolCall partialToolCall, PartialToolCallContext context) {
+            if (onOutput(context.streamingHandle())) {
+                race.handler.onPartialToolCall(partialToolCall, context);
+            }
+        }
+
+        @Override
+        public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+            if (onOutput(null)) {
+                race.handler.onCompleteToolCall(completeToolCall);
+            }
+        }
+
+        @Override
+        public void onUnmappedRawEvent(Object rawEvent) {
+            if (race.winner.get() == this) {
+                race.handler.onUnmappedRawEvent(rawEvent);
+            }
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+            if (onOutput(null)) {
+                race.handler.onCompleteResponse(completeResponse);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (race.winner.get() == this || (race.winner.get() == null && race.failed())) {
+                race.handler.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.langchain4j.exception.NonRetriableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+import dev.chatbot.exception.ModelUnavailableException;
+
+/**
+ * ModelGuard protects a model from more requests than it can serve, with an
+ * {@link AdaptiveConcurrencyLimit} and a {@link CircuitBreaker}, either of
+ * which can be disabled.
+ * <p>
+ * Requests that fail with a {@link NonRetriableException}, e.g. an invalid
+ * request, and cancelled requests neither lower the limit nor count as
+ * failures of the model.
+ * <p>
+ * The limit is published as the "llm.concurrency.limit" gauge, the requests
+ * in flight as "llm.concurrency.inflight", the state of the breaker as
+ * "llm.circuit.state" (0 closed, 1 open, 2 half open) and requests that
+ * failed fast as "llm.requests.rejected", all tagged with the given tags.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+public class ModelGuard {
+
+    private final String name;
+
+    private final Tags tags;
+
+    private final AdaptiveConcurrencyLimit limit;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LLMProperties.Concurrency concurrency;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param name the name of the guarded model in messages
+     * @param tags the tags of the metrics, naming the model
+     * @param llmProperties the limit and circuit breaker settings
+     * @param meterRegistry the meter registry
+     */
+    public ModelGuard(String name, Tags tags, LLMProperties llmProperties, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.tags = tags;
+        this.concurrency = llmProperties.getConcurrency();
+        this.meterRegistry = meterRegistry;
+        this.limit = concurrency.isEnabled() ? new AdaptiveConcurrencyLimit(concurrency) : null;
+        this.circuitBreaker = llmProperties.getCircuitBreaker().isEnabled()
+                ? new CircuitBreaker(llmProperties.getCircuitBreaker())
+                : null;
+        if (limit != null) {
+            Gauge.builder("llm.concurrency.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                    .description("Adaptive limit of concurrent model requests")
+                    .tags(tags)
+                    .register(meterRegistry);
+            Gauge.builder("llm.concurrency.inflight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                    .description("Model requests in flight")
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+        if (circuitBreaker != null) {
+            Gauge.builder("llm.circuit.state", circuitBreaker, breaker -> breaker.getState()
+                            .ordinal())
+                    .description("State of the model circuit breaker: 0 closed, 1 open, 2 half open")
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Wait until a request may be sent to the model.
+     *
+     * @return the request, which must be completed, failed or cancelled
+     * @throws ModelUnavailableException if the circuit is open or the limit
+     *     stayed reached for the acquire timeout
+     */
+    public Call acquire() {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw reject("circuit_open", "Model " + name + " is failing, try again later");
+        }
+        if (limit != null) {
+            boolean acquired;
+            try {
+                acquired = limit.acquire(concurrency.getAcquireTimeout());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onIgnored();
+                }
+                throw reject("limit", "Model " + name + " is overloaded, try again later");
+            }
+        }
+        return new Call(System.nanoTime());
+    }
+
+    /**
+     * Tell whether requests are let through, without asking for one. Used to
+     * route requests away from a failing model.
+     *
+     * @return false while the circuit is open
+     */
+    public boolean isAvailable() {
+        return circuitBreaker == null || circuitBreaker.isCallPermitted();
+    }
+
+    AdaptiveConcurrencyLimit limit() {
+        return limit;
+    }
+
+    CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    private ModelUnavailableException reject(String reason, String message) {
+        Counter.builder("llm.requests.rejected")
+                .description("Model requests failed fast to protect the model")
+                .tags(tags)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        return new ModelUnavailableException(message);
+    }
+
+    /**
+     * Call is a request sent to the guarded model.
+     */
+    public final class Call {
+
+        private final long startedAt;
+
+        private final AtomicBoolean firstToken = new AtomicBoolean();
+
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Call(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Record the first token of the response; later calls have no effect.
+         */
+        public void onToken() {
+            if (firstToken.compareAndSet(false, true) && limit != null && !done.get()) {
+                limit.onSample(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * The request completed.
+         */
+        public void complete() {
+            onToken();
+            if (done.compareAndSet(false, true)) {
+                release();
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess();
+                }
+            }
+        }
+
+        /**
+         * The request failed.
+         *
+         * @param error the error
+         */
+        public void fail(Throwable error) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            release();
+            if (error instanceof NonRetriableException) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onIgnored();
+                }
+                return;
+            }
+            log.debug("Request to model {} failed: {}", name, error.getMessage());
+            if (limit != null) {
+                limit.onDropped();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+        }
+
+        /**
+         * The request was cancelled by its caller.
+         */
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                release();
+                if (circuitBreaker != null) {
+                    circuitBreaker.onIgnored();
+                }
+            }
+        }
+
+        private void release() {
+            if (limit != null) {
+                limit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatRequestOptions;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+/**
+ * RoutingStreamingChatModel spreads streaming requests over replicas of the
+ * same model.
+ * <p>
+ * A request holds its estimated prompt tokens until its first token and the
+ * output tokens it may still generate until it ends. A conversation sticks to
+ * the replica its prompt prefix hashes to (rendezvous hashing on the messages
+ * up to the first user message), so the replica can reuse its prefix cache,
+ * as long as that replica doesn't hold more than
+ * {@link LLMProperties.Routing#getAffinitySlackTokens()} tokens above the
+ * least loaded one; otherwise the request goes to the least loaded replica.
+ * Replicas whose {@link ModelGuard} has opened its circuit are skipped until
+ * it lets trial requests through again.
+ * <p>
+ * The outstanding tokens of every replica are published as the
+ * "llm.routing.outstanding.tokens" gauge, and routed requests are counted in
+ * "llm.routing.requests", tagged with the endpoint and whether the request
+ * went to its sticky replica.
+ *
+ * @author zhoumo
+ */
+public class RoutingStreamingChatModel implements StreamingChatModel {
+
+    private final List<Replica> replicas;
+
+    private final TokenCountEstimator tokenCountEstimator;
+
+    private final int maxTokens;
+
+    private final long affinitySlackTokens;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param replicas the replicas, each guarded by its own {@link ModelGuard}
+     * @param tokenCountEstimator estimates the prompt tokens of requests
+     * @param llmProperties the output token limit and routing settings
+     * @param meterRegistry the meter registry
+     */
+    public RoutingStreamingChatModel(
+            List<Replica> replicas,
+            TokenCountEstimator tokenCountEstimator,
+            LLMProperties llmProperties,
+            MeterRegistry meterRegistry) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("No replicas to route to");
+        }
+        this.replicas = List.copyOf(replicas);
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.maxTokens = llmProperties.getMaxTokens();
+        this.affinitySlackTokens = llmProperties.getRouting().getAffinitySlackTokens();
+        this.meterRegistry = meterRegistry;
+        for (Replica replica : this.replicas) {
+            Gauge.builder("llm.routing.outstanding.tokens", replica.outstandingTokens, AtomicLong::get)
+                    .description("Prompt and output tokens of the requests in flight to an endpoint")
+                    .tag("endpoint", replica.name)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        chat(chatRequest, null, handler);
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, ChatRequestOptions options, StreamingChatResponseHandler handler) {
+        chat(select(chatRequest, null), chatRequest, options, handler);
+    }
+
+    /**
+     * Pick the replica for a request.
+     *
+     * @param chatRequest the request
+     * @param excluded a replica to avoid if another one is available, or null
+     * @return the replica
+     */
+    Replica select(ChatRequest chatRequest, Replica excluded) {
+        Replica sticky = sticky(chatRequest.messages());
+        Replica replica = route(sticky, excluded);
+        Counter.builder("llm.routing.requests")
+                .description("Streaming requests routed to an endpoint")
+                .tag("endpoint", replica.name)
+                .tag("sticky", Boolean.toString(replica == sticky))
+                .register(meterRegistry)
+                .increment();
+        return replica;
+    }
+
+    /**
+     * Send a request to a replica.
+     */
+    void chat(
+            Replica replica,
+            ChatRequest chatRequest,
+            ChatRequestOptions options,
+            StreamingChatResponseHandler handler) {
+        int promptTokens = tokenCountEstimator.estimateTokenCountInMessages(chatRequest.messages());
+        Integer requestMaxTokens = chatRequest.maxOutputTokens();
+        int outputTokens = requestMaxTokens == null ? maxTokens : requestMaxTokens;
+        RoutedHandler routedHandler = new RoutedHandler(handler, replica, promptTokens, outputTokens);
+        try {
+            if (options == null) {
+                replica.model.chat(chatRequest, routedHandler);
+            } else {
+                replica.model.chat(chatRequest, options, routedHandler);
+            }
+        } catch (RuntimeException e) {
+            routedHandler.finish();
+            throw e;
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return replicas.getFirst().model.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return replicas.getFirst().model.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return replicas.getFirst().model.supportedCapabilities();
+    }
+
+    /**
+     * Pick the sticky replica, unless it has too many more outstanding tokens
+     * than the least loaded replica. Only available replicas other than the
+     * excluded one are considered, or all if there is none.
+     */
+    Replica route(Replica sticky, Replica excluded) {
+        List<Replica> available = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            if (replica != excluded && replica.guard.isAvailable()) {
+                available.add(replica);
+            }
+        }
+        if (available.isEmpty()) {
+            return sticky;
+        }
+        Replica least = available.getFirst();
+        for (Replica replica : available) {
+            if (replica.outstandingTokens.get() < least.outstandingTokens.get()
+                    || (replica.outstandingTokens.get() == least.outstandingTokens.get()
+                            && replica.inFlight.get() < least.inFlight.get())) {
+                least = replica;
+            }
+        }
+        if (available.contains(sticky)
+                && sticky.outstandingTokens.get() <= least.outstandingTokens.get() + affinitySlackTokens) {
+            return sticky;
+        }
+        return least;
+    }
+
+    /**
+     * The replica the prompt prefix of a conversation hashes to.
+     */
+    Replica sticky(List<ChatMessage> messages) {
+        long prefix = 17;
+        for (ChatMessage message : messages) {
+            prefix = prefix * 31 + message.hashCode();
+            if (message instanceof UserMessage) {
+                break;
+            }
+        }
+        Replica sticky = null;
+        long best = Long.MIN_VALUE;
+        for (Replica replica : replicas) {
+            long score = mix(prefix ^ mix(replica.name.hashCode()));
+            if (sticky == null || score > best) {
+                sticky = replica;
+                best = score;
+            }
+        }
+        return sticky;
+    }
+
+    /**
+     * The finalizer of MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Replica is an endpoint serving the model.
+     */
+    public static final class Replica {
+
+        private final String name;
+
+        private final StreamingChatModel model;
+
+        private final ModelGuard guard;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicLong outstandingTokens = new AtomicLong();
+
+        /**
+         * @param name the name of the endpoint
+         * @param model the model of the endpoint, sending requests through the guard
+         * @param guard the guard of the endpoint, telling whether it is healthy
+         */
+        public Replica(String name, StreamingChatModel model, ModelGuard guard) {
+            this.name = name;
+            this.model = model;
+            this.guard = guard;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public StreamingChatModel getModel() {
+            return model;
+        }
+
+        long outstandingTokens() {
+            return outstandingTokens.get();
+        }
+    }
+
+    /**
+     * Holds the tokens of a request on its replica until they are generated
+     * or the request ends.
+     */
+    private static final class RoutedHandler extends ForwardingHandler {
+
+        private final Replica replica;
+
+        private final AtomicLong promptTokens;
+
+        private final AtomicLong outputTokens;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        RoutedHandler(StreamingChatResponseHandler handler, Replica replica, int promptTokens, int outputTokens) {
+            super(handler);
+            this.replica = replica;
+            this.promptTokens = new AtomicLong(promptTokens);
+            this.outputTokens = new AtomicLong(outputTokens);
+            replica.inFlight.incrementAndGet();
+            replica.outstandingTokens.addAndGet(promptTokens + outputTokens);
+        }
+
+        @Override
+        protected void onToken() {
+            // The prompt has been processed once the first token arrives
+            release(promptTokens, Long.MAX_VALUE);
+            release(outputTokens, 1);
+        }
+
+        @Override
+        protected void onComplete(ChatResponse completeResponse) {
+            finish();
+        }
+
+        @Override
+        protected void onFailure(Throwable error) {
+            finish();
+        }
+
+        @Override
+        protected void onCancel() {
+            finish();
+        }
+
+        void finish() {
+            if (finished.compareAndSet(false, true)) {
+                release(promptTokens, Long.MAX_VALUE);
+                release(outputTokens, Long.MAX_VALUE);
+                replica.inFlight.decrementAndGet();
+            }
+        }
+
+        private void release(AtomicLong held, long tokens) {
+            long before = held.getAndUpdate(value -> Math.max(value - tokens, 0));
+            long released = Math.min(before, tokens);
+            if (released > 0) {
+                replica.outstandingTokens.addAndGet(-released);
+            }
+        }
+    }
+}
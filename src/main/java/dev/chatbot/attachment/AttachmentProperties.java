@@ -0,0 +1,32 @@
+package dev.chatbot.attachment;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import lombok.Data;
+
+/**
+ * AttachmentProperties is a configuration class that holds properties related
+ * to the attachment store.
+ * The prefix "chatbot.attachments" indicates that these properties are under
+ * the "chatbot.attachments" section in the configuration file.
+ *
+ * @author zhoumo
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatbot.attachments")
+public class AttachmentProperties {
+
+    /**
+     * The directory holding the segment files.
+     */
+    private String baseDir = "data/attachments";
+
+    /**
+     * A new segment file is started once the current one would grow beyond
+     * this size. Segments are memory-mapped as a whole, so at most 2GB.
+     */
+    private DataSize segmentSize = DataSize.ofMegabytes(256);
+}
@@ -0,0 +1,93 @@
+package dev.chatbot.attachment;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * AttachmentResource exposes the bytes of a stored attachment as a Spring
+ * {@link org.springframework.core.io.Resource}, so Spring MVC streams it and
+ * answers Range requests without copying it onto the heap.
+ *
+ * @author zhoumo
+ */
+public class AttachmentResource extends AbstractResource {
+
+    private final String hash;
+
+    private final ByteBuffer data;
+
+    public AttachmentResource(String hash, ByteBuffer data) {
+        this.hash = hash;
+        this.data = data;
+    }
+
+    @Override
+    public String getDescription() {
+        return "attachment " + hash;
+    }
+
+    @Override
+    public long contentLength() {
+        return data.remaining();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(data.duplicate());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof AttachmentResource resource && hash.equals(resource.hash));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    /**
+     * An input stream over a byte buffer, whose skip is a seek so ranges are
+     * read without touching the bytes before them.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package dev.chatbot.attachment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.domain.Attachment;
+import dev.chatbot.repository.AttachmentRepository;
+
+/**
+ * AttachmentStore keeps the media files of chat messages on the local disk,
+ * so chat histories, share snapshots and API responses only carry references
+ * to them.
+ * <p>
+ * Attachments are addressed by the SHA-256 of their bytes, so the same file
+ * is stored once however often it is sent. The bytes are appended to segment
+ * files, which are rolled over at {@link AttachmentProperties#getSegmentSize()},
+ * and each attachment's position is indexed in the {@link AttachmentRepository}.
+ * Segment files are forced to disk before the index entry is written, so an
+ * indexed attachment is always readable; bytes appended by a write that
+ * didn't commit are just never referenced.
+ * <p>
+ * Reads are served from read-only memory mappings of the segment files, which
+ * are shared by all readers and leave the bytes in the page cache rather than
+ * on the heap.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class AttachmentStore {
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d+)\\.dat");
+
+    private static final String DEFAULT_MEDIA_TYPE = "application/octet-stream";
+
+    private final AttachmentRepository attachmentRepository;
+
+    private final Path baseDir;
+
+    private final long segmentSize;
+
+    private final Map<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private int segment;
+
+    private FileChannel channel;
+
+    public AttachmentStore(AttachmentRepository attachmentRepository, AttachmentProperties properties) {
+        this.attachmentRepository = attachmentRepository;
+        this.baseDir = Path.of(properties.getBaseDir());
+        this.segmentSize = Math.min(properties.getSegmentSize().toBytes(), Integer.MAX_VALUE);
+        try {
+            Files.createDirectories(baseDir);
+            this.segment = lastSegment();
+            this.channel = open(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open attachment store at " + baseDir, e);
+        }
+    }
+
+    /**
+     * Store an attachment unless the same bytes are stored already.
+     *
+     * @param data the bytes
+     * @param mediaType the media type, or null if unknown
+     * @return the hash addressing the attachment
+     */
+    public String put(byte[] data, String mediaType) {
+        String hash = hash(data);
+        if (attachmentRepository.existsById(hash)) {
+            return hash;
+        }
+        int writtenSegment;
+        long offset;
+        writeLock.lock();
+        try {
+            if (channel.size() > 0 && channel.size() + data.length > segmentSize) {
+                channel.close();
+                channel = open(++segment);
+            }
+            writtenSegment = segment;
+            offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store attachment " + hash, e);
+        } finally {
+            writeLock.unlock();
+        }
+        attachmentRepository.insertIfAbsent(
+                hash, mediaType != null ? mediaType : DEFAULT_MEDIA_TYPE, writtenSegment, offset, data.length);
+        log.debug("Stored attachment {} ({} bytes) in segment {}", hash, data.length, writtenSegment);
+        return hash;
+    }
+
+    /**
+     * Look up an attachment.
+     *
+     * @param hash the hash addressing the attachment
+     * @return the attachment, if it is stored
+     */
+    public Optional<Attachment> find(String hash) {
+        if (hash == null || !HASH.matcher(hash).matches()) {
+            return Optional.empty();
+        }
+        return attachmentRepository.findById(hash);
+    }
+
+    /**
+     * Record that a conversation refers to an attachment, so its owner may
+     * read it.
+     *
+     * @param hash the hash addressing the attachment
+     * @param conversationId the conversation id
+     */
+    public void link(String hash, UUID conversationId) {
+        attachmentRepository.linkIfAbsent(hash, conversationId);
+    }
+
+    /**
+     * Whether an owner may read an attachment, i.e. one of their
+     * conversations refers to it.
+     *
+     * @param hash the hash addressing the attachment
+     * @param owner the owner
+     * @return true if the owner may read the attachment
+     */
+    public boolean isReadableBy(String hash, String owner) {
+        return attachmentRepository.isReferencedByOwner(hash, owner);
+    }
+
+    /**
+     * Record that the snapshot of a share refers to an attachment, so anyone
+     * viewing the share may read it.
+     *
+     * @param hash the hash addressing the attachment
+     * @param shareId the share id
+     */
+    public void linkShare(String hash, UUID shareId) {
+        attachmentRepository.linkShareIfAbsent(hash, shareId);
+    }
+
+    /**
+     * Whether the snapshot of a share is linked to an attachment.
+     *
+     * @param hash the hash addressing the attachment
+     * @param shareId the share id
+     * @return true if viewers of the share may read the attachment
+     */
+    public boolean isShared(String hash, UUID shareId) {
+        return attachmentRepository.isReferencedByShare(hash, shareId);
+    }
+
+    /**
+     * Read the bytes of an attachment.
+     *
+     * @param attachment the attachment
+     * @return a read-only view of the bytes in the segment's memory mapping
+     */
+    public ByteBuffer read(Attachment attachment) {
+        long end = attachment.getOffset() + attachment.getLength();
+        // the current segment keeps growing, so its mapping is replaced once it
+        // no longer covers the requested bytes
+        MappedByteBuffer mapping = mappings.compute(
+                attachment.getSegment(),
+                (segment, mapped) -> mapped != null && mapped.capacity() >= end ? mapped : map(segment));
+        return mapping.slice((int) attachment.getOffset(), (int) attachment.getLength());
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        writeLock.lock();
+        try {
+            channel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The hex-encoded SHA-256 of the given bytes.
+     *
+     * @param data the bytes
+     * @return the hash
+     */
+    static String hash(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MappedByteBuffer map(int segment) {
+        try (FileChannel file = FileChannel.open(path(segment), StandardOpenOption.READ)) {
+            return file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map attachment segment " + segment, e);
+        }
+    }
+
+    private FileChannel open(int segment) throws IOException {
+        return FileChannel.open(path(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Path path(int segment) {
+        return baseDir.resolve("segment-%06d.dat".formatted(segment));
+    }
+
+    private int lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(baseDir)) {
+            return files.map(file -> SEGMENT.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1)))
+                    .max()
+                    .orElse(0);
+        }
+    }
+}
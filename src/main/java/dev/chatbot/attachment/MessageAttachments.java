@@ -0,0 +1,226 @@
+package dev.chatbot.attachment;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dev.langchain4j.data.audio.Audio;
+import dev.langchain4j.data.image.Image;
+import dev.langchain4j.data.message.AudioContent;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.PdfFileContent;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.message.VideoContent;
+import dev.langchain4j.data.pdf.PdfFile;
+import dev.langchain4j.data.video.Video;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.domain.Attachment;
+
+/**
+ * MessageAttachments moves the base64 media of chat messages into the
+ * {@link AttachmentStore} and back.
+ * <p>
+ * Externalized media keep their media type, and their data is replaced by an
+ * {@code attachment:<hash>} URL. Messages are externalized before they are
+ * persisted and rehydrated when the context window is loaded for the model,
+ * which needs the data inline. Transcripts are read as they are stored, and
+ * their references are served by the attachments API to the owners of the
+ * conversations they are {@link #link(UUID, ChatMessage) linked} to.
+ * <p>
+ * The memory hands the same message instances to every update of a
+ * conversation, so the externalized form of a message is remembered for as
+ * long as the message is alive and its media is hashed only once.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class MessageAttachments {
+
+    static final String SCHEME = "attachment";
+
+    private static final String MISSING = "[missing attachment]";
+
+    private final AttachmentStore attachmentStore;
+
+    private final Cache<ChatMessage, ChatMessage> externalized =
+            Caffeine.newBuilder().weakKeys().build();
+
+    public MessageAttachments(AttachmentStore attachmentStore) {
+        this.attachmentStore = attachmentStore;
+    }
+
+    /**
+     * Replace the inline media of a message with attachment references.
+     *
+     * @param message the message
+     * @return the message without inline media
+     */
+    public ChatMessage externalize(ChatMessage message) {
+        if (!(message instanceof UserMessage userMessage)
+                || userMessage.contents().stream().noneMatch(content -> inlineData(content) != null)) {
+            return message;
+        }
+        return externalized.get(message, m -> withContents(userMessage, this::externalize));
+    }
+
+    /**
+     * Replace the attachment references of a message with inline media.
+     *
+     * @param message the message
+     * @return the message with inline media
+     */
+    public ChatMessage rehydrate(ChatMessage message) {
+        if (!(message instanceof UserMessage userMessage)
+                || userMessage.contents().stream().noneMatch(content -> reference(content) != null)) {
+            return message;
+        }
+        ChatMessage rehydrated = withContents(userMessage, this::rehydrate);
+        externalized.put(rehydrated, message);
+        return rehydrated;
+    }
+
+    /**
+     * Link the attachments an externalized message refers to with the
+     * conversation it is stored in.
+     *
+     * @param conversationId the conversation id
+     * @param message the externalized message
+     */
+    public void link(UUID conversationId, ChatMessage message) {
+        references(message).forEach(hash -> attachmentStore.link(hash, conversationId));
+    }
+
+    /**
+     * The hashes of the attachments an externalized message refers to.
+     *
+     * @param message the externalized message
+     * @return the hashes, without duplicates
+     */
+    public static Set<String> references(ChatMessage message) {
+        if (!(message instanceof UserMessage userMessage)) {
+            return Set.of();
+        }
+        return userMessage.contents().stream()
+                .map(MessageAttachments::reference)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * The hash an attachment URL refers to.
+     *
+     * @param url a media URL
+     * @return the hash, or null if the URL is not an attachment reference
+     */
+    public static String hash(URI url) {
+        return url != null && SCHEME.equals(url.getScheme()) ? url.getSchemeSpecificPart() : null;
+    }
+
+    private Content externalize(Content content) {
+        String data = inlineData(content);
+        if (data == null) {
+            return content;
+        }
+        String hash = attachmentStore.put(Base64.getDecoder().decode(data), mimeType(content));
+        return withSource(content, URI.create(SCHEME + ":" + hash), null);
+    }
+
+    private Content rehydrate(Content content) {
+        String hash = reference(content);
+        if (hash == null) {
+            return content;
+        }
+        Optional<Attachment> attachment = attachmentStore.find(hash);
+        if (attachment.isEmpty()) {
+            log.warn("Attachment {} is missing", hash);
+            return TextContent.from(MISSING);
+        }
+        ByteBuffer encoded = Base64.getEncoder().encode(attachmentStore.read(attachment.get()));
+        return withSource(content, null, new String(encoded.array(), StandardCharsets.US_ASCII));
+    }
+
+    private static UserMessage withContents(UserMessage message, UnaryOperator<Content> mapper) {
+        return message.toBuilder()
+                .contents(message.contents().stream().map(mapper).toList())
+                .build();
+    }
+
+    private static String inlineData(Content content) {
+        return switch (content) {
+            case ImageContent imageContent -> imageContent.image().base64Data();
+            case AudioContent audioContent -> audioContent.audio().base64Data();
+            case VideoContent videoContent -> videoContent.video().base64Data();
+            case PdfFileContent pdfFileContent -> pdfFileContent.pdfFile().base64Data();
+            default -> null;
+        };
+    }
+
+    private static String reference(Content content) {
+        URI url =
+                switch (content) {
+                    case ImageContent imageContent -> imageContent.image().url();
+                    case AudioContent audioContent -> audioContent.audio().url();
+                    case VideoContent videoContent -> videoContent.video().url();
+                    case PdfFileContent pdfFileContent -> pdfFileContent
+                            .pdfFile()
+                            .url();
+                    default -> null;
+                };
+        return hash(url);
+    }
+
+    private static String mimeType(Content content) {
+        return switch (content) {
+            case ImageContent imageContent -> imageContent.image().mimeType();
+            case AudioContent audioContent -> audioContent.audio().mimeType();
+            case VideoContent videoContent -> videoContent.video().mimeType();
+            case PdfFileContent pdfFileContent -> pdfFileContent.pdfFile().mimeType();
+            default -> null;
+        };
+    }
+
+    private static Content withSource(Content content, URI url, String data) {
+        return switch (content) {
+            case ImageContent imageContent -> ImageContent.from(
+                    Image.builder()
+                            .url(url)
+                            .base64Data(data)
+                            .mimeType(imageContent.image().mimeType())
+                            .build(),
+                    imageContent.detailLevel());
+            case AudioContent audioContent -> AudioContent.from(Audio.builder()
+                    .url(url)
+                    .base64Data(data)
+                    .mimeType(audioContent.audio().mimeType())
+                    .build());
+            case VideoContent videoContent -> VideoContent.from(Video.builder()
+                    .url(url)
+                    .base64Data(data)
+                    .mimeType(videoContent.video().mimeType())
+                    .build());
+            case PdfFileContent pdfFileContent -> PdfFileContent.from(PdfFile.builder()
+                    .url(url)
+                    .base64Data(data)
+                    .mimeType(pdfFileContent.pdfFile().mimeType())
+                    .build());
+            default -> content;
+        };
+    }
+}
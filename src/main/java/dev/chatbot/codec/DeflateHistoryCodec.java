@@ -0,0 +1,64 @@
+package dev.chatbot.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * DeflateHistoryCodec compresses the UTF-8 JSON with the JDK's deflate
+ * implementation, which needs no native library.
+ *
+ * @author zhoumo
+ */
+public class DeflateHistoryCodec implements HistoryCodec {
+
+    public static final byte ID = 1;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final int level;
+
+    public DeflateHistoryCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public void encode(String json, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater)) {
+            deflated.write(json.getBytes(UTF_8));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public String decode(InputStream in) throws IOException {
+        Inflater inflater = new Inflater();
+        try (InflaterInputStream inflated = new InflaterInputStream(in, inflater)) {
+            return new String(inflated.readAllBytes(), UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public JsonParser parse(InputStream in) throws IOException {
+        // the stream's own inflater is released when the parser closes it
+        return jsonFactory.createParser(new InflaterInputStream(in));
+    }
+}
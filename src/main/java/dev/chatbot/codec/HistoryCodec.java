@@ -0,0 +1,56 @@
+package dev.chatbot.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * HistoryCodec encodes the langchain4j JSON of persisted chat histories and
+ * share snapshots into the bytes stored in the database.
+ * <p>
+ * Every codec has a stable id that {@link HistoryCodecs} writes in front of
+ * the encoded body, so rows written with one codec can still be read after the
+ * configured codec changes.
+ *
+ * @author zhoumo
+ */
+public interface HistoryCodec {
+
+    /**
+     * The id of the codec, stored with every encoded payload.
+     * Ids must never be reused for a different encoding.
+     *
+     * @return the codec id
+     */
+    byte id();
+
+    /**
+     * Encode the given JSON.
+     *
+     * @param json the JSON to encode
+     * @param out the stream to write the encoded body to
+     * @throws IOException if the body can't be written
+     */
+    void encode(String json, OutputStream out) throws IOException;
+
+    /**
+     * Decode an encoded body back into JSON.
+     *
+     * @param in the stream to read the encoded body from
+     * @return the decoded JSON
+     * @throws IOException if the body can't be read
+     */
+    String decode(InputStream in) throws IOException;
+
+    /**
+     * Open a JSON parser over an encoded body, which decodes the body as it
+     * is read. Closing the parser closes the stream.
+     *
+     * @param in the stream to read the encoded body from
+     * @return the parser
+     * @throws IOException if the body can't be read
+     */
+    JsonParser parse(InputStream in) throws IOException;
+}
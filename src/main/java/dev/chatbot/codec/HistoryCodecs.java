@@ -0,0 +1,160 @@
+package dev.chatbot.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+
+/**
+ * HistoryCodecs encodes chat histories and share snapshots into the binary
+ * payload columns and decodes them back.
+ * <p>
+ * Every payload starts with a two byte header: the format version and the id
+ * of the {@link HistoryCodec} that wrote the body. Payloads are always decoded
+ * with the codec named in their header, so changing
+ * {@link MemoryProperties#getCodec()} only affects rows written afterwards.
+ * Bodies smaller than {@link MemoryProperties#getCompressThreshold()} are
+ * stored as plain JSON, since compressing them costs more than it saves.
+ * <p>
+ * Rows written before the payload columns existed only have their legacy TEXT
+ * column set; {@link #read(String, byte[])} accepts either.
+ * <p>
+ * {@link #forEachElement(String, byte[], Consumer)} streams the elements of a
+ * JSON array instead, decoding the payload as it goes, so a long history is
+ * never held in memory as a whole.
+ *
+ * @author zhoumo
+ */
+@Component
+public class HistoryCodecs {
+
+    static final byte VERSION = 1;
+
+    private final Map<Byte, HistoryCodec> codecs;
+
+    private final HistoryCodec codec;
+
+    private final int compressThreshold;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public HistoryCodecs(MemoryProperties memoryProperties) {
+        int level = memoryProperties.getCompressLevel();
+        this.codecs = Stream.of(new JsonHistoryCodec(), new DeflateHistoryCodec(level), new SmileHistoryCodec(level))
+                .collect(Collectors.toUnmodifiableMap(HistoryCodec::id, Function.identity()));
+        this.codec = codecs.get(
+                switch (memoryProperties.getCodec()) {
+                    case JSON -> JsonHistoryCodec.ID;
+                    case DEFLATE -> DeflateHistoryCodec.ID;
+                    case SMILE -> SmileHistoryCodec.ID;
+                });
+        this.compressThreshold = memoryProperties.getCompressThreshold();
+    }
+
+    /**
+     * Encode JSON with the configured codec.
+     *
+     * @param json the JSON to encode
+     * @return the payload, including its header
+     */
+    public byte[] encode(String json) {
+        HistoryCodec writer = json.length() < compressThreshold ? codecs.get(JsonHistoryCodec.ID) : codec;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length() / 4));
+        out.write(VERSION);
+        out.write(writer.id());
+        try {
+            writer.encode(json, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode chat history", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a payload written by {@link #encode(String)}.
+     *
+     * @param payload the payload, including its header
+     * @return the JSON
+     */
+    public String decode(byte[] payload) {
+        HistoryCodec reader = codec(payload);
+        try {
+            return reader.decode(new ByteArrayInputStream(payload, 2, payload.length - 2));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode chat history", e);
+        }
+    }
+
+    /**
+     * Read the JSON of a row that has either been written as a payload or is
+     * still in its legacy TEXT column.
+     *
+     * @param legacy the legacy JSON, may be null
+     * @param payload the encoded payload, may be null
+     * @return the JSON, or null when neither is set
+     */
+    public String read(String legacy, byte[] payload) {
+        return payload != null ? decode(payload) : legacy;
+    }
+
+    /**
+     * Stream the elements of a JSON array that has either been written as a
+     * payload or is still in its legacy TEXT column. Only one element is held
+     * in memory at a time.
+     *
+     * @param legacy the legacy JSON, may be null
+     * @param payload the encoded payload, may be null
+     * @param action receives the JSON of each element, in order
+     */
+    public void forEachElement(String legacy, byte[] payload, Consumer<String> action) {
+        if (payload == null && legacy == null) {
+            return;
+        }
+        try (JsonParser parser = payload != null ? parse(payload) : jsonFactory.createParser(legacy)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalStateException("Chat history is not a JSON array");
+            }
+            // one buffer for all elements, it only grows to the largest one
+            CharArrayWriter element = new CharArrayWriter();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                element.reset();
+                try (JsonGenerator generator = jsonFactory.createGenerator(element)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                action.accept(element.toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode chat history", e);
+        }
+    }
+
+    private JsonParser parse(byte[] payload) throws IOException {
+        return codec(payload).parse(new ByteArrayInputStream(payload, 2, payload.length - 2));
+    }
+
+    private HistoryCodec codec(byte[] payload) {
+        if (payload.length < 2 || payload[0] != VERSION) {
+            throw new IllegalStateException("Unsupported chat history payload version");
+        }
+        HistoryCodec reader = codecs.get(payload[1]);
+        if (reader == null) {
+            throw new IllegalStateException("Unknown chat history codec " + payload[1]);
+        }
+        return reader;
+    }
+}
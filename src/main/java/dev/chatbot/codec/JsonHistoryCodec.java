@@ -0,0 +1,43 @@
+package dev.chatbot.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * JsonHistoryCodec stores the JSON as plain UTF-8.
+ * It is used for payloads too small to be worth compressing.
+ *
+ * @author zhoumo
+ */
+public class JsonHistoryCodec implements HistoryCodec {
+
+    public static final byte ID = 0;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public void encode(String json, OutputStream out) throws IOException {
+        out.write(json.getBytes(UTF_8));
+    }
+
+    @Override
+    public String decode(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), UTF_8);
+    }
+
+    @Override
+    public JsonParser parse(InputStream in) throws IOException {
+        return jsonFactory.createParser(in);
+    }
+}
@@ -0,0 +1,81 @@
+package dev.chatbot.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * SmileHistoryCodec transcodes the JSON to Smile, Jackson's binary JSON
+ * format, and deflates the result.
+ * Smile back-references repeated field names and short string values, which
+ * removes most of the structural overhead of langchain4j's message JSON before
+ * the compressor sees it.
+ *
+ * @author zhoumo
+ */
+public class SmileHistoryCodec implements HistoryCodec {
+
+    public static final byte ID = 2;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final SmileFactory smileFactory = SmileFactory.builder()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+            .build();
+
+    private final int level;
+
+    public SmileHistoryCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public void encode(String json, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+                JsonParser parser = jsonFactory.createParser(json);
+                JsonGenerator generator = smileFactory.createGenerator(deflated)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public String decode(InputStream in) throws IOException {
+        Inflater inflater = new Inflater();
+        StringWriter json = new StringWriter();
+        try (InflaterInputStream inflated = new InflaterInputStream(in, inflater);
+                JsonParser parser = smileFactory.createParser(inflated);
+                JsonGenerator generator = jsonFactory.createGenerator(json)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } finally {
+            inflater.end();
+        }
+        return json.toString();
+    }
+
+    @Override
+    public JsonParser parse(InputStream in) throws IOException {
+        // the stream's own inflater is released when the parser closes it
+        return smileFactory.createParser(new InflaterInputStream(in));
+    }
+}
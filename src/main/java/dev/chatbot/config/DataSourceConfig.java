@@ -0,0 +1,31 @@
+package dev.chatbot.config;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import dev.chatbot.jdbc.MeteredDataSource;
+
+/**
+ * DataSource configuration class.
+ * This class wraps the connection pool in a {@link MeteredDataSource}, so the
+ * database usage of assistant turns can be measured.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public static BeanPostProcessor meteredDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof MeteredDataSource)) {
+                    return new MeteredDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+}
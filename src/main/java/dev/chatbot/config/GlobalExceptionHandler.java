@@ -1,5 +1,6 @@
 package dev.chatbot.config;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -8,7 +9,9 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 import dev.chatbot.exception.ForbiddenException;
+import dev.chatbot.exception.GoneException;
 import dev.chatbot.exception.RecordNotFoundException;
+import dev.chatbot.exception.TooManyRequestsException;
 
 /**
  * GlobalExceptionHandler
@@ -38,6 +41,18 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorMessage.toString(), HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * This method is used to handle the IllegalArgumentException, e.g. a
+     * malformed id or cursor.
+     *
+     * @param ex IllegalArgumentException
+     * @return ResponseEntity<String>
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleIllegalArgumentException(IllegalArgumentException ex) {
+        return new ResponseEntity<>("Bad request: " + ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
     /**
      * This method is used to handle the ForbiddenException.
      *
@@ -60,6 +75,32 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * This method is used to handle the GoneException.
+     *
+     * @param ex GoneException
+     * @return ResponseEntity<String>
+     */
+    @ExceptionHandler(GoneException.class)
+    public ResponseEntity<String> handleGoneException(GoneException ex) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.GONE);
+    }
+
+    /**
+     * This method is used to handle the TooManyRequestsException.
+     *
+     * @param ex TooManyRequestsException
+     * @return ResponseEntity<String>
+     */
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<String> handleTooManyRequestsException(TooManyRequestsException ex) {
+        // Retry-After is in whole seconds
+        long seconds = Math.max((ex.getRetryAfter().toMillis() + 999) / 1000, 1);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                .body(ex.getMessage());
+    }
+
     /**
      * This method is used to handle the other Exception.
      *
@@ -1,11 +1,12 @@
 package dev.chatbot.controller;
 
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -13,23 +14,37 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
 import dev.langchain4j.service.TokenStream;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import dev.chatbot.aiservice.StreamingAssistant;
-import dev.chatbot.aiservice.SummaryAssistant;
+import dev.chatbot.aiservice.cache.SemanticResponseCache;
+import dev.chatbot.aiservice.execution.RunBuffer;
+import dev.chatbot.aiservice.execution.RunBuffers;
+import dev.chatbot.aiservice.execution.RunRegistry;
+import dev.chatbot.aiservice.execution.TurnExecutor;
+import dev.chatbot.aiservice.listeners.StreamMetrics;
+import dev.chatbot.aiservice.memory.ChatMemoryCompactor;
+import dev.chatbot.aiservice.memory.WriteBehindChatMemoryStore;
+import dev.chatbot.aiservice.properties.AssistantProperties;
 import dev.chatbot.domain.Conversation;
 import dev.chatbot.dto.ChatMessage;
 import dev.chatbot.exception.ForbiddenException;
-import dev.chatbot.repository.ChatHistoryRepository;
+import dev.chatbot.jdbc.DatabaseUsage;
 import dev.chatbot.service.ConversationService;
+import dev.chatbot.service.TitleService;
 
-import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
 import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 import static dev.chatbot.utils.Json.toJson;
@@ -42,19 +57,42 @@ import static dev.chatbot.utils.Json.toJson;
  *
  * @author zhoumo
  */
+@Slf4j
 @RequestMapping("/api")
 @RestController
 @RequiredArgsConstructor
 @Tag(name = "Assistant", description = "Assistant API")
 public class AssistantController {
 
-    private final StreamingAssistant assistant;
+    /**
+     * Splits a cached answer before every whitespace run, roughly into the
+     * tokens of a model.
+     */
+    private static final Pattern TOKEN_BOUNDARY = Pattern.compile("(?=\\s+)(?<!\\s)");
 
-    private final SummaryAssistant summaryAssistant;
+    private final StreamingAssistant assistant;
 
     private final ConversationService conversationService;
 
-    private final ChatHistoryRepository chatHistoryRepository;
+    private final TitleService titleService;
+
+    private final WriteBehindChatMemoryStore chatMemoryStore;
+
+    private final ChatMemoryCompactor chatMemoryCompactor;
+
+    private final TurnExecutor turnExecutor;
+
+    private final RunRegistry runRegistry;
+
+    private final RunBuffers runBuffers;
+
+    private final AssistantProperties assistantProperties;
+
+    private final SemanticResponseCache semanticResponseCache;
+
+    private final ChatMemoryProvider chatMemoryProvider;
+
+    private final StreamMetrics streamMetrics;
 
     @PostMapping(value = "/{conversationId}/assistant", produces = TEXT_EVENT_STREAM_VALUE)
     @Operation(summary = "Assistant API", description = "Get assistant response")
@@ -64,9 +102,10 @@ public class AssistantController {
                 @ApiResponse(responseCode = "400", description = "Bad request"),
                 @ApiResponse(responseCode = "404", description = "Conversation not found"),
                 @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "429", description = "Too many turns in progress"),
                 @ApiResponse(responseCode = "500", description = "Internal server error")
             })
-    public Flux<String> assistant(
+    public Flux<ServerSentEvent<String>> assistant(
             @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner,
             @PathVariable String conversationId,
             @RequestBody ChatMessage message) {
@@ -80,96 +119,237 @@ public class AssistantController {
             throw new ForbiddenException("Owner does not match conversation owner");
         }
 
-        String runId = UUID.randomUUID().toString();
+        // Wait for a slot before the response starts, so an overloaded
+        // service can still answer with 429
+        TurnExecutor.Slot slot = this.turnExecutor.admit(owner);
 
-        return Flux.create(sink -> {
-            TokenStream tokenStream = this.assistant.chat(sessionId, message.getContent());
-
-            tokenStream
-                    .onPartialResponse(token -> {
-                        ChatMessage partialMessage = ChatMessage.builder()
-                                .id(runId)
-                                .parentId(message.getId())
-                                .type("AIMessageChunk")
-                                .from("ai")
-                                .sentAt(Instant.now())
-                                .content(token)
-                                .build();
-                        sink.next(toJson(partialMessage));
-                    })
-                    .onPartialThinking(partialThinking -> {
-                        ChatMessage thinkMessage = ChatMessage.builder()
-                                .id(runId)
-                                .parentId(message.getId())
-                                .type("AIMessageChunk")
-                                .from("ai")
-                                .sentAt(Instant.now())
-                                .reasoning(partialThinking.text())
-                                .content("") // Empty content when only thinking
-                                .build();
-                        sink.next(toJson(thinkMessage));
-                    })
-                    .onCompleteResponse(response -> {
-                        // After the main response is sent, trigger summarization if enabled
-                        var requireSummarization = message.getAdditionalKwargs().get("require_summarization");
-                        if (Boolean.TRUE.equals(requireSummarization)) {
-                            String title = this.summaryAssistant.summarize(chatMessages(sessionId));
-
-                            conversation.setTitle(title);
-                            this.conversationService.saveConversation(conversation);
-
-                            // Send the updated conversation with the new title
-                            ChatMessage summaryMessage = ChatMessage.builder()
-                                    .id(UUID.randomUUID().toString())
-                                    .type("info")
-                                    .from("ai")
-                                    .sentAt(Instant.now())
-                                    .content(title)
-                                    .build();
-                            sink.next(toJson(summaryMessage));
-                        }
+        String runId = UUID.randomUUID().toString();
+        RunBuffer buffer;
+        try {
+            // The run streams into its buffer, so a client can attach again and
+            // resume from the last event it received
+            buffer = this.runBuffers.create(runId, owner);
+            buffer.onAbandoned(this.assistantProperties.getReplay().getDisconnectGrace(), () -> this.runRegistry
+                    .find(runId)
+                    .ifPresent(run -> this.runRegistry.cancel(run, RunRegistry.Reason.CLIENT_DISCONNECT)));
 
-                        sink.next("[DONE]");
-                        sink.complete();
-                    })
-                    .onError(error -> {
-                        ChatMessage errorMessage = ChatMessage.builder()
-                                .id(runId)
-                                .parentId(message.getId())
-                                .type("error")
-                                .sentAt(Instant.now())
-                                .content("An error occurred: " + error.getMessage())
-                                .build();
-                        sink.next(toJson(errorMessage));
-                        sink.complete();
-                    })
-                    .start();
+            // Write the title while the assistant answers; it is sent whenever it
+            // is ready and is dropped if the response has completed by then.
+            var requireSummarization = message.getAdditionalKwargs().get("require_summarization");
+            if (Boolean.TRUE.equals(requireSummarization)) {
+                this.titleService.generateAsync(
+                        conversation, message.getContent(), title -> buffer.next(toJson(titleMessage(title))));
+            }
+        } catch (RuntimeException e) {
+            // The turn never starts, so give its slot back
+            this.turnExecutor.release(slot);
+            this.runBuffers.find(runId).ifPresent(RunBuffer::complete);
+            throw e;
+        }
+        this.turnExecutor.submit(slot, done -> streamTurn(buffer, done, sessionId, owner, message, runId), error -> {
+            this.runRegistry.find(runId).ifPresent(this.runRegistry::complete);
+            buffer.next(toJson(errorMessage(runId, message, error)));
+            buffer.complete();
         });
+        return buffer.subscribe(-1).map(AssistantController::serverSentEvent);
     }
 
     /**
-     * Retrieve chat messages for a given session ID and format them as a single
-     * string.
-     * @param sessionId the session ID
-     * @return the formatted chat messages
+     * Start an assistant turn and publish its tokens to the run buffer. The
+     * turn gives back its executor permit once the response completed, failed
+     * or was cancelled. The callbacks writing the turn count towards its
+     * database usage, and the tokens of the model are measured by
+     * {@link StreamMetrics}.
      */
-    private String chatMessages(UUID sessionId) {
-        var chatHistory = this.chatHistoryRepository.findById(sessionId).orElse(null);
-        if (chatHistory == null) {
-            return "No conversation history.";
+    private void streamTurn(
+            RunBuffer buffer, Runnable done, UUID sessionId, String owner, ChatMessage message, String runId) {
+        ChunkEncoder encoder = new ChunkEncoder(runId, message.getId());
+        ChunkCoalescer coalescer = new ChunkCoalescer(
+                this.assistantProperties.getCoalescing().getWindow(),
+                this.assistantProperties.getCoalescing().getMaxChars(),
+                Schedulers.parallel(),
+                (kind, text) -> buffer.next(encoder.encode(kind, text, Instant.now())));
+        DatabaseUsage usage = Optional.ofNullable(DatabaseUsage.current()).orElseGet(DatabaseUsage::new);
+        StreamMetrics.Stream stream = this.streamMetrics.start();
+        RunRegistry.Run run = this.runRegistry.register(
+                runId,
+                sessionId,
+                owner,
+                () -> usage.run(() -> {
+                    try {
+                        stream.onCancel();
+                        coalescer.flush();
+                        // The partial answer is dropped; keep the user message
+                        if (flushMemory(buffer, sessionId, runId, message)) {
+                            buffer.next("[DONE]");
+                        }
+                    } finally {
+                        buffer.complete();
+                        done.run();
+                    }
+                }));
+        if (buffer.isAbandoned()) {
+            // The client went away while the turn was queued
+            this.runRegistry.cancel(run, RunRegistry.Reason.CLIENT_DISCONNECT);
+            return;
         }
-        return messagesFromJson(chatHistory.getMessage()).stream()
-                .map(ChatMessage::fromLC)
-                .filter(Objects::nonNull)
-                .filter(message -> Objects.nonNull(message.getContent()))
-                .filter(message -> Arrays.asList("human", "ai").contains(message.getType()))
-                .map(message -> {
-                    return switch (message.getType()) {
-                        case "human" -> "Human: " + message.getContent();
-                        case "ai" -> "AI: " + message.getContent();
-                        default -> "";
-                    };
+        // Common first questions are answered from the cache
+        SemanticResponseCache.Lookup lookup = this.semanticResponseCache.lookup(
+                owner, () -> this.chatMemoryStore.getMessages(sessionId), message.getContent());
+        Optional<String> cachedAnswer = lookup.answer();
+        if (cachedAnswer.isPresent()) {
+            replayTurn(run, buffer, coalescer, stream, done, sessionId, message, runId, cachedAnswer.get());
+            return;
+        }
+        AtomicBoolean toolsCalled = new AtomicBoolean();
+        TokenStream tokenStream = this.assistant.chat(sessionId, message.getContent());
+
+        tokenStream
+                .onPartialResponseWithContext((partialResponse, context) -> {
+                    if (run.onToken(context.streamingHandle())) {
+                        stream.onToken();
+                        coalescer.append(ChunkCoalescer.Kind.CONTENT, partialResponse.text());
+                    }
+                })
+                .onPartialThinkingWithContext((partialThinking, context) -> {
+                    if (run.onToken(context.streamingHandle())) {
+                        stream.onToken();
+                        coalescer.append(ChunkCoalescer.Kind.REASONING, partialThinking.text());
+                    }
                 })
-                .collect(Collectors.joining("\n"));
+                .beforeToolExecution(beforeToolExecution -> {
+                    toolsCalled.set(true);
+                    stream.onToolCall();
+                    run.beforeTool();
+                })
+                .onCompleteResponse(response -> usage.run(() -> {
+                    // A cancel that claimed the run first ends the response
+                    if (!this.runRegistry.complete(run)) {
+                        return;
+                    }
+                    try {
+                        stream.onComplete();
+                        coalescer.flush();
+                        // Persist the turn before anything else reads it back
+                        if (!flushMemory(buffer, sessionId, runId, message)) {
+                            return;
+                        }
+                        // Fold old turns into the summary in the background
+                        this.chatMemoryCompactor.compactAsync(sessionId);
+                        if (!toolsCalled.get()) {
+                            lookup.store(response.aiMessage().text());
+                        }
+
+                        buffer.next("[DONE]");
+                    } finally {
+                        buffer.complete();
+                        done.run();
+                    }
+                }))
+                .onError(error -> usage.run(() -> {
+                    // A cancel that claimed the run first ends the response
+                    if (!this.runRegistry.complete(run)) {
+                        return;
+                    }
+                    try {
+                        stream.onError();
+                        coalescer.flush();
+                        buffer.next(toJson(errorMessage(runId, message, error)));
+                        flushMemory(buffer, sessionId, runId, message);
+                    } finally {
+                        buffer.complete();
+                        done.run();
+                    }
+                }))
+                .start();
+    }
+
+    /**
+     * Stream a cached answer in chunks like a model would, and add the turn to
+     * the conversation. The stream is recorded as answered from the cache.
+     */
+    private void replayTurn(
+            RunRegistry.Run run,
+            RunBuffer buffer,
+            ChunkCoalescer coalescer,
+            StreamMetrics.Stream stream,
+            Runnable done,
+            UUID sessionId,
+            ChatMessage message,
+            String runId,
+            String answer) {
+        if (!this.runRegistry.complete(run)) {
+            return;
+        }
+        try {
+            stream.onCached();
+            for (String token : TOKEN_BOUNDARY.split(answer)) {
+                coalescer.append(ChunkCoalescer.Kind.CONTENT, token);
+            }
+            ChatMemory chatMemory = this.chatMemoryProvider.get(sessionId);
+            chatMemory.add(UserMessage.from(message.getContent()));
+            chatMemory.add(AiMessage.from(answer));
+            coalescer.flush();
+            if (!flushMemory(buffer, sessionId, runId, message)) {
+                return;
+            }
+            this.chatMemoryCompactor.compactAsync(sessionId);
+
+            buffer.next("[DONE]");
+        } finally {
+            buffer.complete();
+            done.run();
+        }
+    }
+
+    /**
+     * Write the pending memory of a turn if the store flushes on completion.
+     * A failed write is sent to the client as an error event; the store keeps
+     * the messages pending and retries them.
+     *
+     * @return true if the memory was written or is written later
+     */
+    private boolean flushMemory(RunBuffer buffer, UUID sessionId, String runId, ChatMessage message) {
+        if (!this.chatMemoryStore.isFlushOnComplete()) {
+            return true;
+        }
+        try {
+            this.chatMemoryStore.flush(sessionId);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to save turn of conversation {}: {}", sessionId, e.getMessage());
+            buffer.next(toJson(errorMessage(runId, message, e)));
+            return false;
+        }
+    }
+
+    /**
+     * Wrap an event of a run buffer as a server-sent event whose id can be
+     * sent back as Last-Event-ID to resume the response.
+     */
+    static ServerSentEvent<String> serverSentEvent(RunBuffer.Event event) {
+        return ServerSentEvent.builder(event.data())
+                .id(Long.toString(event.id()))
+                .build();
+    }
+
+    private static ChatMessage titleMessage(String title) {
+        return ChatMessage.builder()
+                .id(UUID.randomUUID().toString())
+                .type("info")
+                .from("ai")
+                .sentAt(Instant.now())
+                .content(title)
+                .build();
+    }
+
+    private static ChatMessage errorMessage(String runId, ChatMessage message, Throwable error) {
+        return ChatMessage.builder()
+                .id(runId)
+                .parentId(message.getId())
+                .type("error")
+                .sentAt(Instant.now())
+                .content("An error occurred: " + error.getMessage())
+                .build();
     }
 }
@@ -0,0 +1,86 @@
+package dev.chatbot.controller;
+
+import java.time.Duration;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+
+import dev.chatbot.attachment.AttachmentResource;
+import dev.chatbot.attachment.AttachmentStore;
+import dev.chatbot.domain.Attachment;
+import dev.chatbot.exception.ForbiddenException;
+import dev.chatbot.exception.RecordNotFoundException;
+
+/**
+ * AttachmentController is a REST controller that serves the media files
+ * referenced by chat messages.
+ * <p>
+ * Attachments are addressed by the SHA-256 of their content, so a response
+ * never changes: the hash is its ETag and clients may cache it for good.
+ * Range requests are answered with partial content, e.g. to seek in audio
+ * and video. An attachment is only served to the owners of the conversations
+ * referring to it, so responses may only be cached privately. Viewers of a
+ * share read its attachments through the share, see {@link ShareController}.
+ *
+ * @author zhoumo
+ */
+@RestController
+@RequestMapping("/api/attachments")
+@RequiredArgsConstructor
+@Tag(name = "Attachment", description = "Attachment API")
+public class AttachmentController {
+
+    private final AttachmentStore attachmentStore;
+
+    @GetMapping("/{hash}")
+    @Operation(summary = "Get an attachment", description = "Get the content of an attachment")
+    @ApiResponses(
+            value = {
+                @ApiResponse(responseCode = "200", description = "Successful"),
+                @ApiResponse(responseCode = "206", description = "Partial content"),
+                @ApiResponse(responseCode = "304", description = "Not modified"),
+                @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "404", description = "Attachment not found"),
+                @ApiResponse(responseCode = "500", description = "Internal server error")
+            })
+    public ResponseEntity<Resource> getAttachment(
+            @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner, @PathVariable String hash) {
+        Attachment attachment =
+                attachmentStore.find(hash).orElseThrow(() -> new RecordNotFoundException("Attachment not found"));
+        if (!attachmentStore.isReadableBy(attachment.getHash(), owner)) {
+            throw new ForbiddenException("Owner does not match attachment owner");
+        }
+        return serve(attachmentStore, attachment);
+    }
+
+    /**
+     * Answer with the content of an attachment, which never changes.
+     *
+     * @param attachmentStore the store holding the attachment
+     * @param attachment the attachment
+     * @return the response, cached privately
+     */
+    static ResponseEntity<Resource> serve(AttachmentStore attachmentStore, Attachment attachment) {
+        return ResponseEntity.ok()
+                .eTag(attachment.getHash())
+                .cacheControl(
+                        CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(MediaType.parseMediaType(attachment.getMediaType()))
+                .body(new AttachmentResource(attachment.getHash(), attachmentStore.read(attachment)));
+    }
+}
@@ -0,0 +1,133 @@
+package dev.chatbot.controller;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * ChunkCoalescer merges the tokens a model streams into fewer, larger chunks,
+ * so a response is sent in a few dozen events instead of one per token.
+ * <p>
+ * Consecutive tokens of the same kind are collected until the window has
+ * passed since the first of them, until they reach the size limit or until a
+ * token of the other kind arrives, whichever comes first. The first token of
+ * each kind is emitted right away, so the time to the first token and to the
+ * first answer token after the reasoning is unchanged. Callers must
+ * {@link #flush()} before they emit anything else, e.g. the end of the
+ * response, so the order of events is kept.
+ * <p>
+ * Chunks are emitted on the thread that appended the last token, or on the
+ * scheduler once the window has passed, but never concurrently.
+ *
+ * @author zhoumo
+ */
+final class ChunkCoalescer {
+
+    enum Kind {
+        CONTENT,
+        REASONING
+    }
+
+    private final Duration window;
+
+    private final int maxChars;
+
+    private final Scheduler scheduler;
+
+    private final BiConsumer<Kind, String> emit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Set<Kind> started = EnumSet.noneOf(Kind.class);
+
+    private final StringBuilder pending = new StringBuilder();
+
+    private Kind pendingKind;
+
+    private Disposable scheduled;
+
+    /**
+     * @param window how long tokens are collected, zero to emit every token
+     * @param maxChars the number of collected characters that are emitted right away
+     * @param scheduler the scheduler emitting collected tokens once the window has passed
+     * @param emit called with every chunk
+     */
+    ChunkCoalescer(Duration window, int maxChars, Scheduler scheduler, BiConsumer<Kind, String> emit) {
+        this.window = window;
+        this.maxChars = maxChars;
+        this.scheduler = scheduler;
+        this.emit = emit;
+    }
+
+    /**
+     * Add a streamed token.
+     *
+     * @param kind whether the token is part of the answer or of the reasoning
+     * @param text the token
+     */
+    void append(Kind kind, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (pendingKind != kind) {
+                emitPending();
+            }
+            if (started.add(kind) || window.isZero()) {
+                emit.accept(kind, text);
+                return;
+            }
+            pending.append(text);
+            pendingKind = kind;
+            if (pending.length() >= maxChars) {
+                emitPending();
+            } else if (scheduled == null) {
+                scheduled = scheduler.schedule(this::onWindowPassed, window.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Emit the collected tokens now.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            emitPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onWindowPassed() {
+        lock.lock();
+        try {
+            scheduled = null;
+            emitPending();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void emitPending() {
+        if (scheduled != null) {
+            scheduled.dispose();
+            scheduled = null;
+        }
+        if (!pending.isEmpty()) {
+            String text = pending.toString();
+            pending.setLength(0);
+            emit.accept(pendingKind, text);
+        }
+        pendingKind = null;
+    }
+}
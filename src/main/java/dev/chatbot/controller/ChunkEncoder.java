@@ -0,0 +1,148 @@
+package dev.chatbot.controller;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import dev.chatbot.dto.ChatMessage;
+import dev.chatbot.utils.Json;
+
+/**
+ * ChunkEncoder writes the AIMessageChunk events of one assistant run.
+ * <p>
+ * The events of a run only differ in their text and timestamp, so the
+ * fields before them are serialized once per run, and every chunk is escaped
+ * into a reused buffer instead of going through a {@link ChatMessage} and
+ * the object mapper. The output is the same as {@link Json#toJson(Object)}
+ * of the equivalent message.
+ * <p>
+ * An encoder is not thread safe; the {@link ChunkCoalescer} of the run
+ * never emits concurrently.
+ *
+ * @author zhoumo
+ */
+final class ChunkEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String prefix;
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    private long cachedSecond = Long.MIN_VALUE;
+
+    private String cachedSecondText;
+
+    /**
+     * @param runId the id of the run, shared by all of its chunks
+     * @param parentId the id of the user message the run answers
+     */
+    ChunkEncoder(String runId, String parentId) {
+        StringBuilder prefix = new StringBuilder("{\"id\":");
+        appendString(prefix, runId);
+        prefix.append(",\"parent_id\":");
+        appendString(prefix, parentId);
+        prefix.append(",\"from\":\"ai\",\"sent_at\":");
+        this.prefix = prefix.toString();
+    }
+
+    /**
+     * Encode a chunk of a response.
+     *
+     * @param kind whether the text is part of the answer or of the reasoning
+     * @param text the text
+     * @param sentAt the time the chunk is sent
+     * @return the JSON of the chunk message
+     */
+    String encode(ChunkCoalescer.Kind kind, String text, Instant sentAt) {
+        StringBuilder json = buffer;
+        json.setLength(0);
+        json.append(prefix);
+        if (sentAt == null) {
+            json.append("null");
+        } else {
+            json.append('"');
+            appendInstant(json, sentAt);
+            json.append('"');
+        }
+        json.append(",\"type\":\"AIMessageChunk\",\"content\":");
+        if (kind == ChunkCoalescer.Kind.CONTENT) {
+            appendString(json, text);
+            json.append(",\"reasoning\":null");
+        } else {
+            // Empty content when only thinking
+            json.append("\"\",\"reasoning\":");
+            appendString(json, text);
+        }
+        json.append(",\"additional_kwargs\":null}");
+        String encoded = json.toString();
+        if (json.capacity() > 64 * 1024) {
+            // Don't hold on to the buffer of an unusually long chunk
+            json.setLength(0);
+            json.trimToSize();
+        }
+        return encoded;
+    }
+
+    /**
+     * Append an instant like {@link DateTimeFormatter#ISO_INSTANT}. Formatting
+     * the date allocates, so it is only done once a second.
+     */
+    private void appendInstant(StringBuilder json, Instant instant) {
+        long second = instant.getEpochSecond();
+        if (second != cachedSecond) {
+            String text = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(second));
+            cachedSecondText = text.substring(0, text.length() - 1);
+            cachedSecond = second;
+        }
+        json.append(cachedSecondText);
+        int nano = instant.getNano();
+        if (nano != 0) {
+            json.append('.');
+            if (nano % 1_000_000 == 0) {
+                appendDigits(json, nano / 1_000_000, 100);
+            } else if (nano % 1_000 == 0) {
+                appendDigits(json, nano / 1_000, 100_000);
+            } else {
+                appendDigits(json, nano, 100_000_000);
+            }
+        }
+        json.append('Z');
+    }
+
+    private static void appendDigits(StringBuilder json, int value, int highestDivisor) {
+        for (int divisor = highestDivisor; divisor > 0; divisor /= 10) {
+            json.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Append a JSON string, escaped like Jackson does by default.
+     */
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            json.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\b' -> json.append("\\b");
+                case '\t' -> json.append("\\t");
+                case '\f' -> json.append("\\f");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                default -> json.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        json.append(value, start, value.length()).append('"');
+    }
+}
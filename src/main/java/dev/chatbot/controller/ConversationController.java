@@ -1,12 +1,18 @@
 package dev.chatbot.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -19,25 +25,28 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import dev.langchain4j.data.message.ChatMessageType;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 
-import dev.chatbot.domain.ChatHistory;
+import dev.chatbot.aiservice.memory.ChatTranscriptStore;
+import dev.chatbot.aiservice.memory.TranscriptPage;
 import dev.chatbot.domain.Conversation;
 import dev.chatbot.dto.ChatMessage;
 import dev.chatbot.dto.ConversationCreate;
 import dev.chatbot.dto.ConversationUpdate;
-import dev.chatbot.repository.ChatHistoryRepository;
 import dev.chatbot.service.ConversationService;
 import dev.chatbot.vo.Chat;
+import dev.chatbot.vo.CursorPage;
 import dev.chatbot.vo.PageBean;
 
-import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
-
 /**
  * ConversationController is a REST controller that handles requests related to
  * conversations.
@@ -52,8 +61,15 @@ import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJ
 @Tag(name = "Conversation", description = "Conversation API")
 public class ConversationController {
 
+    /**
+     * The message types shown to users.
+     */
+    private static final Set<ChatMessageType> DISPLAYED_TYPES = EnumSet.of(ChatMessageType.USER, ChatMessageType.AI);
+
+    private static final int MAX_MESSAGES_LIMIT = 100;
+
     private final ConversationService conversationService;
-    private final ChatHistoryRepository chatHistoryRepository;
+    private final ChatTranscriptStore chatTranscriptStore;
 
     /**
      * This method is used to create a new conversation.
@@ -149,13 +165,16 @@ public class ConversationController {
     @Operation(summary = "Get a conversation", description = "Get a conversation")
     @ApiResponses(
             value = {
-                @ApiResponse(responseCode = "200", description = "Successful"),
+                @ApiResponse(
+                        responseCode = "200",
+                        description = "Successful",
+                        content = @Content(schema = @Schema(implementation = Chat.class))),
                 @ApiResponse(responseCode = "400", description = "Bad request"),
                 @ApiResponse(responseCode = "403", description = "Forbidden"),
                 @ApiResponse(responseCode = "404", description = "Conversation not found"),
                 @ApiResponse(responseCode = "500", description = "Internal server error")
             })
-    public ResponseEntity<Chat> getConversation(
+    public ResponseEntity<StreamingResponseBody> getConversation(
             @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner, @PathVariable String convId) {
         UUID conversationId = UUID.fromString(convId);
         Conversation conversation = conversationService.getConversation(conversationId);
@@ -163,29 +182,58 @@ public class ConversationController {
             return new ResponseEntity<>(HttpStatus.FORBIDDEN);
         }
 
-        // Retrieve chat histories for the conversation and convert them to messages
-        List<ChatMessage> messages = List.of();
-        ChatHistory history = chatHistoryRepository.findById(conversationId).orElse(null);
-        if (Objects.nonNull(history)) {
-            messages = messagesFromJson(history.getMessage()).stream()
-                    .map(ChatMessage::fromLC)
-                    .filter(Objects::nonNull)
-                    // Remove empty messages and messages with only new lines(functional messages)
-                    .filter(message -> Objects.nonNull(message.getContent())
-                            && !message.getContent().equals("\n\n"))
-                    // TODO: chatbot only stream "human" and "ai" message now, so we just show these two types
-                    // here. In the future, we may need to show other types of messages.
-                    .filter(message -> Arrays.asList("human", "ai").contains(message.getType()))
-                    .toList();
-        }
         Chat chat = Chat.builder()
                 .id(conversation.getId().toString())
                 .title(conversation.getTitle())
                 .updatedAt(conversation.getUpdatedAt())
                 .owner(conversation.getOwner())
-                .messages(messages)
                 .build();
-        return ResponseEntity.ok(chat);
+        // Stream chat histories for the conversation into the response, converting them to messages on the way
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(StreamingChatResponse.of(
+                        chat,
+                        ConversationController::displayed,
+                        action ->
+                                chatTranscriptStore.forEachTranscriptMessage(conversationId, DISPLAYED_TYPES, action)));
+    }
+
+    @GetMapping("/{convId}/messages")
+    @Operation(
+            summary = "List messages of a conversation",
+            description = "List the latest messages before a cursor, oldest first within the page")
+    @ApiResponses(
+            value = {
+                @ApiResponse(responseCode = "200", description = "Successful"),
+                @ApiResponse(responseCode = "400", description = "Bad request"),
+                @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "404", description = "Conversation not found"),
+                @ApiResponse(responseCode = "500", description = "Internal server error")
+            })
+    public ResponseEntity<CursorPage<ChatMessage>> listMessages(
+            @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner,
+            @PathVariable String convId,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "20") int limit) {
+        UUID conversationId = UUID.fromString(convId);
+        Conversation conversation = conversationService.getConversation(conversationId);
+        if (!conversation.getOwner().equals(owner)) {
+            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+        }
+
+        int pageLimit = Math.clamp(limit, 1, MAX_MESSAGES_LIMIT);
+        // Messages without displayable content are only dropped after they were
+        // read, so keep reading older ones until the page is full
+        List<ChatMessage> messages = new ArrayList<>();
+        Long cursor = before != null ? decodeCursor(before) : null;
+        do {
+            TranscriptPage page = chatTranscriptStore.getTranscriptPage(
+                    conversationId, DISPLAYED_TYPES, cursor, pageLimit - messages.size());
+            messages.addAll(0, toMessages(page.messages()));
+            cursor = page.before();
+        } while (cursor != null && messages.size() < pageLimit);
+        String nextCursor = cursor != null ? encodeCursor(cursor) : null;
+        return ResponseEntity.ok(CursorPage.of(pageLimit, nextCursor, messages));
     }
 
     @DeleteMapping("/{convId}")
@@ -209,4 +257,32 @@ public class ConversationController {
         conversationService.deleteConversation(conversationId);
         return ResponseEntity.noContent().build();
     }
+
+    private static List<ChatMessage> toMessages(List<dev.langchain4j.data.message.ChatMessage> transcript) {
+        return transcript.stream()
+                .map(ChatMessage::fromLC)
+                .filter(Objects::nonNull)
+                .filter(ConversationController::displayed)
+                .toList();
+    }
+
+    private static boolean displayed(ChatMessage message) {
+        // Remove empty messages and messages with only new lines(functional messages)
+        return Objects.nonNull(message.getContent())
+                && !message.getContent().equals("\n\n")
+                // TODO: chatbot only stream "human" and "ai" message now, so we just show these two types
+                // here. In the future, we may need to show other types of messages.
+                && Arrays.asList("human", "ai").contains(message.getType());
+    }
+
+    private static String encodeCursor(long position) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(Long.toString(position).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(String cursor) {
+        // Base64's and Long's IllegalArgumentExceptions are reported as bad requests
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+    }
 }
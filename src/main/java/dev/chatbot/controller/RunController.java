@@ -0,0 +1,105 @@
+package dev.chatbot.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+
+import dev.chatbot.aiservice.execution.RunBuffer;
+import dev.chatbot.aiservice.execution.RunBuffers;
+import dev.chatbot.aiservice.execution.RunRegistry;
+import dev.chatbot.exception.ForbiddenException;
+import dev.chatbot.exception.GoneException;
+import dev.chatbot.exception.RecordNotFoundException;
+
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
+
+/**
+ * RunController is a REST controller that handles requests related to the
+ * assistant runs that are streaming.
+ * The id of a run is the id of the chunks streamed by the assistant API.
+ * The response of a recent run can be streamed again, e.g. after the
+ * connection dropped, resuming after the event sent as Last-Event-ID.
+ *
+ * @author zhoumo
+ */
+@RestController
+@RequestMapping("/api/runs")
+@RequiredArgsConstructor
+@Tag(name = "Run", description = "Run API")
+public class RunController {
+
+    private final RunRegistry runRegistry;
+
+    private final RunBuffers runBuffers;
+
+    @GetMapping(value = "/{runId}/stream", produces = TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Resume a run",
+            description = "Stream the events of a run after Last-Event-ID, then the events it streams next")
+    @ApiResponses(
+            value = {
+                @ApiResponse(responseCode = "200", description = "Successful response"),
+                @ApiResponse(responseCode = "400", description = "Invalid Last-Event-ID"),
+                @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "404", description = "Run not found or expired"),
+                @ApiResponse(responseCode = "410", description = "Events after Last-Event-ID no longer kept"),
+                @ApiResponse(responseCode = "500", description = "Internal server error")
+            })
+    public Flux<ServerSentEvent<String>> streamRun(
+            @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            @PathVariable String runId) {
+        RunBuffer buffer = runBuffers.find(runId).orElseThrow(() -> new RecordNotFoundException("Run not found"));
+        if (!buffer.getOwner().equals(owner)) {
+            throw new ForbiddenException("Owner does not match run owner");
+        }
+        long resumeAfter = parseLastEventId(lastEventId);
+        // Fail before the stream starts; the subscription checks again
+        if (buffer.hasDropped(resumeAfter)) {
+            throw new GoneException("Events after Last-Event-ID are no longer kept");
+        }
+        return buffer.subscribe(resumeAfter).map(AssistantController::serverSentEvent);
+    }
+
+    @PostMapping("/{runId}/cancel")
+    @Operation(summary = "Cancel a run", description = "Stop the assistant from answering")
+    @ApiResponses(
+            value = {
+                @ApiResponse(responseCode = "204", description = "Cancelled"),
+                @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "404", description = "Run not found or already completed"),
+                @ApiResponse(responseCode = "500", description = "Internal server error")
+            })
+    public ResponseEntity<Void> cancelRun(
+            @RequestHeader(name = "X-Forwarded-User", defaultValue = "dev") String owner, @PathVariable String runId) {
+        RunRegistry.Run run = runRegistry.find(runId).orElseThrow(() -> new RecordNotFoundException("Run not found"));
+        if (!run.getOwner().equals(owner)) {
+            throw new ForbiddenException("Owner does not match run owner");
+        }
+        runRegistry.cancel(run, RunRegistry.Reason.REQUEST);
+        return ResponseEntity.noContent().build();
+    }
+
+    private static long parseLastEventId(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(lastEventId.strip());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid Last-Event-ID: " + lastEventId);
+        }
+    }
+}
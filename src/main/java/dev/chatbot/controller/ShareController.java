@@ -1,11 +1,14 @@
 package dev.chatbot.controller;
 
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Objects;
 import java.util.UUID;
 
+import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,28 +19,36 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import dev.langchain4j.data.message.ChatMessageType;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 
+import dev.chatbot.attachment.AttachmentStore;
+import dev.chatbot.domain.Attachment;
 import dev.chatbot.domain.Share;
 import dev.chatbot.dto.ChatMessage;
 import dev.chatbot.dto.ConversationShare;
+import dev.chatbot.exception.ForbiddenException;
+import dev.chatbot.exception.RecordNotFoundException;
 import dev.chatbot.service.ShareService;
 import dev.chatbot.vo.PageBean;
 import dev.chatbot.vo.Shared;
 
-import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
-
 /**
  * ShareController is a REST controller that handles requests related to
  * sharing conversations.
  * It provides endpoints for sharing, unsharing, and retrieving shared
  * conversations.
+ * Shared messages refer to their attachments through the share, so anyone
+ * viewing it can read them without owning the conversation.
  *
  * @author zhoumo
  */
@@ -49,6 +60,8 @@ public class ShareController {
 
     private final ShareService shareService;
 
+    private final AttachmentStore attachmentStore;
+
     @PostMapping("")
     @Operation(summary = "Share a conversation", description = "Share a conversation")
     @ApiResponses(
@@ -93,28 +106,53 @@ public class ShareController {
     @Operation(summary = "Get a shared conversation", description = "Get a shared conversation")
     @ApiResponses(
             value = {
-                @ApiResponse(responseCode = "200", description = "Successful"),
+                @ApiResponse(
+                        responseCode = "200",
+                        description = "Successful",
+                        content = @Content(schema = @Schema(implementation = Shared.class))),
                 @ApiResponse(responseCode = "400", description = "Bad request"),
                 @ApiResponse(responseCode = "500", description = "Internal server error")
             })
-    public ResponseEntity<Shared> getShare(@PathVariable String shareId) {
+    public ResponseEntity<StreamingResponseBody> getShare(@PathVariable String shareId) {
         Share share = shareService.getShare(UUID.fromString(shareId));
-        var messages = messagesFromJson(share.getSnapshotRef()).stream()
-                .map(ChatMessage::fromLC)
-                .filter(Objects::nonNull)
-                .filter(message -> Objects.nonNull(message.getContent()))
-                .filter(message -> Arrays.asList("human", "ai").contains(message.getType()))
-                .toList();
-
         var shared = Shared.builder()
                 .id(share.getId())
                 .title(share.getTitle())
                 .owner(share.getOwner())
                 .url(share.getUrl())
-                .messages(messages)
                 .createdAt(share.getCreatedAt())
                 .build();
-        return ResponseEntity.ok(shared);
+        String attachmentsPath = "/api/shares/" + share.getId() + "/attachments/";
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(StreamingChatResponse.of(
+                        shared,
+                        message -> ChatMessage.fromLC(message, attachmentsPath),
+                        message -> Objects.nonNull(message.getContent())
+                                && Arrays.asList("human", "ai").contains(message.getType()),
+                        action -> shareService.forEachSnapshotMessage(
+                                share, EnumSet.of(ChatMessageType.USER, ChatMessageType.AI), action)));
+    }
+
+    @GetMapping("/{shareId}/attachments/{hash}")
+    @Operation(summary = "Get an attachment of a share", description = "Get the content of a shared attachment")
+    @ApiResponses(
+            value = {
+                @ApiResponse(responseCode = "200", description = "Successful"),
+                @ApiResponse(responseCode = "206", description = "Partial content"),
+                @ApiResponse(responseCode = "304", description = "Not modified"),
+                @ApiResponse(responseCode = "403", description = "Forbidden"),
+                @ApiResponse(responseCode = "404", description = "Share or attachment not found"),
+                @ApiResponse(responseCode = "500", description = "Internal server error")
+            })
+    public ResponseEntity<Resource> getShareAttachment(@PathVariable String shareId, @PathVariable String hash) {
+        Share share = shareService.getShare(UUID.fromString(shareId));
+        Attachment attachment =
+                attachmentStore.find(hash).orElseThrow(() -> new RecordNotFoundException("Attachment not found"));
+        if (!shareService.isSharedAttachment(share, attachment.getHash())) {
+            throw new ForbiddenException("Attachment is not part of the share");
+        }
+        return AttachmentController.serve(attachmentStore, attachment);
     }
 
     @GetMapping("")
@@ -0,0 +1,97 @@
+package dev.chatbot.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import dev.chatbot.dto.ChatMessage;
+import dev.chatbot.utils.Json;
+
+/**
+ * StreamingChatResponse writes a conversation or a share straight to the
+ * response while its transcript is read.
+ * <p>
+ * The fields of the view object are written first, followed by a "messages"
+ * array that is filled as the stored messages are decoded, converted with
+ * {@link ChatMessage#fromLC(dev.langchain4j.data.message.ChatMessage)} and
+ * filtered. Only one message is held in memory at a time, however long the
+ * transcript is.
+ *
+ * @author zhoumo
+ */
+final class StreamingChatResponse {
+
+    private static final String MESSAGES = "messages";
+
+    private StreamingChatResponse() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Create the body of a streamed conversation or share.
+     *
+     * @param view the view object without its messages, e.g. a Chat
+     * @param filter selects the messages to show
+     * @param transcript hands every stored message to the given action, in order
+     * @return the response body
+     */
+    static StreamingResponseBody of(
+            Object view,
+            Predicate<ChatMessage> filter,
+            Consumer<Consumer<dev.langchain4j.data.message.ChatMessage>> transcript) {
+        return of(view, ChatMessage::fromLC, filter, transcript);
+    }
+
+    /**
+     * Create the body of a streamed conversation or share, converting its
+     * messages with the given function, e.g. to serve attachments through a
+     * share.
+     *
+     * @param view the view object without its messages, e.g. a Chat
+     * @param converter converts the stored messages, may return null to skip one
+     * @param filter selects the messages to show
+     * @param transcript hands every stored message to the given action, in order
+     * @return the response body
+     */
+    static StreamingResponseBody of(
+            Object view,
+            Function<dev.langchain4j.data.message.ChatMessage, ChatMessage> converter,
+            Predicate<ChatMessage> filter,
+            Consumer<Consumer<dev.langchain4j.data.message.ChatMessage>> transcript) {
+        return out -> {
+            try (JsonGenerator generator = Json.createGenerator(out)) {
+                generator.writeStartObject();
+                Iterator<Map.Entry<String, JsonNode>> fields = Json.toTree(view).fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    if (!field.getKey().equals(MESSAGES)) {
+                        generator.writeFieldName(field.getKey());
+                        generator.writeTree(field.getValue());
+                    }
+                }
+                generator.writeArrayFieldStart(MESSAGES);
+                transcript.accept(lcMessage -> {
+                    ChatMessage message = converter.apply(lcMessage);
+                    if (message != null && filter.test(message)) {
+                        try {
+                            generator.writeObject(message);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package dev.chatbot.domain;
+
+import java.time.Instant;
+
+import org.hibernate.annotations.CreationTimestamp;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Attachment is the index entry of a media file kept by the
+ * {@link dev.chatbot.attachment.AttachmentStore}.
+ * The file is addressed by the SHA-256 of its bytes, which are stored at the
+ * given offset of a segment file.
+ *
+ * @author zhoumo
+ */
+@Getter
+@Setter
+@ToString
+@Entity
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
+@Table(name = "attachment")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Attachment {
+
+    /**
+     * The hex-encoded SHA-256 of the attachment's bytes.
+     */
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(name = "media_type", columnDefinition = "TEXT", nullable = false)
+    private String mediaType;
+
+    @Column(nullable = false)
+    private int segment;
+
+    @Column(name = "segment_offset", nullable = false)
+    private long offset;
+
+    @Column(nullable = false)
+    private long length;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+}
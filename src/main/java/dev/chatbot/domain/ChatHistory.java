@@ -47,9 +47,20 @@ public class ChatHistory {
     @Id
     private UUID id;
 
-    @Column(columnDefinition = "TEXT", nullable = false)
+    /**
+     * Legacy JSON of the messages, only set on rows that have not been
+     * rewritten since the payload column was introduced.
+     */
+    @Column(columnDefinition = "TEXT")
     private String message;
 
+    /**
+     * The messages, encoded by {@link dev.chatbot.codec.HistoryCodecs}.
+     */
+    @ToString.Exclude
+    @Column(columnDefinition = "BYTEA")
+    private byte[] payload;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
@@ -0,0 +1,133 @@
+package dev.chatbot.domain;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.UUID;
+
+import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import dev.langchain4j.data.message.ChatMessageType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * ChatHistoryEntry is a single message of a conversation's chat history.
+ * Entries are append-only and ordered by their sequence number within the
+ * conversation, so a new message never rewrites the ones stored before it.
+ * All entries of a conversation form its transcript; the ones not evicted form
+ * the model's context window.
+ *
+ * @author zhoumo
+ */
+@Getter
+@Setter
+@ToString
+@Entity
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
+@Table(
+        name = "chat_history_entry",
+        indexes = {@Index(name = "idx_chat_history_entry_window", columnList = "conversation_id, evicted, seq")})
+@IdClass(ChatHistoryEntry.Key.class)
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatHistoryEntry implements Persistable<ChatHistoryEntry.Key> {
+
+    @Id
+    @Column(name = "conversation_id", nullable = false)
+    private UUID conversationId;
+
+    @Id
+    @Column(nullable = false)
+    private Long seq;
+
+    @Enumerated(EnumType.STRING)
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private ChatMessageType type;
+
+    /**
+     * Legacy JSON of the message, see {@link ChatHistory#getMessage()}.
+     */
+    @Column(columnDefinition = "TEXT")
+    private String message;
+
+    /**
+     * The message, encoded by {@link dev.chatbot.codec.HistoryCodecs}.
+     */
+    @ToString.Exclude
+    @Column(columnDefinition = "BYTEA")
+    private byte[] payload;
+
+    /**
+     * The estimated number of tokens of the message, if it was counted when
+     * the message was stored.
+     */
+    @Column(name = "token_count")
+    private Integer tokenCount;
+
+    /**
+     * Whether the message has been evicted from the model's context window.
+     */
+    @Builder.Default
+    @Column(nullable = false, columnDefinition = "BOOLEAN default false")
+    private boolean evicted = false;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Instant createdAt;
+
+    /**
+     * Entries are never updated in place, so a freshly built entry is always
+     * inserted without the select that merging an assigned id would cost.
+     */
+    @Transient
+    @Builder.Default
+    private boolean persisted = false;
+
+    @Override
+    public Key getId() {
+        return new Key(conversationId, seq);
+    }
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        this.persisted = true;
+    }
+
+    /**
+     * Composite primary key of a chat history entry.
+     */
+    @Getter
+    @EqualsAndHashCode
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID conversationId;
+        private Long seq;
+    }
+}
@@ -0,0 +1,54 @@
+package dev.chatbot.domain;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.hibernate.annotations.UpdateTimestamp;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * ConversationSummary is the running summary of the turns that have been
+ * compacted out of a conversation's context window.
+ *
+ * @author zhoumo
+ */
+@Getter
+@Setter
+@ToString
+@Entity
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
+@Table(name = "conversation_summary")
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationSummary {
+
+    @Id
+    @Column(name = "conversation_id")
+    private UUID conversationId;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String summary;
+
+    /**
+     * The number of messages folded into the summary so far.
+     */
+    @Column(name = "folded_messages", nullable = false)
+    private int foldedMessages;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
@@ -51,9 +51,20 @@ public class Share {
     @Column(nullable = false, columnDefinition = "TEXT")
     private String url;
 
-    @Column(nullable = false, columnDefinition = "TEXT")
+    /**
+     * Legacy JSON of the snapshot, only set on shares that have not been read
+     * since the snapshot column was introduced.
+     */
+    @Column(columnDefinition = "TEXT")
     private String snapshotRef;
 
+    /**
+     * The shared messages, encoded by {@link dev.chatbot.codec.HistoryCodecs}.
+     */
+    @ToString.Exclude
+    @Column(columnDefinition = "BYTEA")
+    private byte[] snapshot;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
@@ -1,5 +1,6 @@
 package dev.chatbot.dto;
 
+import java.net.URI;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,8 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import dev.chatbot.attachment.MessageAttachments;
+
 /**
  * DTO for AssistantMessage
  *
@@ -33,6 +36,8 @@ import lombok.extern.slf4j.Slf4j;
 @Builder
 public class ChatMessage {
 
+    private static final String ATTACHMENTS_PATH = "/api/attachments/";
+
     /**
      * The unique identifier of the message.
      * Note: This field may be unused now.
@@ -107,6 +112,17 @@ public class ChatMessage {
      * @return the converted ChatMessage DTO
      */
     public static ChatMessage fromLC(dev.langchain4j.data.message.ChatMessage lcMessage) {
+        return fromLC(lcMessage, ATTACHMENTS_PATH);
+    }
+
+    /**
+     * Convert from langchain4j ChatMessage to our ChatMessage DTO, serving
+     * stored attachments from the given path, e.g. the one of a share.
+     * @param lcMessage the langchain4j ChatMessage
+     * @param attachmentsPath the API path the hashes of attachments are appended to
+     * @return the converted ChatMessage DTO
+     */
+    public static ChatMessage fromLC(dev.langchain4j.data.message.ChatMessage lcMessage, String attachmentsPath) {
         switch (lcMessage) {
             case SystemMessage systemMessage -> {
                 return ChatMessage.builder()
@@ -148,13 +164,16 @@ public class ChatMessage {
             }
             case UserMessage userMessage -> {
                 Map<String, Object> metadata = userMessage.contents().stream()
-                        .map(ChatMessage::convertContent)
+                        .map(content -> convertContent(content, attachmentsPath))
                         .filter(Objects::nonNull)
                         .flatMap(content -> content.entrySet().stream())
                         .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v2));
 
                 return ChatMessage.builder()
-                        .content(userMessage.singleText())
+                        .content(userMessage.contents().stream()
+                                .filter(TextContent.class::isInstance)
+                                .map(content -> ((TextContent) content).text())
+                                .collect(Collectors.joining("\n")))
                         .type("human")
                         .additionalKwargs(Map.of("artifacts", metadata))
                         .build();
@@ -173,24 +192,36 @@ public class ChatMessage {
      * Finally, it creates a new Map<String, Object> with the extracted data.
      *
      * @param content the content to be converted
+     * @param attachmentsPath the API path of stored attachments
      * @return Map<String, Object>
      */
-    private static Map<String, Object> convertContent(Content content) {
+    private static Map<String, Object> convertContent(Content content, String attachmentsPath) {
         switch (content) {
             case TextContent textContent -> {
                 return Map.of("text", textContent.text());
             }
             case ImageContent imageContent -> {
-                return Map.of("image", imageContent.image().base64Data());
+                return Map.of(
+                        "image",
+                        source(imageContent.image().url(), imageContent.image().base64Data(), attachmentsPath));
             }
             case AudioContent audioContent -> {
-                return Map.of("audio", audioContent.audio().base64Data());
+                return Map.of(
+                        "audio",
+                        source(audioContent.audio().url(), audioContent.audio().base64Data(), attachmentsPath));
             }
             case VideoContent videoContent -> {
-                return Map.of("video", videoContent.video().base64Data());
+                return Map.of(
+                        "video",
+                        source(videoContent.video().url(), videoContent.video().base64Data(), attachmentsPath));
             }
             case PdfFileContent pdfFileContent -> {
-                return Map.of("pdf", pdfFileContent.pdfFile().base64Data());
+                return Map.of(
+                        "pdf",
+                        source(
+                                pdfFileContent.pdfFile().url(),
+                                pdfFileContent.pdfFile().base64Data(),
+                                attachmentsPath));
             }
             default -> {
                 log.error("Unsupported content type: {}", content.type());
@@ -198,4 +229,21 @@ public class ChatMessage {
             }
         }
     }
+
+    /**
+     * The source of a media content: the API path of a stored attachment, an
+     * external URL, or the base64 data of media stored inline.
+     *
+     * @param url the URL of the media, if any
+     * @param base64Data the base64 data of the media, if any
+     * @param attachmentsPath the API path of stored attachments
+     * @return the source
+     */
+    private static String source(URI url, String base64Data, String attachmentsPath) {
+        String hash = MessageAttachments.hash(url);
+        if (hash != null) {
+            return attachmentsPath + hash;
+        }
+        return url != null ? url.toString() : base64Data;
+    }
 }
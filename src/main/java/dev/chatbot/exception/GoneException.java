@@ -0,0 +1,20 @@
+package dev.chatbot.exception;
+
+/**
+ * GoneException
+ * This class is used to handle the exception when a resource existed but
+ * can't be served anymore.
+ *
+ * @author zhoumo
+ */
+public class GoneException extends RuntimeException {
+
+    /**
+     * GoneException is thrown when a client asks for something that was
+     * dropped, e.g. the events of a run that are no longer kept.
+     * @param message
+     */
+    public GoneException(String message) {
+        super(message);
+    }
+}
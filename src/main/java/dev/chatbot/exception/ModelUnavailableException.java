@@ -0,0 +1,20 @@
+package dev.chatbot.exception;
+
+/**
+ * ModelUnavailableException
+ * This class is used to handle the exception when a request to the model is
+ * not sent because the model is overloaded or failing.
+ *
+ * @author zhoumo
+ */
+public class ModelUnavailableException extends RuntimeException {
+
+    /**
+     * ModelUnavailableException is thrown when a model request fails fast
+     * instead of adding to the load of the model.
+     * @param message
+     */
+    public ModelUnavailableException(String message) {
+        super(message);
+    }
+}
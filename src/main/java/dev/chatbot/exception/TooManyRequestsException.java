@@ -0,0 +1,30 @@
+package dev.chatbot.exception;
+
+import java.time.Duration;
+
+/**
+ * TooManyRequestsException
+ * This class is used to handle the exception when a request can't be served
+ * right now because of load.
+ *
+ * @author zhoumo
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    /**
+     * TooManyRequestsException is thrown when a request is rejected to
+     * protect the service, and may be retried later.
+     * @param message
+     * @param retryAfter how long the client should wait before retrying
+     */
+    public TooManyRequestsException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
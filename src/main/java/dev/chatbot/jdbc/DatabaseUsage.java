@@ -0,0 +1,81 @@
+package dev.chatbot.jdbc;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DatabaseUsage adds up the database round trips of a unit of work, such as
+ * an assistant turn, and how long it held pooled connections.
+ * <p>
+ * Work is attributed to a usage while it runs inside {@link #run(Runnable)}
+ * on the current thread; a unit of work that continues on other threads binds
+ * its usage there as well. Connections are attributed to the usage bound when
+ * they were taken from the pool, see {@link MeteredDataSource}. Statements
+ * and commits count as round trips.
+ *
+ * @author zhoumo
+ */
+public final class DatabaseUsage {
+
+    private static final ThreadLocal<DatabaseUsage> CURRENT = new ThreadLocal<>();
+
+    private final AtomicInteger roundTrips = new AtomicInteger();
+
+    private final AtomicLong connectionHeldNanos = new AtomicLong();
+
+    /**
+     * The usage bound to the current thread.
+     *
+     * @return the usage, or null if none is bound
+     */
+    public static DatabaseUsage current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Run an action with this usage bound to the current thread.
+     *
+     * @param action the action
+     */
+    public void run(Runnable action) {
+        DatabaseUsage previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            action.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * The number of statements executed and transactions ended so far.
+     *
+     * @return the round trips
+     */
+    public int roundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * How long connections were held so far, added up over connections used
+     * at the same time.
+     *
+     * @return the time connections were held
+     */
+    public Duration connectionHeld() {
+        return Duration.ofNanos(connectionHeldNanos.get());
+    }
+
+    void addRoundTrip() {
+        roundTrips.incrementAndGet();
+    }
+
+    void addConnectionHeld(long nanos) {
+        connectionHeldNanos.addAndGet(nanos);
+    }
+}
@@ -0,0 +1,127 @@
+package dev.chatbot.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * MeteredDataSource attributes the connections taken from a pool, and the
+ * statements run on them, to the {@link DatabaseUsage} bound to the thread
+ * taking them.
+ * <p>
+ * Connections taken without a bound usage are handed out as they are, so
+ * work outside of metered units costs nothing extra.
+ *
+ * @author zhoumo
+ */
+public class MeteredDataSource extends DelegatingDataSource {
+
+    private static final Set<String> STATEMENT_ROUND_TRIPS = Set.of(
+            "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+    private static final Set<String> CONNECTION_ROUND_TRIPS = Set.of("commit", "rollback");
+
+    private static final Set<String> STATEMENT_FACTORIES = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    public MeteredDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return metered(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return metered(super.getConnection(username, password));
+    }
+
+    private static Connection metered(Connection connection) {
+        DatabaseUsage usage = DatabaseUsage.current();
+        if (usage == null) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(
+                MeteredDataSource.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                new ConnectionHandler(connection, usage));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Counts the transactions ended on a connection and how long it was held.
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        private final DatabaseUsage usage;
+
+        private final long takenAt = System.nanoTime();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ConnectionHandler(Connection connection, DatabaseUsage usage) {
+            this.connection = connection;
+            this.usage = usage;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close") && closed.compareAndSet(false, true)) {
+                usage.addConnectionHeld(System.nanoTime() - takenAt);
+            } else if (CONNECTION_ROUND_TRIPS.contains(name)) {
+                usage.addRoundTrip();
+            }
+            Object result = MeteredDataSource.invoke(connection, method, args);
+            if (STATEMENT_FACTORIES.contains(name)) {
+                return Proxy.newProxyInstance(
+                        MeteredDataSource.class.getClassLoader(),
+                        new Class<?>[] {method.getReturnType()},
+                        new StatementHandler((Statement) result, usage));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the statements executed.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+
+        private final DatabaseUsage usage;
+
+        StatementHandler(Statement statement, DatabaseUsage usage) {
+            this.statement = statement;
+            this.usage = usage;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (STATEMENT_ROUND_TRIPS.contains(method.getName())) {
+                usage.addRoundTrip();
+            }
+            return MeteredDataSource.invoke(statement, method, args);
+        }
+    }
+}
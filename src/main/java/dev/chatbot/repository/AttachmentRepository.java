@@ -0,0 +1,96 @@
+package dev.chatbot.repository;
+
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import dev.chatbot.domain.Attachment;
+
+/**
+ * AttachmentRepository is a repository interface for the Attachment entity,
+ * the index of the attachment segment files.
+ * <p>
+ *
+ * @author zhoumo
+ */
+@Repository
+public interface AttachmentRepository extends JpaRepository<Attachment, String> {
+
+    /**
+     * index an attachment unless its hash is indexed already, e.g. by a
+     * concurrent transaction that stored the same bytes
+     *
+     * @param hash the SHA-256 of the bytes
+     * @param mediaType the media type
+     * @param segment the segment file
+     * @param offset the offset within the segment file
+     * @param length the number of bytes
+     */
+    @Modifying
+    @Query(
+            value = "INSERT INTO attachment (hash, media_type, segment, segment_offset, length, created_at)"
+                    + " VALUES (:hash, :mediaType, :segment, :offset, :length, now())"
+                    + " ON CONFLICT (hash) DO NOTHING",
+            nativeQuery = true)
+    void insertIfAbsent(
+            @Param("hash") String hash,
+            @Param("mediaType") String mediaType,
+            @Param("segment") int segment,
+            @Param("offset") long offset,
+            @Param("length") long length);
+
+    /**
+     * record that a conversation refers to an attachment
+     *
+     * @param hash the SHA-256 of the bytes
+     * @param conversationId the conversation id
+     */
+    @Modifying
+    @Query(
+            value = "INSERT INTO attachment_conversation (hash, conversation_id) VALUES (:hash, :conversationId)"
+                    + " ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    void linkIfAbsent(@Param("hash") String hash, @Param("conversationId") UUID conversationId);
+
+    /**
+     * whether a conversation of the owner refers to an attachment
+     *
+     * @param hash the SHA-256 of the bytes
+     * @param owner the owner
+     * @return true if the owner may read the attachment
+     */
+    @Query(
+            value = "SELECT EXISTS (SELECT 1 FROM attachment_conversation ac"
+                    + " JOIN conversation c ON c.id = ac.conversation_id"
+                    + " WHERE ac.hash = :hash AND c.owner = :owner)",
+            nativeQuery = true)
+    boolean isReferencedByOwner(@Param("hash") String hash, @Param("owner") String owner);
+
+    /**
+     * record that the snapshot of a share refers to an attachment
+     *
+     * @param hash the SHA-256 of the bytes
+     * @param shareId the share id
+     */
+    @Modifying
+    @Query(
+            value = "INSERT INTO attachment_share (hash, share_id) VALUES (:hash, :shareId) ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    void linkShareIfAbsent(@Param("hash") String hash, @Param("shareId") UUID shareId);
+
+    /**
+     * whether the snapshot of a share refers to an attachment
+     *
+     * @param hash the SHA-256 of the bytes
+     * @param shareId the share id
+     * @return true if viewers of the share may read the attachment
+     */
+    @Query(
+            value = "SELECT EXISTS (SELECT 1 FROM attachment_share WHERE hash = :hash AND share_id = :shareId)",
+            nativeQuery = true)
+    boolean isReferencedByShare(@Param("hash") String hash, @Param("shareId") UUID shareId);
+}
@@ -0,0 +1,116 @@
+package dev.chatbot.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import dev.langchain4j.data.message.ChatMessageType;
+
+import dev.chatbot.domain.ChatHistoryEntry;
+
+/**
+ * ChatHistoryEntryRepository is a repository interface for the
+ * ChatHistoryEntry entity.
+ * It backs the append-only chat history layout, where every message of a
+ * conversation is stored as its own row. Rows are never deleted when the
+ * model's context window moves on, they are only flagged as evicted.
+ * <p>
+ *
+ * @author zhoumo
+ */
+@Repository
+public interface ChatHistoryEntryRepository extends JpaRepository<ChatHistoryEntry, ChatHistoryEntry.Key> {
+
+    /**
+     * list all entries of a conversation in order
+     *
+     * @param conversationId conversation id
+     * @return entries ordered by sequence
+     */
+    List<ChatHistoryEntry> findByConversationIdOrderBySeqAsc(UUID conversationId);
+
+    /**
+     * list the entries of a conversation that are in the model's context
+     * window, in order
+     *
+     * @param conversationId conversation id
+     * @return entries ordered by sequence
+     */
+    List<ChatHistoryEntry> findByConversationIdAndEvictedFalseOrderBySeqAsc(UUID conversationId);
+
+    /**
+     * list the latest entries of the given types before a sequence, newest
+     * first, seeking on the primary key
+     *
+     * @param conversationId conversation id
+     * @param types message types
+     * @param seq exclusive upper bound of the sequence
+     * @param limit maximum number of entries
+     * @return entries ordered by descending sequence
+     */
+    List<ChatHistoryEntry> findByConversationIdAndTypeInAndSeqLessThanOrderBySeqDesc(
+            UUID conversationId, Collection<ChatMessageType> types, long seq, Limit limit);
+
+    /**
+     * list the entries of the given types after a sequence, in order, reading
+     * only the columns needed to decode them
+     *
+     * @param conversationId conversation id
+     * @param types message types
+     * @param seq exclusive lower bound of the sequence
+     * @param limit maximum number of entries
+     * @return entry payloads ordered by sequence
+     */
+    List<EntryPayload> findByConversationIdAndTypeInAndSeqGreaterThanOrderBySeqAsc(
+            UUID conversationId, Collection<ChatMessageType> types, long seq, Limit limit);
+
+    /**
+     * get the highest sequence of a conversation
+     *
+     * @param conversationId conversation id
+     * @return the highest sequence, or null if the conversation has no entries
+     */
+    @Query("SELECT MAX(e.seq) FROM ChatHistoryEntry e WHERE e.conversationId = :conversationId")
+    Long findMaxSeq(@Param("conversationId") UUID conversationId);
+
+    /**
+     * remove the given entries of a conversation from the context window,
+     * keeping them in the transcript
+     *
+     * @param conversationId conversation id
+     * @param seqs sequences to evict
+     */
+    @Modifying
+    @Query("UPDATE ChatHistoryEntry e SET e.evicted = true WHERE e.conversationId = :conversationId AND e.seq IN :seqs")
+    void evictEntries(@Param("conversationId") UUID conversationId, @Param("seqs") Collection<Long> seqs);
+
+    /**
+     * delete all entries of a conversation
+     *
+     * @param conversationId conversation id
+     */
+    @Modifying
+    @Query("DELETE FROM ChatHistoryEntry e WHERE e.conversationId = :conversationId")
+    void deleteByConversationId(@Param("conversationId") UUID conversationId);
+
+    /**
+     * The stored message of an entry. Unlike entities, projections are not
+     * kept in the persistence context, so batches of them can be streamed
+     * through a long-lived entity manager.
+     */
+    interface EntryPayload {
+
+        Long getSeq();
+
+        String getMessage();
+
+        byte[] getPayload();
+    }
+}
@@ -0,0 +1,18 @@
+package dev.chatbot.repository;
+
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import dev.chatbot.domain.ConversationSummary;
+
+/**
+ * ConversationSummaryRepository is a repository interface for the
+ * ConversationSummary entity.
+ * <p>
+ *
+ * @author zhoumo
+ */
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, UUID> {}
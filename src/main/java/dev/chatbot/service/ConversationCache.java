@@ -0,0 +1,233 @@
+package dev.chatbot.service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.domain.Conversation;
+
+/**
+ * ConversationCache keeps the metadata of recently used conversations, so
+ * the owner check of every request doesn't read the database.
+ * <p>
+ * Changed conversations are evicted once their transaction committed. With
+ * {@link ConversationCacheProperties.Notify#isEnabled()}, the id of a changed
+ * conversation is also sent on a Postgres channel as part of the transaction,
+ * and every node evicts the conversations it is told about. A node that lost
+ * its listening connection evicts everything once it listens again, as it
+ * may have missed changes. Hit, miss and eviction counts are published as
+ * "conversations" cache metrics.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Component
+public class ConversationCache {
+
+    private static final String CACHE_NAME = "conversations";
+
+    private static final Pattern CHANNEL = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    private static final int POLL_MILLIS = 1000;
+
+    private final ConversationCacheProperties properties;
+
+    private final Cache<UUID, Snapshot> cache;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String url;
+
+    private final String username;
+
+    private final String password;
+
+    private final Thread listener;
+
+    private volatile boolean running = true;
+
+    public ConversationCache(
+            ConversationCacheProperties properties,
+            JdbcTemplate jdbcTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${spring.datasource.url:}") String url,
+            @Value("${spring.datasource.username:}") String username,
+            @Value("${spring.datasource.password:}") String password) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        if (properties.isEnabled()) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(properties.getMaximumSize())
+                    .expireAfterWrite(properties.getTtl())
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        } else {
+            this.cache = null;
+        }
+        ConversationCacheProperties.Notify notify = properties.getNotify();
+        if (notify.isEnabled()) {
+            if (!CHANNEL.matcher(notify.getChannel()).matches()) {
+                throw new IllegalArgumentException("Invalid notification channel " + notify.getChannel());
+            }
+            this.listener = cache == null
+                    ? null
+                    : Thread.ofPlatform()
+                            .name("conversation-cache-listener")
+                            .daemon()
+                            .start(this::listen);
+        } else {
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Get a conversation, loading it if it isn't cached. Every call returns a
+     * new object, which the caller may change.
+     *
+     * @param id the id of the conversation
+     * @param loader loads the conversation from the database
+     * @return the conversation, or empty if there is none
+     */
+    public Optional<Conversation> get(UUID id, Function<UUID, Optional<Conversation>> loader) {
+        if (cache == null) {
+            return loader.apply(id);
+        }
+        Snapshot snapshot =
+                cache.get(id, key -> loader.apply(key).map(Snapshot::of).orElse(null));
+        return Optional.ofNullable(snapshot).map(Snapshot::toConversation);
+    }
+
+    /**
+     * Evict a conversation that changed in the current transaction, once it
+     * committed, here and on the other nodes.
+     *
+     * @param id the id of the conversation
+     */
+    public void evict(UUID id) {
+        if (properties.getNotify().isEnabled()) {
+            // Sent when the transaction commits
+            this.jdbcTemplate.execute("NOTIFY " + properties.getNotify().getChannel() + ", '" + id + "'");
+        }
+        if (cache == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(id);
+                }
+            });
+        } else {
+            cache.invalidate(id);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Listen for changes made on other nodes on a connection of its own, so
+     * it doesn't hold one of the pool.
+     */
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password);
+                    Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + properties.getNotify().getChannel());
+                // Changes may have been missed while not listening
+                cache.invalidateAll();
+                log.info(
+                        "Listening for conversation changes on {}",
+                        properties.getNotify().getChannel());
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        invalidate(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Lost the connection listening for conversation changes", e);
+                try {
+                    Thread.sleep(properties.getNotify().getReconnectDelay());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void invalidate(String id) {
+        try {
+            cache.invalidate(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring a change of conversation {}", id);
+        }
+    }
+
+    /**
+     * Snapshot is the cached state of a conversation.
+     */
+    private record Snapshot(
+            UUID id,
+            String title,
+            String owner,
+            Boolean pinned,
+            Instant createdAt,
+            Instant updatedAt,
+            Boolean archived) {
+
+        static Snapshot of(Conversation conversation) {
+            return new Snapshot(
+                    conversation.getId(),
+                    conversation.getTitle(),
+                    conversation.getOwner(),
+                    conversation.getPinned(),
+                    conversation.getCreatedAt(),
+                    conversation.getUpdatedAt(),
+                    conversation.getArchived());
+        }
+
+        Conversation toConversation() {
+            return new Conversation(id, title, owner, pinned, createdAt, updatedAt, archived);
+        }
+    }
+}
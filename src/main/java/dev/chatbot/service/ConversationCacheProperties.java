@@ -0,0 +1,64 @@
+package dev.chatbot.service;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+/**
+ * ConversationCacheProperties is a configuration class that holds properties
+ * related to the cache of conversation metadata.
+ * The prefix "chatbot.conversations.cache" indicates that these properties are
+ * under the "chatbot.conversations.cache" section in the configuration file.
+ *
+ * @author zhoumo
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatbot.conversations.cache")
+public class ConversationCacheProperties {
+
+    /**
+     * Whether conversations are cached, so the owner check of a request
+     * doesn't read the database.
+     */
+    private boolean enabled = true;
+
+    /**
+     * The maximum number of cached conversations.
+     */
+    private long maximumSize = 10000;
+
+    /**
+     * How long a conversation is cached after it was read. Bounds how long
+     * changes made by other nodes are missed if they are not notified.
+     */
+    private Duration ttl = Duration.ofMinutes(5);
+
+    /**
+     * Settings for telling other nodes about changed conversations.
+     */
+    private Notify notify = new Notify();
+
+    @Data
+    public static class Notify {
+
+        /**
+         * Whether changes are sent to and received from other nodes through
+         * Postgres NOTIFY and LISTEN.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The channel changes are sent on.
+         */
+        private String channel = "conversation_changes";
+
+        /**
+         * How long to wait before listening again after the connection failed.
+         */
+        private Duration reconnectDelay = Duration.ofSeconds(5);
+    }
+}
@@ -22,6 +22,8 @@ import dev.chatbot.repository.ConversationRepository;
  * ConversationService is a service class that handles operations related to
  * conversations.
  * It provides methods to create, update, delete, and retrieve conversations.
+ * Conversations are read through a {@link ConversationCache}, which the
+ * methods changing them evict.
  *
  * @author zhoumo
  */
@@ -32,6 +34,8 @@ public class ConversationService {
 
     private final ConversationRepository conversationRepository;
 
+    private final ConversationCache conversationCache;
+
     /**
      * get a conversation by id
      *
@@ -39,7 +43,7 @@ public class ConversationService {
      * @return conversation entity
      */
     public Conversation getConversation(UUID convId) {
-        Optional<Conversation> optional = this.conversationRepository.findById(convId);
+        Optional<Conversation> optional = this.conversationCache.get(convId, this.conversationRepository::findById);
         if (optional.isEmpty()) {
             throw new RecordNotFoundException("No conversation found");
         }
@@ -59,6 +63,7 @@ public class ConversationService {
     @Modifying
     public void deleteConversation(UUID convId) {
         this.conversationRepository.deleteById(convId);
+        this.conversationCache.evict(convId);
     }
 
     /**
@@ -80,6 +85,9 @@ public class ConversationService {
     @Transactional
     @Modifying
     public void saveConversation(Conversation conversation) {
-        this.conversationRepository.save(conversation);
+        Conversation saved = this.conversationRepository.save(conversation);
+        if (saved.getId() != null) {
+            this.conversationCache.evict(saved.getId());
+        }
     }
 }
@@ -1,6 +1,11 @@
 package dev.chatbot.service;
 
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -10,23 +15,32 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import dev.chatbot.domain.ChatHistory;
+import dev.chatbot.aiservice.memory.ChatTranscriptStore;
+import dev.chatbot.attachment.AttachmentStore;
+import dev.chatbot.attachment.MessageAttachments;
+import dev.chatbot.codec.HistoryCodecs;
 import dev.chatbot.domain.Conversation;
 import dev.chatbot.domain.Share;
 import dev.chatbot.dto.ConversationShare;
 import dev.chatbot.exception.RecordNotFoundException;
-import dev.chatbot.repository.ChatHistoryRepository;
 import dev.chatbot.repository.ConversationRepository;
 import dev.chatbot.repository.ShareRepository;
 
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+
 /**
  * ShareService is a service class that handles operations related to
  * sharing conversations.
  * It provides methods to save, delete, and retrieve shared
  * conversations.
+ * The attachments of a snapshot are linked to its share, so anyone viewing
+ * the share can read them, even if the conversation is deleted.
  *
  * @author zhoumo
  */
@@ -37,7 +51,9 @@ public class ShareService {
 
     private final ShareRepository shareRepository;
     private final ConversationRepository conversationRepository;
-    private final ChatHistoryRepository chatHistoryRepository;
+    private final ChatTranscriptStore chatTranscriptStore;
+    private final HistoryCodecs historyCodecs;
+    private final AttachmentStore attachmentStore;
 
     /**
      * save a share
@@ -66,9 +82,10 @@ public class ShareService {
             throw new IllegalArgumentException("You do not have permission to share this conversation");
         }
 
-        ChatHistory history = chatHistoryRepository
-                .findById(conversationId)
-                .orElseThrow(() -> new RecordNotFoundException("Conversation message is empty"));
+        List<ChatMessage> history = chatTranscriptStore.getTranscript(conversationId);
+        if (history.isEmpty()) {
+            throw new RecordNotFoundException("Conversation message is empty");
+        }
 
         UUID shareId = UUID.randomUUID();
         String url = baseUrl + "/share/" + shareId.toString();
@@ -77,8 +94,12 @@ public class ShareService {
                 .title(share.getTitle() != null ? share.getTitle() : conversation.getTitle())
                 .owner(conversation.getOwner())
                 .url(url)
-                .snapshotRef(history.getMessage())
+                .snapshot(historyCodecs.encode(messagesToJson(history)))
                 .build();
+        history.stream()
+                .flatMap(message -> MessageAttachments.references(message).stream())
+                .distinct()
+                .forEach(hash -> attachmentStore.linkShare(hash, shareId));
         return this.shareRepository.save(newShare);
     }
 
@@ -95,13 +116,66 @@ public class ShareService {
     }
 
     /**
-     * get a share by id
+     * get a share by id, encoding its snapshot if it is still stored as
+     * legacy JSON
      *
      * @param shareId share id
      * @return share
      */
+    @Transactional
     public Share getShare(UUID shareId) {
-        return this.shareRepository.findById(shareId).orElseThrow(() -> new RecordNotFoundException("Share not found"));
+        Share share = this.shareRepository
+                .findById(shareId)
+                .orElseThrow(() -> new RecordNotFoundException("Share not found"));
+        if (share.getSnapshot() == null && share.getSnapshotRef() != null) {
+            // managed entity, rewritten on commit
+            share.setSnapshot(historyCodecs.encode(share.getSnapshotRef()));
+            share.setSnapshotRef(null);
+            log.debug("Encoded legacy snapshot of share {}", shareId);
+        }
+        return share;
+    }
+
+    /**
+     * hand the shared messages of the given types to an action, in order,
+     * decoding the snapshot one message at a time
+     *
+     * @param share share
+     * @param types message types
+     * @param action receives the messages
+     */
+    public void forEachSnapshotMessage(Share share, Set<ChatMessageType> types, Consumer<ChatMessage> action) {
+        historyCodecs.forEachElement(share.getSnapshotRef(), share.getSnapshot(), json -> {
+            ChatMessage message = messageFromJson(json);
+            if (types.contains(message.type())) {
+                action.accept(message);
+            }
+        });
+    }
+
+    /**
+     * whether the snapshot of a share refers to an attachment. Shares saved
+     * before their attachments were linked are searched once and linked.
+     *
+     * @param share share
+     * @param hash the hash addressing the attachment
+     * @return true if viewers of the share may read the attachment
+     */
+    @Transactional
+    public boolean isSharedAttachment(Share share, String hash) {
+        if (attachmentStore.isShared(hash, share.getId())) {
+            return true;
+        }
+        AtomicBoolean found = new AtomicBoolean();
+        forEachSnapshotMessage(share, EnumSet.of(ChatMessageType.USER), message -> {
+            if (MessageAttachments.references(message).contains(hash)) {
+                found.set(true);
+            }
+        });
+        if (found.get()) {
+            attachmentStore.linkShare(hash, share.getId());
+        }
+        return found.get();
     }
 
     /**
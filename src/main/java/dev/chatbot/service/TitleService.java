@@ -0,0 +1,126 @@
+package dev.chatbot.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import dev.chatbot.aiservice.TitleAssistant;
+import dev.chatbot.aiservice.properties.AssistantProperties;
+import dev.chatbot.domain.Conversation;
+
+/**
+ * TitleService writes the titles of conversations while the assistant is
+ * still answering.
+ * <p>
+ * The title is written from the conversation as it was before the new
+ * message, plus the new message, so it doesn't wait for the answer. Titles
+ * are written by {@link TitleAssistant}, which may use a smaller model, on a
+ * small bounded executor. Titles that find no free slot are skipped and the
+ * conversation keeps its title.
+ *
+ * @author zhoumo
+ */
+@Slf4j
+@Service
+public class TitleService {
+
+    private final TitleAssistant titleAssistant;
+
+    private final ChatMemoryStore chatMemoryStore;
+
+    private final ConversationService conversationService;
+
+    private final ThreadPoolExecutor executor;
+
+    public TitleService(
+            TitleAssistant titleAssistant,
+            ChatMemoryStore chatMemoryStore,
+            ConversationService conversationService,
+            AssistantProperties assistantProperties) {
+        this.titleAssistant = titleAssistant;
+        this.chatMemoryStore = chatMemoryStore;
+        this.conversationService = conversationService;
+        AssistantProperties.Titles properties = assistantProperties.getTitles();
+        this.executor = new ThreadPoolExecutor(
+                properties.getThreads(),
+                properties.getThreads(),
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                Thread.ofPlatform().name("conversation-title-", 0).daemon().factory());
+    }
+
+    /**
+     * Write and save the title of a conversation in the background. Must be
+     * called before the new message is added to the chat memory. Returns
+     * immediately.
+     *
+     * @param conversation the conversation
+     * @param userMessage the new message of the user
+     * @param onTitle called with the saved title
+     */
+    public void generateAsync(Conversation conversation, String userMessage, Consumer<String> onTitle) {
+        List<ChatMessage> history = chatMemoryStore.getMessages(conversation.getId());
+        try {
+            executor.execute(() -> {
+                try {
+                    String title = titleAssistant.summarize(format(history, userMessage));
+                    conversation.setTitle(title);
+                    conversationService.saveConversation(conversation);
+                    onTitle.accept(title);
+                } catch (Exception e) {
+                    log.error("Failed to write title of conversation {}: {}", conversation.getId(), e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Title queue full, skipped conversation {}", conversation.getId());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Format the chat messages of a conversation and a new message as a single
+     * string.
+     *
+     * @param history the chat messages before the new message
+     * @param userMessage the new message
+     * @return the formatted chat messages
+     */
+    static String format(List<ChatMessage> history, String userMessage) {
+        return Stream.concat(
+                        history.stream().map(dev.chatbot.dto.ChatMessage::fromLC),
+                        Stream.of(dev.chatbot.dto.ChatMessage.builder()
+                                .type("human")
+                                .content(userMessage)
+                                .build()))
+                .filter(Objects::nonNull)
+                .filter(message -> Objects.nonNull(message.getContent()))
+                .filter(message -> Arrays.asList("human", "ai").contains(message.getType()))
+                .map(message -> {
+                    return switch (message.getType()) {
+                        case "human" -> "Human: " + message.getContent();
+                        case "ai" -> "AI: " + message.getContent();
+                        default -> "";
+                    };
+                })
+                .collect(Collectors.joining("\n"));
+    }
+}
@@ -1,12 +1,16 @@
 package dev.chatbot.utils;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import dev.chatbot.exception.BusinessException;
@@ -60,6 +64,28 @@ public class Json {
         }
     }
 
+    /**
+     * Function description: Convert java objects into a JSON tree
+     *
+     * @param object java object
+     * @return JSON object
+     */
+    public static ObjectNode toTree(Object object) {
+        return mapper.valueToTree(object);
+    }
+
+    /**
+     * Function description: Create a generator that writes JSON to a stream,
+     * serializing objects like {@link #toJson(Object)}
+     *
+     * @param out output stream
+     * @return JSON generator
+     * @throws IOException if the generator can't be created
+     */
+    public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return mapper.getFactory().createGenerator(out);
+    }
+
     /**
      * Function description: Convert JSON data into java objects
      *
@@ -0,0 +1,48 @@
+package dev.chatbot.vo;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CursorPage is a generic class that represents a page of a list read with a
+ * cursor instead of a page number.
+ * It contains the items of the page and an opaque cursor that reads the next
+ * page, so deep pages cost as much as the first one.
+ *
+ * @author zhoumo
+ * @param <T>
+ */
+@Data
+@NoArgsConstructor
+public class CursorPage<T> {
+
+    /**
+     * maximum number of items
+     */
+    private Integer limit;
+
+    /**
+     * cursor of the next page, null if this is the last page
+     */
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
+    /**
+     * items for the current page
+     */
+    private List<T> items;
+
+    public CursorPage(Integer limit, String nextCursor, List<T> items) {
+        this.limit = limit;
+        this.nextCursor = nextCursor;
+        this.items = items;
+    }
+
+    public static <T> CursorPage<T> of(Integer limit, String nextCursor, List<T> items) {
+        return new CursorPage<>(limit, nextCursor, items);
+    }
+}
@@ -0,0 +1,21 @@
+-- Hibernate's ddl-auto only adds columns, so relax the NOT NULL constraints of
+-- the legacy JSON columns that the encoded payload columns replace.
+ALTER TABLE IF EXISTS chat_history ALTER COLUMN message DROP NOT NULL;
+ALTER TABLE IF EXISTS chat_history_entry ALTER COLUMN message DROP NOT NULL;
+ALTER TABLE IF EXISTS share ALTER COLUMN snapshot_ref DROP NOT NULL;
+
+-- The conversations referring to each attachment, so it is only served to
+-- their owners. Written with native queries, so it isn't mapped to an entity.
+CREATE TABLE IF NOT EXISTS attachment_conversation (
+    hash VARCHAR(64) NOT NULL,
+    conversation_id UUID NOT NULL,
+    PRIMARY KEY (hash, conversation_id)
+);
+
+-- The shares whose snapshots refer to each attachment, so it is served to
+-- everyone viewing them, like the snapshot itself.
+CREATE TABLE IF NOT EXISTS attachment_share (
+    hash VARCHAR(64) NOT NULL,
+    share_id UUID NOT NULL,
+    PRIMARY KEY (hash, share_id)
+);
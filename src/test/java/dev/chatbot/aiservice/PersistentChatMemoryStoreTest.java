@@ -0,0 +1,290 @@
+package dev.chatbot.aiservice;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.memory.CachingTokenCountEstimator;
+import dev.chatbot.aiservice.memory.TranscriptPage;
+import dev.chatbot.aiservice.properties.LLMProperties;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.attachment.AttachmentStore;
+import dev.chatbot.attachment.MessageAttachments;
+import dev.chatbot.codec.HistoryCodecs;
+import dev.chatbot.domain.ChatHistory;
+import dev.chatbot.domain.ChatHistoryEntry;
+import dev.chatbot.repository.ChatHistoryEntryRepository;
+import dev.chatbot.repository.ChatHistoryRepository;
+
+import static dev.langchain4j.data.message.ChatMessageSerializer.messageToJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class PersistentChatMemoryStoreTest {
+
+    @Mock
+    private ChatHistoryRepository chatHistoryRepository;
+
+    @Mock
+    private ChatHistoryEntryRepository chatHistoryEntryRepository;
+
+    @Mock
+    private AttachmentStore attachmentStore;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private HistoryCodecs historyCodecs;
+    private PersistentChatMemoryStore store;
+    private UUID conversationId;
+
+    @BeforeEach
+    void setUp() {
+        MemoryProperties properties = new MemoryProperties();
+        properties.setStorage(MemoryProperties.StorageMode.APPEND);
+        historyCodecs = new HistoryCodecs(properties);
+        store = new PersistentChatMemoryStore(
+                chatHistoryRepository,
+                chatHistoryEntryRepository,
+                properties,
+                historyCodecs,
+                new CachingTokenCountEstimator(new LLMProperties()),
+                new MessageAttachments(attachmentStore),
+                transactionManager);
+        conversationId = UUID.randomUUID();
+    }
+
+    @Test
+    void tailAppendsOnlyNewMessages() {
+        var tail = PersistentChatMemoryStore.tail(List.of("s", "a", "b"), List.of("s", "a", "b", "c", "d"));
+        assertEquals(List.of(), tail.removed());
+        assertEquals(3, tail.from());
+    }
+
+    @Test
+    void tailRemovesEvictedMessages() {
+        // the window keeps the system message and drops the oldest one
+        var tail = PersistentChatMemoryStore.tail(List.of("s", "a", "b"), List.of("s", "b", "c"));
+        assertEquals(List.of(1), tail.removed());
+        assertEquals(2, tail.from());
+    }
+
+    @Test
+    void tailRewritesWhenSystemMessageChanges() {
+        var tail = PersistentChatMemoryStore.tail(List.of("s", "a"), List.of("t", "a", "b"));
+        assertEquals(List.of(0, 1), tail.removed());
+        assertEquals(0, tail.from());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void updateMessagesInsertsOnlyTheTail() {
+        ChatMessage system = SystemMessage.from("You are Mo");
+        ChatMessage question = UserMessage.from("Hi");
+        ChatMessage answer = AiMessage.from("Hello!");
+        List<ChatHistoryEntry> stored = List.of(entry(0, system), entry(1, question));
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId))
+                .thenReturn(stored);
+
+        store.updateMessages(conversationId, List.of(system, question, answer));
+
+        ArgumentCaptor<List<ChatHistoryEntry>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(chatHistoryEntryRepository).saveAll(saved.capture());
+        assertEquals(1, saved.getValue().size());
+        assertEquals(2L, saved.getValue().getFirst().getSeq());
+        assertEquals(
+                messageToJson(answer),
+                historyCodecs.decode(saved.getValue().getFirst().getPayload()));
+        // legacy entries are re-encoded in place
+        assertNull(stored.getFirst().getMessage());
+        assertEquals(
+                messageToJson(system), historyCodecs.decode(stored.getFirst().getPayload()));
+        Mockito.verify(chatHistoryEntryRepository, Mockito.never()).evictEntries(any(), anyCollection());
+        Mockito.verifyNoInteractions(chatHistoryRepository);
+    }
+
+    @Test
+    void updateMessagesEvictsInsteadOfDeleting() {
+        ChatMessage system = SystemMessage.from("You are Mo");
+        ChatMessage question = UserMessage.from("Hi");
+        ChatMessage answer = AiMessage.from("Hello!");
+        ChatMessage followUp = UserMessage.from("How are you?");
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId))
+                .thenReturn(List.of(entry(0, system), entry(1, question), entry(2, answer)));
+
+        store.updateMessages(conversationId, List.of(system, answer, followUp));
+
+        Mockito.verify(chatHistoryEntryRepository).evictEntries(conversationId, List.of(1L));
+        Mockito.verify(chatHistoryEntryRepository, Mockito.never()).deleteByConversationId(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void turnsWriteWithoutReadingTheWindowAgain() {
+        ChatMessage system = SystemMessage.from("You are Mo");
+        ChatMessage question = UserMessage.from("Hi");
+        ChatMessage answer = AiMessage.from("Hello!");
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId))
+                .thenReturn(List.of(current(4, system), current(5, question), current(6, answer)));
+        List<ChatMessage> window = store.getMessages(conversationId);
+
+        ChatMessage followUp = UserMessage.from("How are you?");
+        ChatMessage reply = AiMessage.from("Fine.");
+        List<ChatMessage> next = List.of(system, answer, followUp, reply);
+        store.updateMessages(conversationId, next);
+        store.updateMessages(conversationId, List.of(system, followUp, reply, UserMessage.from("Bye")));
+
+        Mockito.verify(chatHistoryEntryRepository, Mockito.times(1))
+                .findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId);
+        Mockito.verify(chatHistoryEntryRepository, Mockito.never()).findMaxSeq(any());
+        Mockito.verify(chatHistoryEntryRepository).evictEntries(conversationId, List.of(5L));
+        Mockito.verify(chatHistoryEntryRepository).evictEntries(conversationId, List.of(6L));
+        ArgumentCaptor<List<ChatHistoryEntry>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(chatHistoryEntryRepository, Mockito.times(2)).saveAll(saved.capture());
+        assertEquals(
+                List.of(7L, 8L),
+                saved.getAllValues().getFirst().stream()
+                        .map(ChatHistoryEntry::getSeq)
+                        .toList());
+        assertEquals(9L, saved.getAllValues().getLast().getFirst().getSeq());
+        assertEquals(List.of(system, question, answer), window);
+        Mockito.verifyNoInteractions(chatHistoryRepository);
+    }
+
+    @Test
+    void retriesWithTheStoredSequenceAfterAConflict() {
+        ChatMessage system = SystemMessage.from("You are Mo");
+        ChatMessage question = UserMessage.from("Hi");
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId))
+                .thenReturn(List.of(current(4, system)), List.of(current(4, system), current(5, question)));
+        store.getMessages(conversationId);
+        Mockito.when(chatHistoryEntryRepository.saveAll(any()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        // another node appended the question with sequence 5 meanwhile
+        store.updateMessages(conversationId, List.of(system, question, AiMessage.from("Hello!")));
+
+        ArgumentCaptor<List<ChatHistoryEntry>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(chatHistoryEntryRepository, Mockito.times(2)).saveAll(saved.capture());
+        assertEquals(5L, saved.getAllValues().getFirst().getFirst().getSeq());
+        assertEquals(
+                List.of(6L),
+                saved.getAllValues().getLast().stream()
+                        .map(ChatHistoryEntry::getSeq)
+                        .toList());
+    }
+
+    @Test
+    void windowAndTranscriptReadDifferentRows() {
+        ChatMessage system = SystemMessage.from("You are Mo");
+        ChatMessage question = UserMessage.from("Hi");
+        ChatMessage answer = AiMessage.from("Hello!");
+        ChatHistoryEntry evicted = entry(1, question);
+        evicted.setEvicted(true);
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndEvictedFalseOrderBySeqAsc(conversationId))
+                .thenReturn(List.of(entry(0, system), entry(2, answer)));
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdOrderBySeqAsc(conversationId))
+                .thenReturn(List.of(entry(0, system), evicted, entry(2, answer)));
+
+        assertEquals(List.of(system, answer), store.getMessages(conversationId));
+        assertEquals(List.of(system, question, answer), store.getTranscript(conversationId));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void emptyWindowContinuesAfterEvictedEntries() {
+        Mockito.when(chatHistoryEntryRepository.findMaxSeq(conversationId)).thenReturn(7L);
+
+        store.updateMessages(conversationId, List.of(UserMessage.from("Hi")));
+
+        ArgumentCaptor<List<ChatHistoryEntry>> saved = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(chatHistoryEntryRepository).saveAll(saved.capture());
+        assertEquals(8L, saved.getValue().getFirst().getSeq());
+    }
+
+    @Test
+    void transcriptPagesSeekBackwards() {
+        Set<ChatMessageType> types = EnumSet.of(ChatMessageType.USER, ChatMessageType.AI);
+        ChatMessage question = UserMessage.from("Q");
+        ChatMessage answer = AiMessage.from("A");
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndTypeInAndSeqLessThanOrderBySeqDesc(
+                        conversationId, types, Long.MAX_VALUE, Limit.of(3)))
+                .thenReturn(List.of(entry(9, answer), entry(8, question), entry(7, answer)));
+        Mockito.when(chatHistoryEntryRepository.findByConversationIdAndTypeInAndSeqLessThanOrderBySeqDesc(
+                        conversationId, types, 8L, Limit.of(3)))
+                .thenReturn(List.of(entry(7, answer)));
+
+        TranscriptPage latest = store.getTranscriptPage(conversationId, types, null, 2);
+        assertEquals(List.of(question, answer), latest.messages());
+        assertEquals(8L, latest.before());
+
+        TranscriptPage previous = store.getTranscriptPage(conversationId, types, latest.before(), 2);
+        assertEquals(List.of(answer), previous.messages());
+        assertNull(previous.before());
+    }
+
+    @Test
+    void transcriptPagesOfBlobHistoriesUseIndexes() {
+        Set<ChatMessageType> types = EnumSet.of(ChatMessageType.USER, ChatMessageType.AI);
+        List<ChatMessage> messages = List.of(
+                SystemMessage.from("You are Mo"),
+                UserMessage.from("Q1"),
+                AiMessage.from("A1"),
+                UserMessage.from("Q2"),
+                AiMessage.from("A2"));
+        Mockito.when(chatHistoryEntryRepository.findMaxSeq(conversationId)).thenReturn(null);
+        Mockito.when(chatHistoryRepository.findById(conversationId))
+                .thenReturn(Optional.of(ChatHistory.builder()
+                        .id(conversationId)
+                        .payload(historyCodecs.encode(messagesToJson(messages)))
+                        .build()));
+
+        TranscriptPage latest = store.getTranscriptPage(conversationId, types, null, 3);
+        assertEquals(messages.subList(2, 5), latest.messages());
+        assertEquals(2L, latest.before());
+
+        TranscriptPage previous = store.getTranscriptPage(conversationId, types, latest.before(), 3);
+        assertEquals(messages.subList(1, 2), previous.messages());
+        assertNull(previous.before());
+    }
+
+    private ChatHistoryEntry current(long seq, ChatMessage message) {
+        return ChatHistoryEntry.builder()
+                .conversationId(conversationId)
+                .seq(seq)
+                .type(message.type())
+                .payload(historyCodecs.encode(messageToJson(message)))
+                .build();
+    }
+
+    private ChatHistoryEntry entry(long seq, ChatMessage message) {
+        return ChatHistoryEntry.builder()
+                .conversationId(conversationId)
+                .seq(seq)
+                .type(message.type())
+                .message(messageToJson(message))
+                .build();
+    }
+}
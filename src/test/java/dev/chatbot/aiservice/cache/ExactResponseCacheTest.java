@@ -0,0 +1,161 @@
+package dev.chatbot.aiservice.cache;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.PartialResponse;
+import dev.langchain4j.model.chat.response.PartialResponseContext;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import dev.langchain4j.model.output.FinishReason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ExactResponseCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private final LLMProperties properties = new LLMProperties();
+
+    private final ChatRequestParameters defaults =
+            ChatRequestParameters.builder().modelName("gpt").temperature(0.0).build();
+
+    private ExactResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties.getResponseCache().setEnabled(true);
+        properties.getResponseCache().setFile(dir.resolve("responses.bin").toString());
+        cache = new ExactResponseCache(properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void keysIgnoreToolCallIdsAndSurroundingWhitespace() {
+        String key = cache.key(request(toolCall("call_1"), "What's the weather?"), defaults);
+
+        assertEquals(key, cache.key(request(toolCall("call_2"), "What's the weather?  \n"), defaults));
+        assertNotEquals(key, cache.key(request(toolCall("call_1"), "What's the time?"), defaults));
+        assertNotEquals(
+                key,
+                cache.key(
+                        request(toolCall("call_1"), "What's the weather?"),
+                        ChatRequestParameters.builder()
+                                .modelName("gpt-mini")
+                                .temperature(0.0)
+                                .build()));
+        assertNull(cache.key(
+                request(toolCall("call_1"), "What's the weather?"),
+                ChatRequestParameters.builder()
+                        .modelName("gpt")
+                        .temperature(0.8)
+                        .build()));
+    }
+
+    @Test
+    void keepsResponsesAcrossRestarts() {
+        String key = cache.key(request(List.of(), "Hi"), defaults);
+        cache.put(
+                key,
+                ChatResponse.builder()
+                        .aiMessage(AiMessage.from("Hello!"))
+                        .finishReason(FinishReason.STOP)
+                        .build());
+        cache.close();
+
+        ExactResponseCache restarted = new ExactResponseCache(properties, new SimpleMeterRegistry());
+        ChatResponse response = restarted.get(key).orElseThrow();
+        assertEquals("Hello!", response.aiMessage().text());
+        assertEquals(FinishReason.STOP, response.finishReason());
+        restarted.close();
+    }
+
+    @Test
+    void streamsCachedResponsesWithoutTheModel() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        StreamingChatModel model = new CachingStreamingChatModel(
+                new StreamingChatModel() {
+                    @Override
+                    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+                        requests.incrementAndGet();
+                        handler.onPartialResponse(
+                                new PartialResponse("Hello!"), new PartialResponseContext(mock(StreamingHandle.class)));
+                        handler.onCompleteResponse(ChatResponse.builder()
+                                .aiMessage(AiMessage.from("Hello!"))
+                                .build());
+                    }
+
+                    @Override
+                    public ChatRequestParameters defaultRequestParameters() {
+                        return defaults;
+                    }
+                },
+                cache);
+
+        assertEquals("Hello!", stream(model));
+        assertEquals("Hello!", stream(model));
+        assertEquals(1, requests.get());
+    }
+
+    private static String stream(StreamingChatModel model) throws Exception {
+        StringBuilder text = new StringBuilder();
+        CompletableFuture<ChatResponse> response = new CompletableFuture<>();
+        model.chat(request(List.of(), "Hi"), new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(PartialResponse partialResponse, PartialResponseContext context) {
+                text.append(partialResponse.text());
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                response.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                response.completeExceptionally(error);
+            }
+        });
+        response.get(1, TimeUnit.SECONDS);
+        return text.toString();
+    }
+
+    private static List<ChatMessage> toolCall(String id) {
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id(id)
+                .name("weather")
+                .arguments("{\"city\":\"Paris\"}")
+                .build();
+        return List.of(AiMessage.from(request), ToolExecutionResultMessage.from(request, "Sunny"));
+    }
+
+    private static ChatRequest request(List<ChatMessage> history, String question) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from("You are Mo"));
+        messages.addAll(history);
+        messages.add(UserMessage.from(question));
+        return ChatRequest.builder().messages(messages).build();
+    }
+}
@@ -0,0 +1,131 @@
+package dev.chatbot.aiservice.cache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticResponseCacheTest {
+
+    private final AssistantProperties properties = new AssistantProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger embedded = new AtomicInteger();
+
+    private SemanticResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties.getSemanticCache().setEnabled(true);
+        properties.getSemanticCache().setSimilarityThreshold(0.9);
+        cache = new SemanticResponseCache(new TrigramEmbeddingModel(), properties, meterRegistry);
+    }
+
+    @Test
+    void answersSimilarQuestionsFromTheCache() {
+        SemanticResponseCache.Lookup miss = cache.lookup("alice", List::of, "What is the capital of France?");
+        assertTrue(miss.answer().isEmpty());
+        miss.store("Paris.");
+
+        assertEquals(
+                "Paris.",
+                cache.lookup("bob", List::of, "what is the capital of France")
+                        .answer()
+                        .orElseThrow());
+        assertTrue(cache.lookup("bob", List::of, "How do I bake sourdough bread?")
+                .answer()
+                .isEmpty());
+        assertEquals(1, count("hit"));
+        assertEquals(2, count("miss"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void skipsTurnsWithContextAndOwnersWhoOptedOut() {
+        properties.getSemanticCache().getOptOutOwners().add("carol");
+        cache.lookup("alice", List::of, "What is the capital of France?").store("Paris.");
+        List<ChatMessage> history = List.of(
+                SystemMessage.from("You are Mo"), UserMessage.from("Hi"), AiMessage.from("Hello! How can I help?"));
+
+        assertTrue(cache.lookup("bob", () -> history, "What is the capital of France?")
+                .answer()
+                .isEmpty());
+        assertTrue(cache.lookup("carol", List::of, "What is the capital of France?")
+                .answer()
+                .isEmpty());
+        assertEquals(1, count("skipped"));
+        assertEquals(1, embedded.get());
+
+        properties.getSemanticCache().setPrefixMessages(2);
+        cache.lookup("bob", () -> history, "What is the capital of France?").store("Paris, as I said.");
+        assertEquals(
+                "Paris, as I said.",
+                cache.lookup("bob", () -> history, "What is the capital of France?")
+                        .answer()
+                        .orElseThrow());
+    }
+
+    @Test
+    void dropsExpiredAndOldestAnswers() {
+        properties.getSemanticCache().setMaxEntries(2);
+        cache.lookup("alice", List::of, "What is the capital of France?").store("Paris.");
+        cache.lookup("alice", List::of, "How do I bake sourdough bread?").store("Slowly.");
+        cache.lookup("alice", List::of, "Which planet is the largest one?").store("Jupiter.");
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.lookup("bob", List::of, "What is the capital of France?")
+                .answer()
+                .isEmpty());
+
+        properties.getSemanticCache().setTtl(Duration.ZERO);
+        assertTrue(cache.lookup("bob", List::of, "Which planet is the largest one?")
+                .answer()
+                .isEmpty());
+    }
+
+    private double count(String result) {
+        return meterRegistry
+                .counter("assistant.semantic.cache.requests", "result", result)
+                .count();
+    }
+
+    /**
+     * Embeds texts as their hashed, case-insensitive character trigrams.
+     */
+    private class TrigramEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            embedded.addAndGet(textSegments.size());
+            return Response.from(textSegments.stream()
+                    .map(segment -> Embedding.from(trigrams(segment.text())))
+                    .toList());
+        }
+
+        private static float[] trigrams(String text) {
+            float[] vector = new float[256];
+            String normalized = text.toLowerCase().replaceAll("[^a-z ]", "");
+            for (int i = 0; i + 3 <= normalized.length(); i++) {
+                vector[Math.floorMod(normalized.substring(i, i + 3).hashCode(), vector.length)]++;
+            }
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package dev.chatbot.aiservice.execution;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+import dev.chatbot.exception.GoneException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunBuffersTest {
+
+    private AssistantProperties properties;
+
+    private RunBuffers runBuffers;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AssistantProperties();
+        properties.getReplay().setMaxEventsPerRun(3);
+        properties.getReplay().setMaxSize(DataSize.ofBytes(1000));
+        runBuffers = new RunBuffers(properties, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        runBuffers.shutdown();
+    }
+
+    @Test
+    void replaysAfterLastEventIdThenStreamsLive() {
+        RunBuffer buffer = runBuffers.create("run-1", "dev");
+        buffer.next("a");
+        buffer.next("b");
+
+        List<RunBuffer.Event> events = new ArrayList<>();
+        Disposable subscription = buffer.subscribe(0).subscribe(events::add);
+        buffer.next("c");
+        buffer.complete();
+        buffer.next("ignored");
+
+        assertEquals(List.of(new RunBuffer.Event(1, "b"), new RunBuffer.Event(2, "c")), events);
+        assertTrue(subscription.isDisposed());
+        assertEquals(List.of("c"), dataOf(buffer.subscribe(1)));
+    }
+
+    @Test
+    void keepsTheLatestEventsOfARun() {
+        RunBuffer buffer = runBuffers.create("run-1", "dev");
+        for (int i = 0; i < 5; i++) {
+            buffer.next("event-" + i);
+        }
+        buffer.complete();
+
+        assertEquals(List.of("event-2", "event-3", "event-4"), dataOf(buffer.subscribe(1)));
+        assertEquals(buffer.size(), runBuffers.size());
+    }
+
+    @Test
+    void reportsEventsThatAreNoLongerKept() {
+        RunBuffer buffer = runBuffers.create("run-1", "dev");
+        for (int i = 0; i < 5; i++) {
+            buffer.next("event-" + i);
+        }
+
+        assertTrue(buffer.hasDropped(0));
+        assertThrows(GoneException.class, () -> buffer.subscribe(0).blockLast());
+
+        buffer.evict();
+        assertFalse(buffer.hasDropped(4));
+        buffer.next("event-5");
+        buffer.complete();
+        assertTrue(buffer.hasDropped(4));
+        assertThrows(GoneException.class, () -> buffer.subscribe(4).blockLast());
+        assertEquals(List.of(), dataOf(buffer.subscribe(5)));
+    }
+
+    @Test
+    void evictsCompletedRunsFirstOnceOverTheCap() {
+        RunBuffer completed = runBuffers.create("run-1", "dev");
+        completed.next("x".repeat(300));
+        completed.complete();
+        RunBuffer running = runBuffers.create("run-2", "dev");
+        running.next("y".repeat(300));
+
+        assertTrue(runBuffers.find("run-1").isEmpty());
+        assertTrue(runBuffers.find("run-2").isPresent());
+        assertEquals(running.size(), runBuffers.size());
+        assertTrue(runBuffers.size() <= properties.getReplay().getMaxSize().toBytes());
+    }
+
+    @Test
+    void expiresRunsAfterTheTtl() {
+        properties.getReplay().setTtl(Duration.ZERO);
+        RunBuffer buffer = runBuffers.create("run-1", "dev");
+        buffer.next("a");
+
+        runBuffers.expire();
+
+        assertTrue(runBuffers.find("run-1").isEmpty());
+        assertEquals(0, runBuffers.size());
+    }
+
+    @Test
+    void abandonsRunOnlyWhenNoClientReattaches() throws InterruptedException {
+        RunBuffer buffer = runBuffers.create("run-1", "dev");
+        CountDownLatch abandoned = new CountDownLatch(1);
+        buffer.onAbandoned(Duration.ofMillis(200), abandoned::countDown);
+
+        buffer.subscribe(-1).subscribe().dispose();
+        Disposable resumed = buffer.subscribe(-1).subscribe();
+        assertFalse(abandoned.await(400, TimeUnit.MILLISECONDS));
+        assertFalse(buffer.isAbandoned());
+
+        resumed.dispose();
+        assertTrue(abandoned.await(2, TimeUnit.SECONDS));
+        assertTrue(buffer.isAbandoned());
+    }
+
+    private static List<String> dataOf(Flux<RunBuffer.Event> events) {
+        return events.map(RunBuffer.Event::data).collectList().block();
+    }
+}
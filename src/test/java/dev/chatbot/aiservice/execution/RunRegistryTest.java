@@ -0,0 +1,118 @@
+package dev.chatbot.aiservice.execution;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import dev.langchain4j.model.chat.response.StreamingHandle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RunRegistry runRegistry;
+
+    @BeforeEach
+    void setUp() {
+        LLMProperties llmProperties = new LLMProperties();
+        llmProperties.setMaxTokens(512);
+        meterRegistry = new SimpleMeterRegistry();
+        runRegistry = new RunRegistry(meterRegistry, llmProperties);
+    }
+
+    @Test
+    void cancelsTheStreamingRequestOnce() {
+        AtomicInteger cancelled = new AtomicInteger();
+        RunRegistry.Run run = runRegistry.register("run-1", UUID.randomUUID(), "dev", cancelled::incrementAndGet);
+        StreamingHandle handle = Mockito.mock(StreamingHandle.class);
+        for (int i = 0; i < 12; i++) {
+            assertTrue(run.onToken(handle));
+        }
+
+        assertTrue(runRegistry.cancel(run, RunRegistry.Reason.REQUEST));
+        assertFalse(runRegistry.cancel(run, RunRegistry.Reason.CLIENT_DISCONNECT));
+
+        assertEquals(1, cancelled.get());
+        Mockito.verify(handle).cancel();
+        assertTrue(runRegistry.find("run-1").isEmpty());
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("assistant.runs.cancelled")
+                        .tag("reason", "request")
+                        .counter()
+                        .count());
+        assertEquals(
+                500,
+                meterRegistry
+                        .get("assistant.runs.cancelled.tokens.saved")
+                        .summary()
+                        .totalAmount());
+    }
+
+    @Test
+    void abortsRequestsAndToolsStartedAfterTheCancel() {
+        RunRegistry.Run run = runRegistry.register("run-1", UUID.randomUUID(), "dev", () -> {});
+        runRegistry.cancel(run, RunRegistry.Reason.CLIENT_DISCONNECT);
+
+        StreamingHandle followUp = Mockito.mock(StreamingHandle.class);
+        assertFalse(run.onToken(followUp));
+        Mockito.verify(followUp).cancel();
+        assertThrows(CancellationException.class, run::beforeTool);
+    }
+
+    @Test
+    void interruptsRunningTools() throws InterruptedException {
+        RunRegistry.Run run = runRegistry.register("run-1", UUID.randomUUID(), "dev", () -> {});
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Thread tool = Thread.ofVirtual().start(() -> {
+            run.beforeTool();
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        runRegistry.cancel(run, RunRegistry.Reason.REQUEST);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        tool.join();
+    }
+
+    @Test
+    void forgetsCompletedRuns() {
+        RunRegistry.Run run = runRegistry.register("run-1", UUID.randomUUID(), "dev", () -> fail("cancelled"));
+
+        assertTrue(runRegistry.complete(run));
+
+        assertTrue(runRegistry.find("run-1").isEmpty());
+        assertFalse(runRegistry.cancel(run, RunRegistry.Reason.REQUEST));
+        assertFalse(run.isCancelled());
+    }
+
+    @Test
+    void completesCancelledRunsNoMore() {
+        AtomicInteger cancelled = new AtomicInteger();
+        RunRegistry.Run run = runRegistry.register("run-1", UUID.randomUUID(), "dev", cancelled::incrementAndGet);
+
+        assertTrue(runRegistry.cancel(run, RunRegistry.Reason.REQUEST));
+
+        assertFalse(runRegistry.complete(run));
+        assertEquals(1, cancelled.get());
+    }
+}
@@ -0,0 +1,168 @@
+package dev.chatbot.aiservice.execution;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.AssistantProperties;
+import dev.chatbot.exception.TooManyRequestsException;
+import dev.chatbot.jdbc.DatabaseUsage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TurnExecutorTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private TurnExecutor turnExecutor;
+
+    private AssistantProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AssistantProperties();
+        properties.setMaxConcurrentTurns(2);
+        properties.getAdmission().setQueueTimeout(Duration.ofSeconds(5));
+        meterRegistry = new SimpleMeterRegistry();
+        turnExecutor = new TurnExecutor(properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        turnExecutor.shutdown();
+    }
+
+    @Test
+    void queuesTurnsBeyondTheLimit() throws InterruptedException {
+        List<Runnable> running = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            String owner = "user-" + i;
+            Thread.ofVirtual()
+                    .start(() -> turnExecutor.submit(
+                            turnExecutor.admit(owner),
+                            done -> {
+                                assertTrue(Thread.currentThread().isVirtual());
+                                running.add(done);
+                                started.countDown();
+                            },
+                            error -> fail(error)));
+        }
+
+        awaitUntil(() -> running.size() == 2 && turnExecutor.queued() == 1);
+        assertEquals(2, turnExecutor.active());
+        assertEquals(1, meterRegistry.get("assistant.turns.queued").gauge().value());
+
+        // completing a turn twice frees a single slot
+        running.getFirst().run();
+        running.getFirst().run();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(2, turnExecutor.active());
+        assertEquals(0, turnExecutor.queued());
+    }
+
+    @Test
+    void freesTheSlotOfTurnsThatFailToStart() throws InterruptedException {
+        CountDownLatch failed = new CountDownLatch(1);
+
+        turnExecutor.submit(
+                turnExecutor.admit("dev"),
+                done -> {
+                    throw new IllegalStateException("memory unavailable");
+                },
+                error -> failed.countDown());
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        awaitUntil(() -> turnExecutor.active() == 0);
+        assertEquals(0, turnExecutor.turnsOf("dev"));
+    }
+
+    @Test
+    void releasesSlotsOfTurnsNeverSubmitted() {
+        TurnExecutor.Slot slot = turnExecutor.admit("dev");
+
+        turnExecutor.release(slot);
+        turnExecutor.release(slot);
+
+        assertEquals(0, turnExecutor.active());
+        assertEquals(0, turnExecutor.turnsOf("dev"));
+    }
+
+    @Test
+    void recordsTheDatabaseUsageOfTurns() throws InterruptedException {
+        CountDownLatch recorded = new CountDownLatch(1);
+
+        turnExecutor.submit(
+                turnExecutor.admit("dev"),
+                done -> {
+                    DatabaseUsage usage = DatabaseUsage.current();
+                    // The turn completes on another thread
+                    Thread.ofVirtual().start(() -> {
+                        assertNull(DatabaseUsage.current());
+                        done.run();
+                        done.run();
+                        recorded.countDown();
+                    });
+                    assertNotNull(usage);
+                },
+                error -> fail(error));
+
+        assertTrue(recorded.await(5, TimeUnit.SECONDS));
+        assertEquals(
+                1, meterRegistry.get("assistant.turns.db.round.trips").summary().count());
+        assertEquals(
+                1,
+                meterRegistry.get("assistant.turns.db.connection.held").timer().count());
+    }
+
+    @Test
+    void rejectsTurnsBeyondTheOwnerLimit() {
+        properties.getAdmission().setMaxTurnsPerOwner(1);
+        turnExecutor.submit(turnExecutor.admit("dev"), done -> {}, error -> fail(error));
+
+        TooManyRequestsException rejected =
+                assertThrows(TooManyRequestsException.class, () -> turnExecutor.admit("dev"));
+        assertEquals(properties.getAdmission().getRetryAfter(), rejected.getRetryAfter());
+        assertEquals(1, turnExecutor.turnsOf("dev"));
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("assistant.turns.rejected")
+                        .tag("reason", "owner")
+                        .counter()
+                        .count());
+    }
+
+    @Test
+    void rejectsTurnsWhenTheQueueIsFullOrTimesOut() {
+        properties.getAdmission().setMaxQueuedTurns(0);
+        turnExecutor.admit("user-1");
+        turnExecutor.admit("user-2");
+
+        assertThrows(TooManyRequestsException.class, () -> turnExecutor.admit("user-3"));
+        assertEquals(0, turnExecutor.turnsOf("user-3"));
+
+        properties.getAdmission().setMaxQueuedTurns(1);
+        properties.getAdmission().setQueueTimeout(Duration.ofMillis(50));
+        assertThrows(TooManyRequestsException.class, () -> turnExecutor.admit("user-3"));
+        assertEquals(0, turnExecutor.queued());
+        assertEquals(3, meterRegistry.get("assistant.turns.wait").timer().count());
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
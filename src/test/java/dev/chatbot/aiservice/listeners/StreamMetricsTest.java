@@ -0,0 +1,153 @@
+package dev.chatbot.aiservice.listeners;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private StreamMetrics streamMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        LLMProperties properties = new LLMProperties();
+        properties.setModelName("gpt");
+        streamMetrics = new StreamMetrics(properties, meterRegistry);
+    }
+
+    @Test
+    void skipsGapsAcrossToolCalls() throws InterruptedException {
+        StreamMetrics.Stream stream = streamMetrics.start();
+        stream.onToken();
+        stream.onToken();
+        stream.onToolCall();
+        Thread.sleep(200);
+        stream.onToken();
+        Thread.sleep(5);
+        stream.onToken();
+        stream.onComplete();
+        stream.onCancel();
+
+        assertEquals(1, timerCount("assistant.stream.first.token", "false"));
+        assertEquals(1, timerCount("assistant.stream.token.gap", "false"));
+        assertEquals(1, timerCount("assistant.stream.token.gap", "true"));
+        assertTrue(meterRegistry
+                        .get("assistant.stream.token.gap")
+                        .tag("tools", "true")
+                        .timer()
+                        .max(TimeUnit.MILLISECONDS)
+                < 200);
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("assistant.stream.duration")
+                        .tags("tools", "true", "outcome", "complete")
+                        .timer()
+                        .count());
+        assertTrue(meterRegistry
+                .find("assistant.stream.duration")
+                .tag("outcome", "cancelled")
+                .timers()
+                .isEmpty());
+        // two tokens after the first ones of their responses, the tool call
+        // in between not counted
+        assertTrue(meterRegistry
+                        .get("assistant.stream.tokens.per.second")
+                        .tag("tools", "true")
+                        .summary()
+                        .max()
+                > 20);
+    }
+
+    @Test
+    void recordsCachedAnswersWithoutTokenRates() {
+        StreamMetrics.Stream stream = streamMetrics.start();
+        stream.onCached();
+        stream.onComplete();
+
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("assistant.stream.duration")
+                        .tag("outcome", "cached")
+                        .timer()
+                        .count());
+        assertTrue(meterRegistry.find("assistant.stream.tokens.per.second").summaries().stream()
+                .allMatch(summary -> summary.count() == 0));
+    }
+
+    @Test
+    void recordsModelRequestsAndTokens() {
+        MetricsChatModelListener listener = new MetricsChatModelListener(meterRegistry);
+        ChatRequest request = ChatRequest.builder()
+                .messages(UserMessage.from("Weather in Paris?"))
+                .modelName("gpt")
+                .build();
+        Map<Object, Object> attributes = new HashMap<>();
+        listener.onRequest(new ChatModelRequestContext(request, ModelProvider.OPEN_AI, attributes));
+        ChatResponse response = ChatResponse.builder()
+                .aiMessage(AiMessage.from(ToolExecutionRequest.builder()
+                        .name("weather")
+                        .arguments("{}")
+                        .build()))
+                .tokenUsage(new TokenUsage(120, 8))
+                .build();
+        listener.onResponse(new ChatModelResponseContext(response, request, ModelProvider.OPEN_AI, attributes));
+
+        Map<Object, Object> failed = new HashMap<>();
+        listener.onRequest(new ChatModelRequestContext(request, ModelProvider.OPEN_AI, failed));
+        listener.onError(new ChatModelErrorContext(
+                new IllegalStateException("overloaded"), request, ModelProvider.OPEN_AI, failed));
+
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("llm.requests")
+                        .tags("model", "gpt", "tools", "true", "outcome", "success")
+                        .timer()
+                        .count());
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("llm.requests")
+                        .tags("outcome", "error", "error", "IllegalStateException")
+                        .timer()
+                        .count());
+        assertEquals(
+                120,
+                meterRegistry.get("llm.tokens").tag("type", "prompt").summary().totalAmount());
+        assertEquals(
+                8,
+                meterRegistry
+                        .get("llm.tokens")
+                        .tag("type", "completion")
+                        .summary()
+                        .totalAmount());
+    }
+
+    private long timerCount(String name, String tools) {
+        return meterRegistry.get(name).tag("tools", tools).timer().count();
+    }
+}
@@ -0,0 +1,77 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.PersistentChatMemoryStore;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingChatMemoryStoreTest {
+
+    @Mock
+    private PersistentChatMemoryStore delegate;
+
+    private MeterRegistry meterRegistry;
+    private CachingChatMemoryStore store;
+    private UUID memoryId;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        store = new CachingChatMemoryStore(delegate, new MemoryProperties(), meterRegistry);
+        memoryId = UUID.randomUUID();
+    }
+
+    @Test
+    void loadsEachConversationOnce() {
+        List<ChatMessage> messages = List.of(UserMessage.from("Hi"));
+        Mockito.when(delegate.getMessages(memoryId)).thenReturn(messages);
+
+        assertEquals(messages, store.getMessages(memoryId));
+        assertEquals(messages, store.getMessages(memoryId));
+
+        Mockito.verify(delegate, Mockito.times(1)).getMessages(memoryId);
+        assertEquals(
+                1.0,
+                meterRegistry
+                        .get("cache.gets")
+                        .tag("cache", "chat.memory")
+                        .tag("result", "hit")
+                        .functionCounter()
+                        .count());
+    }
+
+    @Test
+    void updateReplacesAndDeleteInvalidates() {
+        List<ChatMessage> messages = List.of(UserMessage.from("Hi"), AiMessage.from("Hello!"));
+
+        store.updateMessages(memoryId, messages);
+        assertEquals(messages, store.getMessages(memoryId));
+        Mockito.verify(delegate, Mockito.never()).getMessages(memoryId);
+
+        store.deleteMessages(memoryId);
+        Mockito.when(delegate.getMessages(memoryId)).thenReturn(List.of());
+        assertEquals(List.of(), store.getMessages(memoryId));
+    }
+
+    @Test
+    void weighsMessageText() {
+        assertTrue(CachingChatMemoryStore.weigh(List.of(UserMessage.from("a".repeat(1000)))) >= 2000);
+    }
+}
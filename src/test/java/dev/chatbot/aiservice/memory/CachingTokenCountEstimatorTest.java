@@ -0,0 +1,74 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingTokenCountEstimatorTest {
+
+    @Mock
+    private TokenCountEstimator delegate;
+
+    @Test
+    void countsEachMessageOnce() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate);
+        ChatMessage question = UserMessage.from("Hi");
+        ChatMessage answer = AiMessage.from("Hello!");
+        Mockito.when(delegate.estimateTokenCountInMessage(question)).thenReturn(5);
+        Mockito.when(delegate.estimateTokenCountInMessage(answer)).thenReturn(7);
+
+        assertEquals(15, estimator.estimateTokenCountInMessages(List.of(question, answer)));
+        assertEquals(15, estimator.estimateTokenCountInMessages(List.of(question, answer)));
+
+        Mockito.verify(delegate, Mockito.times(1)).estimateTokenCountInMessage(question);
+        Mockito.verify(delegate, Mockito.times(1)).estimateTokenCountInMessage(answer);
+    }
+
+    @Test
+    void usesRememberedCounts() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate);
+        ChatMessage question = UserMessage.from("Hi");
+
+        estimator.remember(question, 42);
+
+        assertEquals(42, estimator.estimateTokenCountInMessage(question));
+        Mockito.verifyNoInteractions(delegate);
+    }
+
+    @Test
+    void estimatesMediaContents() {
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(delegate);
+        Mockito.when(delegate.estimateTokenCountInMessage(any())).thenReturn(10);
+        ChatMessage message =
+                UserMessage.from(TextContent.from("What is this?"), ImageContent.from("aGk=", "image/png"));
+
+        assertEquals(
+                10 + CachingTokenCountEstimator.MEDIA_CONTENT_TOKENS, estimator.estimateTokenCountInMessage(message));
+    }
+
+    @Test
+    void fallsBackForUnknownModels() {
+        LLMProperties properties = new LLMProperties();
+        properties.setModelName("qwen3-32b");
+        CachingTokenCountEstimator estimator = new CachingTokenCountEstimator(properties);
+
+        assertTrue(estimator.estimateTokenCountInText("Hello, world!") > 0);
+    }
+}
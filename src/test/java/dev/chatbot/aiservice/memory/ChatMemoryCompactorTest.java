@@ -0,0 +1,143 @@
+package dev.chatbot.aiservice.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.SummaryAssistant;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.domain.ConversationSummary;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatMemoryCompactorTest {
+
+    @Mock
+    private WriteBehindChatMemoryStore chatMemoryStore;
+
+    @Mock
+    private SummaryAssistant summaryAssistant;
+
+    @Mock
+    private ConversationSummaryStore conversationSummaryStore;
+
+    private ChatMemoryCompactor compactor;
+    private UUID conversationId;
+
+    @BeforeEach
+    void setUp() {
+        MemoryProperties properties = new MemoryProperties();
+        properties.getCompaction().setEnabled(true);
+        properties.getCompaction().setTriggerMessages(6);
+        properties.getCompaction().setKeepMessages(2);
+        compactor = new ChatMemoryCompactor(chatMemoryStore, summaryAssistant, conversationSummaryStore, properties);
+        conversationId = UUID.randomUUID();
+    }
+
+    @Test
+    void keepsToolCallsWithTheirResults() {
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id("1")
+                .name("webSearch")
+                .arguments("{}")
+                .build();
+        List<ChatMessage> messages = List.of(
+                SystemMessage.from("You are Mo"),
+                UserMessage.from("Q1"),
+                AiMessage.from("A1"),
+                UserMessage.from("Q2"),
+                AiMessage.from(request),
+                ToolExecutionResultMessage.from(request, "result"),
+                AiMessage.from("A2"));
+
+        // keeping 2 would cut between the tool call and its result, so the whole
+        // second turn is kept
+        assertEquals(messages.subList(1, 3), ChatMemoryCompactor.foldable(messages, 6, 2));
+        assertEquals(List.of(), ChatMemoryCompactor.foldable(messages, 7, 2));
+        assertEquals(List.of(), ChatMemoryCompactor.foldable(messages, 6, 5));
+    }
+
+    @Test
+    void foldsOldTurnsIntoTheSummary() {
+        List<ChatMessage> messages = conversation(4);
+        Mockito.when(chatMemoryStore.getMessages(conversationId)).thenReturn(messages);
+        Mockito.when(conversationSummaryStore.get(conversationId))
+                .thenReturn(Optional.of(ConversationSummary.builder()
+                        .conversationId(conversationId)
+                        .summary("Earlier")
+                        .foldedMessages(4)
+                        .build()));
+        Mockito.when(summaryAssistant.compact(eq("Earlier"), anyString())).thenReturn("Updated");
+        runLocked();
+
+        assertTrue(compactor.compact(conversationId));
+
+        ArgumentCaptor<ConversationSummary> summary = ArgumentCaptor.forClass(ConversationSummary.class);
+        Mockito.verify(conversationSummaryStore).save(summary.capture());
+        assertEquals("Updated", summary.getValue().getSummary());
+        assertEquals(10, summary.getValue().getFoldedMessages());
+        Mockito.verify(chatMemoryStore)
+                .updateMessages(conversationId, List.of(messages.get(0), messages.get(7), messages.get(8)));
+    }
+
+    @Test
+    void discardsTheSummaryWhenTheWindowChanged() {
+        List<ChatMessage> messages = conversation(4);
+        List<ChatMessage> evicted = new ArrayList<>(messages);
+        evicted.remove(1);
+        Mockito.when(chatMemoryStore.getMessages(conversationId)).thenReturn(messages, evicted);
+        Mockito.when(conversationSummaryStore.get(conversationId)).thenReturn(Optional.empty());
+        Mockito.when(summaryAssistant.compact(eq(""), anyString())).thenReturn("Summary");
+        runLocked();
+
+        assertFalse(compactor.compact(conversationId));
+
+        Mockito.verify(conversationSummaryStore, Mockito.never()).save(any());
+        Mockito.verify(chatMemoryStore, Mockito.never()).updateMessages(any(), any());
+    }
+
+    @Test
+    void mergesTheSummaryIntoTheSystemMessage() {
+        List<ChatMessage> merged = CompactingChatMemory.withSummary(
+                List.of(SystemMessage.from("You are Mo"), UserMessage.from("Hi")), "They like tea.");
+
+        assertEquals(2, merged.size());
+        assertEquals(
+                "You are Mo\n\n" + CompactingChatMemory.SUMMARY_HEADER + "They like tea.",
+                ((SystemMessage) merged.getFirst()).text());
+    }
+
+    private void runLocked() {
+        Mockito.when(chatMemoryStore.withLock(eq(conversationId), any(Supplier.class)))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
+    }
+
+    private List<ChatMessage> conversation(int turns) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from("You are Mo"));
+        for (int i = 0; i < turns; i++) {
+            messages.add(UserMessage.from("Q" + i));
+            messages.add(AiMessage.from("A" + i));
+        }
+        return messages;
+    }
+}
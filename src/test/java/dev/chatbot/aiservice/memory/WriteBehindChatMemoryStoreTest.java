@@ -0,0 +1,112 @@
+package dev.chatbot.aiservice.memory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class WriteBehindChatMemoryStoreTest {
+
+    @Mock
+    private CachingChatMemoryStore delegate;
+
+    private MemoryProperties properties;
+    private UUID memoryId;
+
+    @BeforeEach
+    void setUp() {
+        properties = new MemoryProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setFlushDelay(Duration.ofMinutes(1));
+        memoryId = UUID.randomUUID();
+    }
+
+    @Test
+    void coalescesUpdatesUntilFlush() {
+        WriteBehindChatMemoryStore store = new WriteBehindChatMemoryStore(delegate, properties);
+        List<ChatMessage> question = List.of(UserMessage.from("Hi"));
+        List<ChatMessage> answer = List.of(UserMessage.from("Hi"), AiMessage.from("Hello!"));
+
+        store.updateMessages(memoryId, question);
+        store.updateMessages(memoryId, answer);
+
+        // reads are served from the pending list without touching the delegate
+        assertEquals(answer, store.getMessages(memoryId));
+        Mockito.verifyNoInteractions(delegate);
+
+        store.flush(memoryId);
+        store.flush(memoryId);
+        Mockito.verify(delegate, Mockito.times(1)).updateMessages(memoryId, answer);
+    }
+
+    @Test
+    void flushesAfterDelay() {
+        properties.getWriteBehind().setFlushDelay(Duration.ofMillis(10));
+        WriteBehindChatMemoryStore store = new WriteBehindChatMemoryStore(delegate, properties);
+        List<ChatMessage> question = List.of(UserMessage.from("Hi"));
+
+        store.updateMessages(memoryId, question);
+
+        Mockito.verify(delegate, Mockito.timeout(1000)).updateMessages(memoryId, question);
+    }
+
+    @Test
+    void retriesFailedFlushes() {
+        properties.getWriteBehind().setFlushDelay(Duration.ofMillis(10));
+        WriteBehindChatMemoryStore store = new WriteBehindChatMemoryStore(delegate, properties);
+        List<ChatMessage> question = List.of(UserMessage.from("Hi"));
+        Mockito.doThrow(new IllegalStateException("database down"))
+                .doNothing()
+                .when(delegate)
+                .updateMessages(memoryId, question);
+
+        store.updateMessages(memoryId, question);
+
+        Mockito.verify(delegate, Mockito.timeout(1000).times(2)).updateMessages(memoryId, question);
+        store.flush(memoryId);
+        Mockito.verify(delegate, Mockito.times(2)).updateMessages(memoryId, question);
+    }
+
+    @Test
+    void flushesBeforeReadingTheTranscript() {
+        WriteBehindChatMemoryStore store = new WriteBehindChatMemoryStore(delegate, properties);
+        List<ChatMessage> question = List.of(UserMessage.from("Hi"));
+        Mockito.when(delegate.getTranscript(memoryId)).thenReturn(question);
+
+        store.updateMessages(memoryId, question);
+
+        assertEquals(question, store.getTranscript(memoryId));
+        InOrder inOrder = Mockito.inOrder(delegate);
+        inOrder.verify(delegate).updateMessages(memoryId, question);
+        inOrder.verify(delegate).getTranscript(memoryId);
+    }
+
+    @Test
+    void writesThroughWhenDisabled() {
+        properties.getWriteBehind().setEnabled(false);
+        WriteBehindChatMemoryStore store = new WriteBehindChatMemoryStore(delegate, properties);
+        List<ChatMessage> question = List.of(UserMessage.from("Hi"));
+
+        store.updateMessages(memoryId, question);
+
+        Mockito.verify(delegate).updateMessages(eq(memoryId), eq(question));
+        assertFalse(store.isFlushOnComplete());
+    }
+}
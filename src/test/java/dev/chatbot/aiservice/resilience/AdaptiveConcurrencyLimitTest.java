@@ -0,0 +1,63 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTest {
+
+    @Test
+    void growsWhileFastAndShrinksOnceSlower() throws InterruptedException {
+        LLMProperties.Concurrency properties = new LLMProperties.Concurrency();
+        properties.setInitialLimit(10);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limit.acquire(Duration.ZERO));
+        }
+        assertFalse(limit.acquire(Duration.ofMillis(10)));
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(100, TimeUnit.MILLISECONDS);
+        }
+        int grown = limit.getLimit();
+        assertTrue(grown > 10, "limit " + grown);
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(1000, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(limit.getLimit() < grown, "limit " + limit.getLimit());
+        assertTrue(limit.getLimit() >= properties.getMinLimit());
+    }
+
+    @Test
+    void doesNotGrowAnUnusedLimit() {
+        LLMProperties.Concurrency properties = new LLMProperties.Concurrency();
+        properties.setInitialLimit(10);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties);
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    void backsOffOnFailures() {
+        LLMProperties.Concurrency properties = new LLMProperties.Concurrency();
+        properties.setInitialLimit(10);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(properties);
+
+        limit.onDropped();
+        assertEquals(9, limit.getLimit());
+        for (int i = 0; i < 50; i++) {
+            limit.onDropped();
+        }
+        assertEquals(properties.getMinLimit(), limit.getLimit());
+    }
+}
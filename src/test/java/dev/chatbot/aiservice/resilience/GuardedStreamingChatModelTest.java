@@ -0,0 +1,84 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+import dev.chatbot.exception.ModelUnavailableException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import static dev.chatbot.aiservice.resilience.StubOpenAiServer.chat;
+
+class GuardedStreamingChatModelTest {
+
+    private StubOpenAiServer server;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private ModelGuard guard;
+
+    private StreamingChatModel model;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubOpenAiServer("Hello");
+        LLMProperties properties = new LLMProperties();
+        properties.getCircuitBreaker().setMinimumCalls(4);
+        properties.getCircuitBreaker().setOpenDuration(Duration.ofMinutes(1));
+        meterRegistry = new SimpleMeterRegistry();
+        guard = new ModelGuard("stub", Tags.of("model", "stub"), properties, meterRegistry);
+        model = new GuardedStreamingChatModel(server.model(), guard);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void streamsAndGivesTheRequestBack() throws Exception {
+        assertEquals(
+                "Hello", chat(model, "Hi").get(10, TimeUnit.SECONDS).aiMessage().text());
+
+        assertEquals(0, guard.limit().getInFlight());
+        assertEquals(CircuitBreaker.State.CLOSED, guard.circuitBreaker().getState());
+    }
+
+    @Test
+    void failsFastOnceTheModelKeepsFailing() {
+        server.failing = true;
+        for (int i = 0; i < 4; i++) {
+            CompletableFuture<ChatResponse> response = chat(model, "Hi");
+            assertThrows(Exception.class, () -> response.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.circuitBreaker().getState());
+        assertFalse(guard.isAvailable());
+        assertTrue(guard.limit().getLimit() < new LLMProperties.Concurrency().getInitialLimit());
+        int sent = server.requests.get();
+
+        CompletableFuture<ChatResponse> rejected = chat(model, "Hi");
+        Exception error = assertThrows(Exception.class, () -> rejected.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(ModelUnavailableException.class, error.getCause());
+        assertEquals(sent, server.requests.get());
+        assertEquals(0, guard.limit().getInFlight());
+        assertEquals(
+                1,
+                meterRegistry
+                        .get("llm.requests.rejected")
+                        .tag("reason", "circuit_open")
+                        .counter()
+                        .count());
+    }
+}
@@ -0,0 +1,114 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.scheduler.Schedulers;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static dev.chatbot.aiservice.resilience.StubOpenAiServer.chat;
+
+class HedgingStreamingChatModelTest {
+
+    private final List<StubOpenAiServer> servers = new ArrayList<>();
+
+    private final LLMProperties properties = new LLMProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RoutingStreamingChatModel router;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        properties.getHedging().setEnabled(true);
+        properties.getHedging().setInitialDelay(Duration.ofMillis(200));
+        properties.getHedging().setSamples(10);
+        List<RoutingStreamingChatModel.Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            StubOpenAiServer server = new StubOpenAiServer("replica-" + i);
+            servers.add(server);
+            ModelGuard guard =
+                    new ModelGuard("replica-" + i, Tags.of("endpoint", "replica-" + i), properties, meterRegistry);
+            replicas.add(new RoutingStreamingChatModel.Replica(
+                    "replica-" + i, new GuardedStreamingChatModel(server.model(), guard), guard));
+        }
+        TokenCountEstimator tokenCountEstimator = mock(TokenCountEstimator.class);
+        when(tokenCountEstimator.estimateTokenCountInMessages(any())).thenReturn(10);
+        router = new RoutingStreamingChatModel(replicas, tokenCountEstimator, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(StubOpenAiServer::close);
+    }
+
+    @Test
+    void streamsTheHedgeWhenTheFirstTokenIsLate() throws Exception {
+        HedgingStreamingChatModel model = hedging();
+        RoutingStreamingChatModel.Replica sticky = router.sticky(List.of(UserMessage.from("Hi")));
+        StubOpenAiServer slow = servers.get(router.route(sticky, null).getName().endsWith("0") ? 0 : 1);
+        slow.firstTokenDelay = Duration.ofSeconds(2);
+
+        String answer = chat(model, "Hi").get(10, TimeUnit.SECONDS).aiMessage().text();
+
+        assertNotEquals(servers.indexOf(slow), Integer.parseInt(answer.substring("replica-".length())));
+        assertEquals(1, count("fired"));
+        assertEquals(1, count("won"));
+        assertEquals(1, slow.requests.get());
+    }
+
+    @Test
+    void skipsHedgesBeyondTheBudget() throws Exception {
+        properties.getHedging().setBudgetBurst(0);
+        properties.getHedging().setBudgetRatio(0);
+        HedgingStreamingChatModel model = hedging();
+        servers.forEach(server -> server.firstTokenDelay = Duration.ofMillis(500));
+
+        chat(model, "Hi").get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, count("fired"));
+        assertEquals(1, count("skipped"));
+        assertEquals(
+                1, servers.stream().mapToInt(server -> server.requests.get()).sum());
+    }
+
+    @Test
+    void derivesTheDelayFromRecentTimesToFirstToken() throws Exception {
+        properties.getHedging().setMinDelay(Duration.ofMillis(1));
+        properties.getHedging().setPercentile(0.5);
+        HedgingStreamingChatModel model = hedging();
+
+        for (int i = 0; i < 10; i++) {
+            chat(model, "Hi " + i).get(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(model.delay().compareTo(Duration.ofMillis(200)) < 0);
+        assertTrue(model.delay().compareTo(Duration.ofMillis(1)) >= 0);
+    }
+
+    private HedgingStreamingChatModel hedging() {
+        return new HedgingStreamingChatModel(
+                router, properties.getHedging(), Schedulers.boundedElastic(), meterRegistry);
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.counter("llm.hedge.requests", "outcome", outcome).count();
+    }
+}
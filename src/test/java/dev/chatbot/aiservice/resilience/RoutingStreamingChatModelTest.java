@@ -0,0 +1,116 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.aiservice.properties.LLMProperties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static dev.chatbot.aiservice.resilience.StubOpenAiServer.chat;
+
+class RoutingStreamingChatModelTest {
+
+    private final List<StubOpenAiServer> servers = new ArrayList<>();
+
+    private final List<RoutingStreamingChatModel.Replica> replicas = new ArrayList<>();
+
+    private RoutingStreamingChatModel model;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        LLMProperties properties = new LLMProperties();
+        properties.setMaxTokens(100);
+        properties.getRouting().setAffinitySlackTokens(0);
+        properties.getCircuitBreaker().setMinimumCalls(2);
+        properties.getCircuitBreaker().setOpenDuration(Duration.ofMinutes(1));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        for (int i = 0; i < 3; i++) {
+            StubOpenAiServer server = new StubOpenAiServer("replica-" + i);
+            servers.add(server);
+            ModelGuard guard =
+                    new ModelGuard("replica-" + i, Tags.of("endpoint", "replica-" + i), properties, meterRegistry);
+            replicas.add(new RoutingStreamingChatModel.Replica(
+                    "replica-" + i, new GuardedStreamingChatModel(server.model(), guard), guard));
+        }
+        TokenCountEstimator tokenCountEstimator = mock(TokenCountEstimator.class);
+        when(tokenCountEstimator.estimateTokenCountInMessages(any())).thenReturn(10);
+        model = new RoutingStreamingChatModel(replicas, tokenCountEstimator, properties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(StubOpenAiServer::close);
+    }
+
+    @Test
+    void keepsConversationsOnTheReplicaOfTheirPrefix() throws Exception {
+        String first = answer("Tell me about cats");
+        for (int i = 0; i < 5; i++) {
+            assertEquals(first, answer("Tell me about cats"));
+        }
+        List<ChatMessage> laterTurn =
+                List.of(SystemMessage.from("system"), UserMessage.from("Hi"), UserMessage.from("Next question"));
+        assertSame(
+                model.sticky(List.of(SystemMessage.from("system"), UserMessage.from("Hi"))), model.sticky(laterTurn));
+
+        Set<String> spread = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            spread.add(
+                    model.sticky(List.of(UserMessage.from("conversation " + i))).getName());
+        }
+        assertEquals(3, spread.size());
+        replicas.forEach(replica -> assertEquals(0, replica.outstandingTokens()));
+    }
+
+    @Test
+    void sendsRequestsToTheLeastLoadedReplicaBeyondTheSlack() throws Exception {
+        RoutingStreamingChatModel.Replica sticky = model.sticky(List.of(UserMessage.from("Hi")));
+        StubOpenAiServer slow = servers.get(replicas.indexOf(sticky));
+        slow.firstTokenDelay = Duration.ofSeconds(2);
+
+        var pending = chat(model, "Hi");
+        assertTrue(sticky.outstandingTokens() > 0);
+        assertNotEquals(sticky, model.route(sticky, null));
+
+        pending.get(10, TimeUnit.SECONDS);
+        assertEquals(0, sticky.outstandingTokens());
+    }
+
+    @Test
+    void skipsReplicasWhoseCircuitIsOpen() throws Exception {
+        RoutingStreamingChatModel.Replica sticky = model.sticky(List.of(UserMessage.from("Hi")));
+        StubOpenAiServer failing = servers.get(replicas.indexOf(sticky));
+        failing.failing = true;
+        for (int i = 0; i < 2; i++) {
+            var response = chat(model, "Hi");
+            assertThrows(Exception.class, () -> response.get(10, TimeUnit.SECONDS));
+        }
+
+        assertNotEquals(sticky.getName(), answer("Hi"));
+        assertEquals(2, failing.requests.get());
+    }
+
+    private String answer(String message) throws Exception {
+        return chat(model, message).get(10, TimeUnit.SECONDS).aiMessage().text();
+    }
+}
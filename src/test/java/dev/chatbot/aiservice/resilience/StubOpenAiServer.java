@@ -0,0 +1,105 @@
+package dev.chatbot.aiservice.resilience;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+
+/**
+ * A local stub of the OpenAI chat completions API that streams a fixed
+ * answer, optionally after a delay, or fails with 503.
+ */
+class StubOpenAiServer implements AutoCloseable {
+
+    private static final String CHUNK =
+            "data: {\"id\":\"1\",\"object\":\"chat.completion.chunk\",\"created\":1,\"model\":\"stub\","
+                    + "\"choices\":[{\"index\":0,\"delta\":%s,\"finish_reason\":%s}]}\n\n";
+
+    private final HttpServer server;
+
+    private final String answer;
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    volatile boolean failing;
+
+    volatile Duration firstTokenDelay = Duration.ZERO;
+
+    StubOpenAiServer(String answer) throws IOException {
+        this.answer = answer;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/chat/completions", this::complete);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    StreamingChatModel model() {
+        return OpenAiStreamingChatModel.builder()
+                .baseUrl(baseUrl())
+                .apiKey("test")
+                .modelName("stub")
+                .build();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    static CompletableFuture<ChatResponse> chat(StreamingChatModel model, String message) {
+        CompletableFuture<ChatResponse> response = new CompletableFuture<>();
+        model.chat(message, new StreamingChatResponseHandler() {
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                response.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                response.completeExceptionally(error);
+            }
+        });
+        return response;
+    }
+
+    private void complete(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getRequestBody().readAllBytes();
+        if (failing) {
+            byte[] body = "{\"error\":{\"message\":\"overloaded\"}}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(503, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            Thread.sleep(firstTokenDelay);
+            out.write(CHUNK.formatted("{\"role\":\"assistant\",\"content\":\"" + answer + "\"}", "null")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.write(CHUNK.formatted("{}", "\"stop\"").getBytes(StandardCharsets.UTF_8));
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client cancelled the stream
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dev.chatbot.attachment;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.domain.Attachment;
+import dev.chatbot.repository.AttachmentRepository;
+
+import static dev.langchain4j.data.message.ChatMessageSerializer.messageToJson;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+@ExtendWith(MockitoExtension.class)
+class AttachmentStoreTest {
+
+    @Mock
+    private AttachmentRepository attachmentRepository;
+
+    @TempDir
+    private Path baseDir;
+
+    private final Map<String, Attachment> index = new HashMap<>();
+
+    private AttachmentProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new AttachmentProperties();
+        properties.setBaseDir(baseDir.toString());
+        Mockito.lenient()
+                .when(attachmentRepository.existsById(anyString()))
+                .thenAnswer(invocation -> index.containsKey(invocation.<String>getArgument(0)));
+        Mockito.lenient()
+                .when(attachmentRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(index.get(invocation.<String>getArgument(0))));
+        Mockito.lenient()
+                .doAnswer(invocation -> index.putIfAbsent(
+                        invocation.getArgument(0),
+                        Attachment.builder()
+                                .hash(invocation.getArgument(0))
+                                .mediaType(invocation.getArgument(1))
+                                .segment(invocation.getArgument(2))
+                                .offset(invocation.getArgument(3))
+                                .length(invocation.getArgument(4))
+                                .build()))
+                .when(attachmentRepository)
+                .insertIfAbsent(anyString(), anyString(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    void storesEachContentOnce() {
+        AttachmentStore store = new AttachmentStore(attachmentRepository, properties);
+        byte[] data = "cat picture".getBytes(StandardCharsets.UTF_8);
+
+        String hash = store.put(data, "image/png");
+
+        assertEquals(hash, store.put(data.clone(), "image/png"));
+        Mockito.verify(attachmentRepository, Mockito.times(1))
+                .insertIfAbsent(eq(hash), anyString(), anyInt(), anyLong(), anyLong());
+        assertEquals(ByteBuffer.wrap(data), store.read(store.find(hash).orElseThrow()));
+        assertTrue(store.find("not-a-hash").isEmpty());
+    }
+
+    @Test
+    void rollsOverFullSegments() {
+        properties.setSegmentSize(DataSize.ofBytes(10));
+        AttachmentStore store = new AttachmentStore(attachmentRepository, properties);
+
+        Attachment first =
+                store.find(store.put(new byte[] {1, 2, 3, 4, 5, 6}, null)).orElseThrow();
+        Attachment second =
+                store.find(store.put(new byte[] {7, 8, 9, 10, 11, 12}, null)).orElseThrow();
+
+        assertEquals(0, first.getSegment());
+        assertEquals(1, second.getSegment());
+        assertEquals(0, second.getOffset());
+        assertEquals(ByteBuffer.wrap(new byte[] {7, 8, 9, 10, 11, 12}), store.read(second));
+
+        // a reopened store appends to the last segment
+        AttachmentStore reopened = new AttachmentStore(attachmentRepository, properties);
+        Attachment third = reopened.find(reopened.put(new byte[] {13}, null)).orElseThrow();
+        assertEquals(1, third.getSegment());
+        assertEquals(6, third.getOffset());
+    }
+
+    @Test
+    void keepsOnlyReferencesInMessages() {
+        MessageAttachments messageAttachments =
+                new MessageAttachments(new AttachmentStore(attachmentRepository, properties));
+        String data = Base64.getEncoder().encodeToString("cat picture".getBytes(StandardCharsets.UTF_8));
+        ChatMessage message = UserMessage.from(TextContent.from("What is this?"), ImageContent.from(data, "image/png"));
+
+        ChatMessage externalized = messageAttachments.externalize(message);
+
+        assertSame(externalized, messageAttachments.externalize(message));
+        assertFalse(messageToJson(externalized).contains(data));
+        ImageContent image =
+                (ImageContent) ((UserMessage) externalized).contents().get(1);
+        assertNotNull(MessageAttachments.hash(image.image().url()));
+        assertEquals("image/png", image.image().mimeType());
+        assertEquals(message, messageAttachments.rehydrate(externalized));
+
+        UUID conversationId = UUID.randomUUID();
+        messageAttachments.link(conversationId, externalized);
+        Mockito.verify(attachmentRepository)
+                .linkIfAbsent(MessageAttachments.hash(image.image().url()), conversationId);
+    }
+}
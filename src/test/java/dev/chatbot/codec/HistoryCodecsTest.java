@@ -0,0 +1,89 @@
+package dev.chatbot.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.aiservice.properties.MemoryProperties.Codec;
+
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCodecsTest {
+
+    @ParameterizedTest
+    @EnumSource(Codec.class)
+    void roundTripsHistories(Codec codec) {
+        HistoryCodecs codecs = codecs(codec);
+        List<ChatMessage> history = history(20);
+        String json = messagesToJson(history);
+
+        byte[] payload = codecs.encode(json);
+
+        assertEquals(HistoryCodecs.VERSION, payload[0]);
+        assertEquals(history, messagesFromJson(codecs.decode(payload)));
+        if (codec != Codec.JSON) {
+            assertTrue(payload.length < json.length() / 2);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Codec.class)
+    void streamsHistoryElements(Codec codec) {
+        HistoryCodecs codecs = codecs(codec);
+        List<ChatMessage> history = history(20);
+        String json = messagesToJson(history);
+
+        List<ChatMessage> streamed = new ArrayList<>();
+        codecs.forEachElement(null, codecs.encode(json), element -> streamed.add(messageFromJson(element)));
+        assertEquals(history, streamed);
+
+        streamed.clear();
+        codecs.forEachElement(json, null, element -> streamed.add(messageFromJson(element)));
+        assertEquals(history, streamed);
+    }
+
+    @Test
+    void storesSmallHistoriesUncompressed() {
+        byte[] payload = codecs(Codec.SMILE).encode(messagesToJson(List.of(UserMessage.from("Hi"))));
+        assertEquals(JsonHistoryCodec.ID, payload[1]);
+    }
+
+    @Test
+    void readsPayloadsOfOtherCodecsAndLegacyText() {
+        String json = messagesToJson(history(5));
+        byte[] deflated = codecs(Codec.DEFLATE).encode(json);
+
+        HistoryCodecs codecs = codecs(Codec.SMILE);
+        assertEquals(json, codecs.read(null, deflated));
+        assertEquals(json, codecs.read(json, null));
+        assertThrows(IllegalStateException.class, () -> codecs.decode(new byte[] {HistoryCodecs.VERSION, 42}));
+    }
+
+    private HistoryCodecs codecs(Codec codec) {
+        MemoryProperties properties = new MemoryProperties();
+        properties.setCodec(codec);
+        return new HistoryCodecs(properties);
+    }
+
+    private List<ChatMessage> history(int turns) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from("You are Mo, a helpful assistant."));
+        for (int i = 0; i < turns; i++) {
+            messages.add(UserMessage.from("Question " + i + ": what is the capital of France?"));
+            messages.add(AiMessage.from("Answer " + i + ": the capital of France is Paris."));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,78 @@
+package dev.chatbot.controller;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import static dev.chatbot.controller.ChunkCoalescer.Kind.CONTENT;
+import static dev.chatbot.controller.ChunkCoalescer.Kind.REASONING;
+
+class ChunkCoalescerTest {
+
+    private final List<String> chunks = new CopyOnWriteArrayList<>();
+
+    @Test
+    void mergesTokensOfTheSameKind() {
+        ChunkCoalescer coalescer = coalescer(Duration.ofMinutes(1), 1024);
+
+        coalescer.append(REASONING, "Let");
+        coalescer.append(REASONING, " me");
+        coalescer.append(REASONING, " think");
+        coalescer.append(CONTENT, "It");
+        coalescer.append(CONTENT, "");
+        coalescer.append(CONTENT, " is");
+        coalescer.append(CONTENT, " sunny");
+        coalescer.flush();
+
+        assertEquals(List.of("REASONING:Let", "REASONING: me think", "CONTENT:It", "CONTENT: is sunny"), chunks);
+    }
+
+    @Test
+    void emitsFullChunksRightAway() {
+        ChunkCoalescer coalescer = coalescer(Duration.ofMinutes(1), 4);
+
+        coalescer.append(CONTENT, "a");
+        coalescer.append(CONTENT, "bb");
+        coalescer.append(CONTENT, "cc");
+        coalescer.append(CONTENT, "d");
+
+        assertEquals(List.of("CONTENT:a", "CONTENT:bbcc"), chunks);
+    }
+
+    @Test
+    void emitsCollectedTokensOnceTheWindowHasPassed() throws InterruptedException {
+        ChunkCoalescer coalescer = coalescer(Duration.ofMillis(20), 1024);
+
+        coalescer.append(CONTENT, "a");
+        coalescer.append(CONTENT, "b");
+        coalescer.append(CONTENT, "c");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (chunks.size() < 2) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+        assertEquals(List.of("CONTENT:a", "CONTENT:bc"), chunks);
+    }
+
+    @Test
+    void sendsEveryTokenWithoutWindow() {
+        ChunkCoalescer coalescer = coalescer(Duration.ZERO, 1024);
+
+        coalescer.append(CONTENT, "a");
+        coalescer.append(CONTENT, "b");
+
+        assertEquals(List.of("CONTENT:a", "CONTENT:b"), chunks);
+    }
+
+    private ChunkCoalescer coalescer(Duration window, int maxChars) {
+        return new ChunkCoalescer(window, maxChars, Schedulers.single(), (kind, text) -> chunks.add(kind + ":" + text));
+    }
+}
@@ -0,0 +1,73 @@
+package dev.chatbot.controller;
+
+import java.time.Instant;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.Test;
+
+import dev.chatbot.dto.ChatMessage;
+import dev.chatbot.utils.Json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkEncoderTest {
+
+    private static final Instant SENT_AT = Instant.parse("2026-10-18T08:15:30.123456789Z");
+
+    @Test
+    void encodesLikeTheObjectMapper() {
+        ChunkEncoder encoder = new ChunkEncoder("run \"1\"", "user-1");
+        StringBuilder text = new StringBuilder("Gr\u00fc\u00dfe \ud83d\ude00 </script> \u2028 ");
+        for (char c = 0; c < 0x80; c++) {
+            text.append(c);
+        }
+
+        assertEquals(
+                Json.toJson(ChatMessage.builder()
+                        .id("run \"1\"")
+                        .parentId("user-1")
+                        .type("AIMessageChunk")
+                        .from("ai")
+                        .sentAt(SENT_AT)
+                        .content(text.toString())
+                        .build()),
+                encoder.encode(ChunkCoalescer.Kind.CONTENT, text.toString(), SENT_AT));
+        assertEquals(
+                Json.toJson(ChatMessage.builder()
+                        .id("run \"1\"")
+                        .parentId("user-1")
+                        .type("AIMessageChunk")
+                        .from("ai")
+                        .sentAt(SENT_AT.truncatedTo(ChronoUnit.SECONDS))
+                        .reasoning("Let me think")
+                        .content("")
+                        .build()),
+                encoder.encode(ChunkCoalescer.Kind.REASONING, "Let me think", SENT_AT.truncatedTo(ChronoUnit.SECONDS)));
+    }
+
+    @Test
+    void encodesTimestampsLikeTheObjectMapper() {
+        ChunkEncoder encoder = new ChunkEncoder("run", "user-1");
+        for (int nano : new int[] {0, 5_000_000, 120_000_000, 123_456_000, 7_000, 123_456_789, 1}) {
+            Instant sentAt = SENT_AT.with(ChronoField.NANO_OF_SECOND, nano);
+            assertEquals(
+                    Json.toJson(ChatMessage.builder()
+                            .id("run")
+                            .parentId("user-1")
+                            .type("AIMessageChunk")
+                            .from("ai")
+                            .sentAt(sentAt)
+                            .content("Hi")
+                            .build()),
+                    encoder.encode(ChunkCoalescer.Kind.CONTENT, "Hi", sentAt));
+        }
+    }
+
+    @Test
+    void encodesMissingParent() {
+        assertTrue(new ChunkEncoder("run", null)
+                .encode(ChunkCoalescer.Kind.CONTENT, "Hi", SENT_AT)
+                .startsWith("{\"id\":\"run\",\"parent_id\":null,"));
+    }
+}
@@ -0,0 +1,113 @@
+package dev.chatbot.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.UserMessage;
+
+import dev.chatbot.aiservice.memory.ChatTranscriptStore;
+import dev.chatbot.aiservice.properties.MemoryProperties;
+import dev.chatbot.attachment.AttachmentStore;
+import dev.chatbot.codec.HistoryCodecs;
+import dev.chatbot.domain.Attachment;
+import dev.chatbot.domain.Share;
+import dev.chatbot.exception.ForbiddenException;
+import dev.chatbot.repository.ConversationRepository;
+import dev.chatbot.repository.ShareRepository;
+import dev.chatbot.service.ShareService;
+
+import static dev.langchain4j.data.message.ChatMessageSerializer.messagesToJson;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class ShareControllerTest {
+
+    private static final String HASH = "ab".repeat(32);
+
+    private static final String OTHER_HASH = "cd".repeat(32);
+
+    @Mock
+    private ShareRepository shareRepository;
+
+    @Mock
+    private ConversationRepository conversationRepository;
+
+    @Mock
+    private ChatTranscriptStore chatTranscriptStore;
+
+    @Mock
+    private AttachmentStore attachmentStore;
+
+    private ShareController shareController;
+
+    private Share share;
+
+    @BeforeEach
+    void setUp() {
+        HistoryCodecs historyCodecs = new HistoryCodecs(new MemoryProperties());
+        ShareService shareService = new ShareService(
+                shareRepository, conversationRepository, chatTranscriptStore, historyCodecs, attachmentStore);
+        shareController = new ShareController(shareService, attachmentStore);
+        share = Share.builder()
+                .id(UUID.randomUUID())
+                .title("Cats")
+                .owner("dev")
+                .url("http://localhost/share/1")
+                .snapshot(historyCodecs.encode(messagesToJson(List.of(UserMessage.from(
+                        TextContent.from("What is this?"), ImageContent.from(URI.create("attachment:" + HASH)))))))
+                .build();
+        Mockito.when(shareRepository.findById(share.getId())).thenReturn(Optional.of(share));
+    }
+
+    @Test
+    void servesAttachmentsOfTheShareToAnyViewer() throws IOException {
+        Mockito.when(attachmentStore.find(HASH))
+                .thenReturn(Optional.of(
+                        Attachment.builder().hash(HASH).mediaType("image/png").build()));
+        Mockito.when(attachmentStore.read(Mockito.any()))
+                .thenReturn(ByteBuffer.wrap("cat picture".getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        shareController.getShare(share.getId().toString()).getBody().writeTo(body);
+        // a share saved before its attachments were linked is searched once
+        ResponseEntity<Resource> response =
+                shareController.getShareAttachment(share.getId().toString(), HASH);
+
+        assertTrue(body.toString(StandardCharsets.UTF_8)
+                .contains("/api/shares/" + share.getId() + "/attachments/" + HASH));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("cat picture", response.getBody().getContentAsString(StandardCharsets.UTF_8));
+        Mockito.verify(attachmentStore).linkShare(HASH, share.getId());
+    }
+
+    @Test
+    void refusesAttachmentsOutsideTheShare() {
+        Mockito.when(attachmentStore.find(OTHER_HASH))
+                .thenReturn(Optional.of(Attachment.builder()
+                        .hash(OTHER_HASH)
+                        .mediaType("image/png")
+                        .build()));
+
+        assertThrows(
+                ForbiddenException.class,
+                () -> shareController.getShareAttachment(share.getId().toString(), OTHER_HASH));
+    }
+}
@@ -0,0 +1,59 @@
+package dev.chatbot.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class MeteredDataSourceTest {
+
+    private final Connection connection = mock(Connection.class);
+
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+
+    private MeteredDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource pool = mock(DataSource.class);
+        when(pool.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        dataSource = new MeteredDataSource(pool);
+    }
+
+    @Test
+    void countsStatementsAndCommitsOfBoundUsage() {
+        DatabaseUsage usage = new DatabaseUsage();
+
+        usage.run(() -> {
+            try (Connection metered = dataSource.getConnection()) {
+                metered.setAutoCommit(false);
+                metered.prepareStatement("SELECT 1").executeQuery();
+                PreparedStatement insert = metered.prepareStatement("INSERT");
+                insert.addBatch();
+                insert.addBatch();
+                insert.executeBatch();
+                metered.commit();
+                Thread.sleep(5);
+            } catch (SQLException | InterruptedException e) {
+                fail(e);
+            }
+        });
+
+        assertEquals(3, usage.roundTrips());
+        assertTrue(usage.connectionHeld().toMillis() >= 5);
+        assertNull(DatabaseUsage.current());
+    }
+
+    @Test
+    void handsOutConnectionsAsTheyAreWithoutUsage() throws SQLException {
+        assertSame(connection, dataSource.getConnection());
+    }
+}
@@ -0,0 +1,77 @@
+package dev.chatbot.service;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import dev.chatbot.domain.Conversation;
+import dev.chatbot.exception.RecordNotFoundException;
+import dev.chatbot.repository.ConversationRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConversationCacheTest {
+
+    private final ConversationRepository conversationRepository = mock(ConversationRepository.class);
+
+    private final UUID conversationId = UUID.randomUUID();
+
+    private ConversationService conversationService;
+
+    @BeforeEach
+    void setUp() {
+        ConversationCache conversationCache = new ConversationCache(
+                new ConversationCacheProperties(), mock(JdbcTemplate.class), new SimpleMeterRegistry(), "", "", "");
+        conversationService = new ConversationService(conversationRepository, conversationCache);
+        when(conversationRepository.findById(conversationId))
+                .thenAnswer(invocation -> Optional.of(conversation("New Chat")));
+        when(conversationRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void readsConversationsOnce() {
+        Conversation first = conversationService.getConversation(conversationId);
+        first.setTitle("Changed without saving");
+
+        Conversation second = conversationService.getConversation(conversationId);
+
+        assertEquals("New Chat", second.getTitle());
+        assertEquals("dev", second.getOwner());
+        verify(conversationRepository, times(1)).findById(conversationId);
+    }
+
+    @Test
+    void readsChangedConversationsAgain() {
+        Conversation conversation = conversationService.getConversation(conversationId);
+        conversation.setTitle("Renamed");
+        conversationService.saveConversation(conversation);
+        when(conversationRepository.findById(conversationId))
+                .thenAnswer(invocation -> Optional.of(conversation("Renamed")));
+
+        assertEquals(
+                "Renamed", conversationService.getConversation(conversationId).getTitle());
+
+        conversationService.deleteConversation(conversationId);
+        when(conversationRepository.findById(conversationId)).thenReturn(Optional.empty());
+
+        assertThrows(RecordNotFoundException.class, () -> conversationService.getConversation(conversationId));
+        verify(conversationRepository, times(3)).findById(conversationId);
+    }
+
+    private Conversation conversation(String title) {
+        return Conversation.builder()
+                .id(conversationId)
+                .owner("dev")
+                .title(title)
+                .pinned(false)
+                .archived(false)
+                .build();
+    }
+}
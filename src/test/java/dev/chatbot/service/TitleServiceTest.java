@@ -0,0 +1,60 @@
+package dev.chatbot.service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import dev.chatbot.aiservice.TitleAssistant;
+import dev.chatbot.aiservice.properties.AssistantProperties;
+import dev.chatbot.domain.Conversation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class TitleServiceTest {
+
+    @Mock
+    private TitleAssistant titleAssistant;
+
+    @Mock
+    private ChatMemoryStore chatMemoryStore;
+
+    @Mock
+    private ConversationService conversationService;
+
+    @Test
+    void writesTitleFromHistoryAndNewMessage() throws Exception {
+        Conversation conversation =
+                Conversation.builder().owner("dev").title("New Chat").build();
+        conversation.setId(UUID.randomUUID());
+        Mockito.when(chatMemoryStore.getMessages(conversation.getId()))
+                .thenReturn(List.of(
+                        SystemMessage.from("You are Mo"),
+                        UserMessage.from("Hi"),
+                        AiMessage.from("Hello! How can I help?")));
+        Mockito.when(titleAssistant.summarize("Human: Hi\nAI: Hello! How can I help?\nHuman: Weather in Paris?"))
+                .thenReturn("Paris weather");
+        TitleService titleService =
+                new TitleService(titleAssistant, chatMemoryStore, conversationService, new AssistantProperties());
+        CompletableFuture<String> title = new CompletableFuture<>();
+
+        titleService.generateAsync(conversation, "Weather in Paris?", title::complete);
+
+        assertEquals("Paris weather", title.get(5, TimeUnit.SECONDS));
+        assertEquals("Paris weather", conversation.getTitle());
+        Mockito.verify(conversationService).saveConversation(conversation);
+        titleService.shutdown();
+    }
+}